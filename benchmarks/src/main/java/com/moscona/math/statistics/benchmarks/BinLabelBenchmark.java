@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import com.moscona.math.statistics.Bin;
+import com.moscona.math.statistics.DoubleRangeHistogram;
+import com.moscona.math.statistics.HistogramExporter;
+import com.moscona.math.statistics.LinearDoubleBinLayout;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering bin labels, one at a time and by exporting a whole histogram with cached labels
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinLabelBenchmark {
+    private Bin<Integer> integerBin;
+    private Bin<Double> doubleBin;
+    private Bin<String> stringBin;
+    private DoubleRangeHistogram histogram;
+    private StringBuilder out;
+    private HistogramExporter exporter;
+
+    @Setup
+    public void setup() throws Exception {
+        integerBin = new Bin<>(1000, 1999, 0);
+        doubleBin = new Bin<>(0.125, 1024.5, 0);
+        stringBin = new Bin<>("apple", "banana", 0);
+        histogram = new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 1.0, 100));
+        histogram.recordAll(Distributions.generate(Distributions.UNIFORM, 10000, 100.0, 42));
+        out = new StringBuilder(1 << 16);
+        exporter = new HistogramExporter(out);
+    }
+
+    @Benchmark
+    public String integerLabel() {
+        return integerBin.getBinLabel("-");
+    }
+
+    @Benchmark
+    public String doubleLabel() {
+        return doubleBin.getBinLabel("-");
+    }
+
+    @Benchmark
+    public String stringLabel() {
+        return stringBin.getBinLabel("-");
+    }
+
+    @Benchmark
+    public String cachedDoubleLabel() {
+        return histogram.getBinLabel(17, "-");
+    }
+
+    @Benchmark
+    public int exportCsv() throws Exception {
+        out.setLength(0);
+        exporter.writeCsv("histogram", histogram);
+        return out.length();
+    }
+
+    @Benchmark
+    public int exportPrometheus() throws Exception {
+        out.setLength(0);
+        exporter.writePrometheus("histogram", histogram);
+        return out.length();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import com.moscona.math.statistics.AsyncDoubleRecorder;
+import com.moscona.math.statistics.ConcurrentRangeHistogram;
+import com.moscona.math.statistics.DoubleRangeHistogram;
+import com.moscona.math.statistics.RangeHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording into a histogram shared by several threads
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ConcurrentRecordingBenchmark {
+    private static final int VALUES = 4096;
+
+    @State(Scope.Benchmark)
+    public static class SharedHistogram {
+        ConcurrentRangeHistogram<Double> histogram;
+
+        @Setup
+        public void setup() throws Exception {
+            RangeHistogram<Double> layout = new RangeHistogram<>();
+            layout.addBins(new DoubleRangeHistogram(RecordingBenchmark.layout("linear")).getBins());
+            histogram = new ConcurrentRangeHistogram<>(layout);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedRecorder {
+        AsyncDoubleRecorder recorder;
+
+        @Setup
+        public void setup() throws Exception {
+            recorder = new AsyncDoubleRecorder(
+                    Collections.singletonList(new DoubleRangeHistogram(RecordingBenchmark.layout("linear"))),
+                    65536, AsyncDoubleRecorder.OverflowPolicy.BLOCK);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            recorder.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadValues {
+        @Param({Distributions.UNIFORM, Distributions.PARETO})
+        String distribution;
+
+        Double[] values;
+        int cursor = 0;
+
+        @Setup
+        public void setup() {
+            double[] generated = Distributions.generate(distribution, VALUES, RecordingBenchmark.RANGE,
+                    Thread.currentThread().getId());
+            values = new Double[VALUES];
+            for (int i = 0; i < VALUES; i++) {
+                values[i] = generated[i];
+            }
+        }
+
+        Double next() {
+            cursor = (cursor + 1) & (VALUES - 1);
+            return values[cursor];
+        }
+    }
+
+    @Benchmark
+    public void record(SharedHistogram shared, ThreadValues values) {
+        shared.histogram.record(values.next());
+    }
+
+    /**
+     * The cost to the recording thread of queueing a value for a drainer thread, including waiting for the drainer
+     * when it falls behind
+     */
+    @Benchmark
+    public void recordAsync(SharedRecorder shared, ThreadValues values) {
+        shared.recorder.record(0, values.next());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import com.moscona.math.statistics.Bin;
+import com.moscona.math.statistics.ExplicitDoubleBinLayout;
+import com.moscona.math.statistics.RangeHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building histograms with a growing number of bins, given in random order
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstructionBenchmark {
+    @Param({"10", "100", "1000", "5000"})
+    private int numberOfBins;
+
+    private List<Bin<Integer>> bins;
+    private double[] from;
+    private double[] to;
+
+    @Setup
+    public void setup() throws Exception {
+        bins = new ArrayList<>(numberOfBins);
+        for (int i = 0; i < numberOfBins; i++) {
+            bins.add(new Bin<>(i * 10, i * 10 + 9, 0));
+        }
+        Collections.shuffle(bins, new Random(1));
+        from = new double[numberOfBins];
+        to = new double[numberOfBins];
+        for (int i = 0; i < numberOfBins; i++) {
+            from[i] = bins.get(i).getFrom();
+            to[i] = bins.get(i).getTo() + 1.0;
+        }
+    }
+
+    @Benchmark
+    public RangeHistogram<Integer> addBin() throws Exception {
+        RangeHistogram<Integer> histogram = new RangeHistogram<>();
+        for (Bin<Integer> bin: bins) {
+            histogram.addBin(bin.getFrom(), bin.getTo(), bin.getCount());
+        }
+        return histogram;
+    }
+
+    @Benchmark
+    public RangeHistogram<Integer> addBins() throws Exception {
+        return new RangeHistogram<Integer>().addBins(bins);
+    }
+
+    @Benchmark
+    public ExplicitDoubleBinLayout explicitDoubleBinLayout() throws Exception {
+        return new ExplicitDoubleBinLayout(from, to);
+    }
+}
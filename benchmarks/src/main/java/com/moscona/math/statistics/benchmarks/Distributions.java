@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Seeded value distributions for the benchmarks, selected by name from a @Param
+ */
+final class Distributions {
+    static final String UNIFORM = "uniform";
+    static final String LOG_NORMAL = "lognormal";
+    static final String PARETO = "pareto";
+
+    private Distributions() {
+    }
+
+    /**
+     * Generates values scaled to roughly [0, range). Skewed distributions put most values near 0, with a long tail
+     * that may go beyond the range.
+     * @param name the name of the distribution
+     * @param count the number of values
+     * @param range the scale of the values
+     * @param seed the random seed
+     * @return the values
+     */
+    static double[] generate(String name, int count, double range, long seed) {
+        Random random = new Random(seed);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            switch (name) {
+                case UNIFORM:
+                    values[i] = random.nextDouble() * range;
+                    break;
+                case LOG_NORMAL:
+                    values[i] = Math.exp(random.nextGaussian() * 1.5) * range / 50.0;
+                    break;
+                case PARETO:
+                    values[i] = (Math.pow(1.0 - random.nextDouble(), -1.0 / 1.1) - 1.0) * range / 20.0;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown distribution: " + name);
+            }
+        }
+        return values;
+    }
+}
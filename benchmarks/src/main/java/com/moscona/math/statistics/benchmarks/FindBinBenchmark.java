@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import com.moscona.math.statistics.Bin;
+import com.moscona.math.statistics.DoubleRangeHistogram;
+import com.moscona.math.statistics.ExplicitDoubleBinLayout;
+import com.moscona.math.statistics.Granularity;
+import com.moscona.math.statistics.RangeHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bin lookups that hit a bin and that miss (fall in a gap or outside of all bins), for Integer, Double and String
+ * bins. Bin i covers [10i, 10i + 5], so every bin is followed by a gap. The bins that are probed follow the
+ * distribution. The granular variants compare values at an absolute granularity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FindBinBenchmark {
+    private static final int PROBES = 4096; // a power of two, so that the cursor can wrap with a mask
+
+    @Param({"16", "1024"})
+    private int numberOfBins;
+
+    @Param({Distributions.UNIFORM, Distributions.LOG_NORMAL, Distributions.PARETO})
+    private String distribution;
+
+    private RangeHistogram<Integer> integerHistogram;
+    private RangeHistogram<Double> doubleHistogram;
+    private RangeHistogram<String> stringHistogram;
+    private DoubleRangeHistogram primitiveHistogram;
+    private RangeHistogram<Double> granularHistogram;
+    private DoubleRangeHistogram granularPrimitiveHistogram;
+    private Integer[] integerHits;
+    private Integer[] integerMisses;
+    private Double[] doubleHits;
+    private Double[] doubleMisses;
+    private String[] stringHits;
+    private String[] stringMisses;
+    private double[] primitiveHits;
+    private int cursor = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        integerHistogram = new RangeHistogram<>();
+        doubleHistogram = new RangeHistogram<>();
+        granularHistogram = new RangeHistogram<>(Granularity.absolute(1e-9));
+        stringHistogram = new RangeHistogram<>();
+        double[] from = new double[numberOfBins];
+        double[] to = new double[numberOfBins];
+        for (int i = 0; i < numberOfBins; i++) {
+            integerHistogram.addBin(i * 10, i * 10 + 5, 0);
+            doubleHistogram.addBin(i * 10.0, i * 10.0 + 5.0, 0);
+            granularHistogram.addBin(i * 10.0, i * 10.0 + 5.0, 0);
+            stringHistogram.addBin(label(i * 10), label(i * 10 + 5), 0);
+            from[i] = i * 10.0;
+            to[i] = i * 10.0 + 5.0;
+        }
+        primitiveHistogram = new DoubleRangeHistogram(from, to);
+        granularPrimitiveHistogram = new DoubleRangeHistogram(
+                new ExplicitDoubleBinLayout(from, to, Granularity.absolute(1e-9)));
+
+        double[] positions = Distributions.generate(distribution, PROBES, numberOfBins, 1);
+        integerHits = new Integer[PROBES];
+        integerMisses = new Integer[PROBES];
+        doubleHits = new Double[PROBES];
+        doubleMisses = new Double[PROBES];
+        stringHits = new String[PROBES];
+        stringMisses = new String[PROBES];
+        primitiveHits = new double[PROBES];
+        for (int i = 0; i < PROBES; i++) {
+            int bin = Math.min(numberOfBins - 1, (int) positions[i]);
+            int hit = bin * 10 + i % 6;
+            // mostly gaps, with every 8th probe below or above all bins
+            int miss = i % 8 == 0 ? -1 : i % 8 == 1 ? numberOfBins * 10 : bin * 10 + 6 + i % 4;
+            integerHits[i] = hit;
+            integerMisses[i] = miss;
+            doubleHits[i] = hit + 0.5 * (i % 2);
+            doubleMisses[i] = miss + 0.5;
+            stringHits[i] = label(hit);
+            stringMisses[i] = miss < 0 ? "" : label(miss);
+            primitiveHits[i] = doubleHits[i];
+        }
+    }
+
+    private static String label(int value) {
+        return String.format("%08d", value);
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (PROBES - 1);
+        return cursor;
+    }
+
+    @Benchmark
+    public Bin<Integer> integerHit() {
+        return integerHistogram.findBin(integerHits[next()]);
+    }
+
+    @Benchmark
+    public Bin<Integer> integerMiss() {
+        return integerHistogram.findBin(integerMisses[next()]);
+    }
+
+    @Benchmark
+    public Bin<Double> doubleHit() {
+        return doubleHistogram.findBin(doubleHits[next()]);
+    }
+
+    @Benchmark
+    public Bin<Double> doubleMiss() {
+        return doubleHistogram.findBin(doubleMisses[next()]);
+    }
+
+    @Benchmark
+    public Bin<String> stringHit() {
+        return stringHistogram.findBin(stringHits[next()]);
+    }
+
+    @Benchmark
+    public Bin<String> stringMiss() {
+        return stringHistogram.findBin(stringMisses[next()]);
+    }
+
+    @Benchmark
+    public int primitiveDoubleHit() {
+        return primitiveHistogram.findBinIndex(primitiveHits[next()]);
+    }
+
+    @Benchmark
+    public Bin<Double> granularDoubleHit() {
+        return granularHistogram.findBin(doubleHits[next()]);
+    }
+
+    @Benchmark
+    public int granularPrimitiveDoubleHit() {
+        return granularPrimitiveHistogram.findBinIndex(primitiveHits[next()]);
+    }
+}
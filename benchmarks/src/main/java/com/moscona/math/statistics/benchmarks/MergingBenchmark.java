@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import com.moscona.math.statistics.DoubleQuantileSketch;
+import com.moscona.math.statistics.DoubleRangeHistogram;
+import com.moscona.math.statistics.HistogramCodec;
+import com.moscona.math.statistics.LinearDoubleBinLayout;
+import com.moscona.math.statistics.Bin;
+import com.moscona.math.statistics.RangeHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging histograms and sketches, encoding histograms for shipping them to where they are merged, and taking the
+ * counts of an interval out of a histogram
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergingBenchmark {
+    @Param({"100", "2000"})
+    private int numberOfBins;
+
+    @Param({Distributions.UNIFORM, Distributions.PARETO})
+    private String distribution;
+
+    private DoubleRangeHistogram target;
+    private DoubleRangeHistogram source;
+    private DoubleRangeHistogram coarseTarget;
+    private RangeHistogram<Double> genericTarget;
+    private RangeHistogram<Double> genericSource;
+    private DoubleQuantileSketch targetSketch;
+    private DoubleQuantileSketch sourceSketch;
+    private ByteBuffer buffer;
+    private DoubleRangeHistogram earlier;
+
+    @Setup
+    public void setup() throws Exception {
+        double[] values = Distributions.generate(distribution, 100000, RecordingBenchmark.RANGE, 1);
+        LinearDoubleBinLayout layout = new LinearDoubleBinLayout(0.0, RecordingBenchmark.RANGE, numberOfBins);
+        target = new DoubleRangeHistogram(layout);
+        source = new DoubleRangeHistogram(layout);
+        source.recordAll(values);
+        coarseTarget = new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, RecordingBenchmark.RANGE, numberOfBins / 3));
+        genericTarget = new RangeHistogram<>();
+        genericTarget.addBins(target.getBins());
+        genericSource = new RangeHistogram<>();
+        genericSource.addBins(source.getBins());
+        targetSketch = new DoubleQuantileSketch();
+        sourceSketch = new DoubleQuantileSketch();
+        for (double value: values) {
+            sourceSketch.update(value);
+        }
+        buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(source));
+        earlier = new DoubleRangeHistogram(layout);
+        earlier.recordAll(Distributions.generate(distribution, 50000, RecordingBenchmark.RANGE, 1));
+        source.add(earlier); // earlier is now an earlier snapshot of source
+    }
+
+    @Benchmark
+    public DoubleRangeHistogram addSameLayout() throws Exception {
+        return target.add(source);
+    }
+
+    @Benchmark
+    public DoubleRangeHistogram addRedistributed() {
+        return coarseTarget.addRedistributed(source);
+    }
+
+    @Benchmark
+    public RangeHistogram<Double> addGeneric() throws Exception {
+        return genericTarget.add(genericSource);
+    }
+
+    @Benchmark
+    public DoubleQuantileSketch mergeSketch() throws Exception {
+        return targetSketch.merge(sourceSketch);
+    }
+
+    /**
+     * The interval counts the way they are computed without minus(): through two lists of Bin objects
+     */
+    @Benchmark
+    public long[] intervalDeltaThroughBins() {
+        List<Bin<Double>> later = source.getBins();
+        List<Bin<Double>> before = earlier.getBins();
+        long[] delta = new long[later.size()];
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = later.get(i).getCount() - before.get(i).getCount();
+        }
+        return delta;
+    }
+
+    @Benchmark
+    public DoubleRangeHistogram intervalDelta() throws Exception {
+        return source.minus(earlier);
+    }
+
+    @Benchmark
+    public DoubleRangeHistogram snapshotAndReset() {
+        return target.snapshotAndReset();
+    }
+
+    @Benchmark
+    public DoubleRangeHistogram encodeDecode() throws Exception {
+        buffer.clear();
+        HistogramCodec.encode(source, buffer);
+        buffer.flip();
+        return HistogramCodec.decodeDouble(buffer);
+    }
+}
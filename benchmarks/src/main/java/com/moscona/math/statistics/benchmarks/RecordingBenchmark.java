@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics.benchmarks;
+
+import com.moscona.math.statistics.AdaptiveDoubleRangeHistogram;
+import com.moscona.math.statistics.DoubleBinLayout;
+import com.moscona.math.statistics.DoubleQuantileSketch;
+import com.moscona.math.statistics.DoubleRangeHistogram;
+import com.moscona.math.statistics.DoubleRangeHistogram2D;
+import com.moscona.math.statistics.ExplicitDoubleBinLayout;
+import com.moscona.math.statistics.LinearDoubleBinLayout;
+import com.moscona.math.statistics.LogLinearDoubleBinLayout;
+import com.moscona.math.statistics.RangeHistogram;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording values from a distribution over [0, 1000), one at a time and in bulk
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordingBenchmark {
+    private static final int VALUES = 4096; // a power of two, so that the cursor can wrap with a mask
+    static final double RANGE = 1000.0;
+
+    @Param({Distributions.UNIFORM, Distributions.LOG_NORMAL, Distributions.PARETO})
+    private String distribution;
+
+    @Param({"explicit", "linear", "loglinear"})
+    private String layoutType;
+
+    private double[] values;
+    private Double[] boxedValues;
+    private DoubleRangeHistogram histogram;
+    private RangeHistogram<Double> genericHistogram;
+    private AdaptiveDoubleRangeHistogram adaptiveHistogram;
+    private DoubleQuantileSketch sketch;
+    private DoubleRangeHistogram2D histogram2D;
+    private int cursor = 0;
+
+    @Setup
+    public void setup() throws Exception {
+        values = Distributions.generate(distribution, VALUES, RANGE, 1);
+        boxedValues = new Double[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            boxedValues[i] = values[i];
+        }
+        DoubleBinLayout layout = layout(layoutType);
+        histogram = new DoubleRangeHistogram(layout);
+        genericHistogram = new RangeHistogram<>();
+        genericHistogram.addBins(histogram.getBins());
+        adaptiveHistogram = new AdaptiveDoubleRangeHistogram(layout.getNumberOfBins());
+        sketch = new DoubleQuantileSketch();
+        histogram2D = new DoubleRangeHistogram2D(layout, new LinearDoubleBinLayout(0.0, RANGE, 10));
+    }
+
+    static DoubleBinLayout layout(String type) throws Exception {
+        switch (type) {
+            case "explicit":
+                double[] boundaries = new double[1001];
+                for (int i = 0; i < boundaries.length; i++) {
+                    boundaries[i] = i;
+                }
+                return ExplicitDoubleBinLayout.contiguous(boundaries);
+            case "linear":
+                return new LinearDoubleBinLayout(0.0, RANGE, 1000);
+            case "loglinear":
+                return new LogLinearDoubleBinLayout(1.0, RANGE, 2);
+            default:
+                throw new IllegalArgumentException("unknown layout: " + type);
+        }
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & (VALUES - 1);
+        return cursor;
+    }
+
+    @Benchmark
+    public void record() {
+        histogram.record(values[next()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void recordAll() {
+        histogram.recordAll(values);
+    }
+
+    @Benchmark
+    public void recordGeneric() {
+        genericHistogram.record(boxedValues[next()]);
+    }
+
+    @Benchmark
+    public void recordAdaptive() {
+        adaptiveHistogram.record(values[next()]);
+    }
+
+    /**
+     * Records pairs, with the bins of the layout on the x axis and ten linear bins on the y axis
+     */
+    @Benchmark
+    public void record2D() {
+        int i = next();
+        histogram2D.record(values[i], values[i ^ 1]);
+    }
+
+    @Benchmark
+    public void updateSketch() {
+        sketch.update(values[next()]);
+    }
+}
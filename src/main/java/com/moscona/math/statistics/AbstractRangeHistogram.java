@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Base class for histograms, implementing the ImmutableRangeHistogram view on top of index based accessors.
+ * Bin objects are only created when the view is used.
+ * Quantile and cumulative count queries use an index of cumulative counts, built lazily and searched with a binary
+ * search. It is kept until the counts change, as told by getCountsVersion().
+ */
+abstract class AbstractRangeHistogram<T extends Comparable<T>> implements ImmutableRangeHistogram<T> {
+    /**
+     * A counts version for histograms whose counts may change at any time, for example from other threads.
+     * Such histograms build the cumulative counts index for every query.
+     */
+    static final long VOLATILE_COUNTS = -1;
+
+    private long[] cumulativeCounts = null; // cumulativeCounts[i] is the sum of the counts of the bins before bin i
+    private long cumulativeCountsVersion;
+    private BinLabels labels = null;
+    private Object labelsLayout = null; // the layout key the labels were taken for
+
+    public abstract int getNumberOfBins();
+
+    public abstract long getCount(int index);
+
+    abstract T getBinFrom(int index);
+
+    abstract T getBinTo(int index);
+
+    /**
+     * @return the index of the bin containing the value, or a negative value if no bin contains it
+     */
+    abstract int indexOf(T value);
+
+    /**
+     * @return a number that changes whenever any count changes, or VOLATILE_COUNTS
+     */
+    abstract long getCountsVersion();
+
+    /**
+     * @return an immutable object identifying the bins of this histogram, with a stable hash code, under which
+     * rendered labels are cached and shared with other histograms; or null if the bins may change
+     */
+    Object getLayoutKey() {
+        return null;
+    }
+
+    /**
+     * @return the granularity at which real bins are compared. Always EXACT for other bins.
+     */
+    public Granularity getGranularity() {
+        return Granularity.EXACT;
+    }
+
+    /**
+     * @return the total weight recorded for values below all bins
+     */
+    public long getUnderflowCount() {
+        return 0;
+    }
+
+    /**
+     * @return the total weight recorded for values above all bins
+     */
+    public long getOverflowCount() {
+        return 0;
+    }
+
+    /**
+     * @return the total weight recorded for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        return 0;
+    }
+
+    /**
+     * Gets the label of a bin, as Bin.getBinLabel() renders it. Labels are cached per layout, so histograms that
+     * share a layout render each label only once.
+     * @param index the index of the bin
+     * @param separator the separator between the boundaries
+     * @return the label
+     */
+    public String getBinLabel(int index, String separator) {
+        BinLabels cached = getLabels();
+        if (cached == null) {
+            return Bin.label(getBinFrom(index), getBinTo(index), separator);
+        }
+        return cached.label(index, separator, this);
+    }
+
+    /**
+     * @return the cached labels of the bins, or null if they are not cached
+     */
+    BinLabels getLabels() {
+        Object layout = getLayoutKey();
+        if (layout == null) {
+            return null;
+        }
+        BinLabels cached = labels;
+        if (cached == null || labelsLayout != layout) {
+            cached = BinLabels.of(layout, getNumberOfBins());
+            labels = cached;
+            labelsLayout = layout;
+        }
+        return cached;
+    }
+
+    @Override
+    public List<Bin<T>> getBins() {
+        int size = getNumberOfBins();
+        ArrayList<Bin<T>> bins = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            bins.add(binAt(i));
+        }
+        return Collections.unmodifiableList(bins);
+    }
+
+    @Override
+    public Bin<T> findBin(T value) {
+        int i = indexOf(value);
+        return i < 0 ? null : binAt(i);
+    }
+
+    @Override
+    public boolean contains(T value) {
+        return indexOf(value) >= 0;
+    }
+
+    private Bin<T> binAt(int index) {
+        return Bin.of(getBinFrom(index), getBinTo(index), getCount(index), getGranularity());
+    }
+
+    /**
+     * Histograms are equal if they have equal bins, with equal counts, like their getBins() lists.
+     * Compares the bins without creating Bin objects, and without comparing boundaries when both histograms are known
+     * to share their bins.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ImmutableRangeHistogram)) return false;
+        if (!(o instanceof AbstractRangeHistogram)) {
+            return getBins().equals(((ImmutableRangeHistogram<?>) o).getBins());
+        }
+
+        AbstractRangeHistogram<?> other = (AbstractRangeHistogram<?>) o;
+        int size = getNumberOfBins();
+        if (other.getNumberOfBins() != size || !hasSameBins(other)) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (getCount(i) != other.getCount(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The same as getBins().hashCode()
+     */
+    @Override
+    public int hashCode() {
+        int result = 1;
+        int size = getNumberOfBins();
+        Granularity granularity = getGranularity();
+        for (int i = 0; i < size; i++) {
+            long count = getCount(i);
+            int binHash = Bin.hashOf(getBinFrom(i), granularity);
+            binHash = 31 * binHash + Bin.hashOf(getBinTo(i), granularity);
+            binHash = 31 * binHash + (int) (count ^ (count >>> 32));
+            result = 31 * result + binHash;
+        }
+        return result;
+    }
+
+    /**
+     * @param other a histogram with the same number of bins
+     * @return true if the bins of the other histogram have the same boundaries and granularity as the bins of this one
+     */
+    boolean hasSameBins(AbstractRangeHistogram<?> other) {
+        int size = getNumberOfBins();
+        Granularity granularity = getGranularity();
+        if (size > 0 && !granularity.equals(other.getGranularity())) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!Bin.sameBoundary(getBinFrom(i), other.getBinFrom(i), granularity) ||
+                    !Bin.sameBoundary(getBinTo(i), other.getBinTo(i), granularity)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T valueAtQuantile(double quantile) throws InvalidArgumentException {
+        if (!(quantile >= 0.0 && quantile <= 1.0)) {
+            throw new InvalidArgumentException("the quantile must be between 0 and 1: " + quantile);
+        }
+        long[] cumulative = getCumulativeCounts();
+        int size = cumulative.length - 1;
+        long total = cumulative[size];
+        if (total == 0) {
+            return null;
+        }
+        double rank = quantile * total;
+
+        // the first bin whose cumulative count reaches the rank, skipping empty bins
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid + 1] >= rank && cumulative[mid + 1] > 0) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        long count = cumulative[low + 1] - cumulative[low];
+        double fraction = Math.max(0.0, Math.min(1.0, (rank - cumulative[low]) / count));
+        return interpolate(low, fraction);
+    }
+
+    @Override
+    public long countBelow(T value) {
+        return Math.round(rankOf(value, getCumulativeCounts()));
+    }
+
+    @Override
+    public long countBetween(T low, T high) {
+        long[] cumulative = getCumulativeCounts();
+        return Math.max(0, Math.round(rankOf(high, cumulative) - rankOf(low, cumulative)));
+    }
+
+    @Override
+    public double quantileOf(T value) {
+        long[] cumulative = getCumulativeCounts();
+        long total = cumulative[cumulative.length - 1];
+        return total == 0 ? Double.NaN : rankOf(value, cumulative) / total;
+    }
+
+    /**
+     * @return the estimated number of values in bins below the value
+     */
+    private double rankOf(T value, long[] cumulative) {
+        int i = indexOf(value);
+        if (i < 0) {
+            return cumulative[-i - 1]; // all the bins before the insertion point
+        }
+        long count = cumulative[i + 1] - cumulative[i];
+        return cumulative[i] + (count == 0 ? 0.0 : count * fractionBelow(i, value));
+    }
+
+    private long[] getCumulativeCounts() {
+        long version = getCountsVersion();
+        long[] cumulative = cumulativeCounts;
+        if (cumulative != null && version != VOLATILE_COUNTS && version == cumulativeCountsVersion) {
+            return cumulative;
+        }
+        int size = getNumberOfBins();
+        cumulative = new long[size + 1];
+        for (int i = 0; i < size; i++) {
+            cumulative[i + 1] = cumulative[i] + getCount(i);
+        }
+        if (version != VOLATILE_COUNTS) {
+            cumulativeCounts = cumulative;
+            cumulativeCountsVersion = version;
+        }
+        return cumulative;
+    }
+
+    /**
+     * @return the part of the bin below the value (which is in the bin), assuming a uniform distribution
+     */
+    private double fractionBelow(int index, T value) {
+        T from = getBinFrom(index);
+        if (!(from instanceof Number)) {
+            return 0.0;
+        }
+        double low = ((Number) from).doubleValue();
+        double high = ((Number) getBinTo(index)).doubleValue();
+        double position = ((Number) value).doubleValue();
+        if (isReal(from)) {
+            return high > low ? Math.min(1.0, (position - low) / (high - low)) : 0.0;
+        }
+        return (position - low) / (high - low + 1.0); // a discreet bin holds high - low + 1 values
+    }
+
+    /**
+     * @return the value at a fraction of the values in the bin, assuming a uniform distribution
+     */
+    @SuppressWarnings("unchecked")
+    private T interpolate(int index, double fraction) {
+        T from = getBinFrom(index);
+        T to = getBinTo(index);
+        if (!(from instanceof Number)) {
+            return to;
+        }
+        double low = ((Number) from).doubleValue();
+        double high = ((Number) to).doubleValue();
+        if (from instanceof Double) {
+            return (T) Double.valueOf(Math.min(high, low + fraction * (high - low)));
+        }
+        if (from instanceof Float) {
+            return (T) Float.valueOf((float) Math.min(high, low + fraction * (high - low)));
+        }
+        // the value whose rank within the bin covers the fraction
+        long offset = Math.max(0, (long) Math.ceil(fraction * (high - low + 1.0)) - 1);
+        long value = Math.min(((Number) to).longValue(), ((Number) from).longValue() + offset);
+        if (from instanceof Long) {
+            return (T) Long.valueOf(value);
+        }
+        if (from instanceof Integer) {
+            return (T) Integer.valueOf((int) value);
+        }
+        if (from instanceof Short) {
+            return (T) Short.valueOf((short) value);
+        }
+        if (from instanceof Byte) {
+            return (T) Byte.valueOf((byte) value);
+        }
+        return to; // some other kind of number that we cannot construct
+    }
+
+    private static boolean isReal(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of doubles that chooses its own bins as values arrive, with at most a given number of bins.
+ * The bins are contiguous and cover all the values recorded so far: a value outside of them stretches the first or
+ * the last bin. A bin that gets more than twice its fair share of the total count (total / maximum number of bins)
+ * is split in half. When there is no room for another bin, the two adjacent bins with the smallest combined count
+ * are merged first, provided that they hold no more than half the count of the hot bin.
+ * <p>
+ * The total count is exact. The counts of split bins are estimated, assuming the values in a bin are uniformly
+ * distributed: each half gets half the count. Bins only ever contain whole bins that existed before them or halves of
+ * them, so getBins() is a valid, non-overlapping list of real bins at any time.
+ * <p>
+ * Splitting and merging shift the bins, so they cost O(number of bins). A bin only becomes hot again after receiving
+ * about total / maximum number of bins more values, and a failed attempt (when no bins can be merged, or the hot bin
+ * is too narrow to split) is not repeated for another maximum number of bins values, so the cost per recorded value is
+ * amortized O(1).
+ * <p>
+ * NaN values are counted as overflow, there is no underflow and there are no gaps. The summary statistics are exact,
+ * as they do not depend on the bins. Not thread safe.
+ */
+public class AdaptiveDoubleRangeHistogram extends AbstractRangeHistogram<Double> {
+    private static final int SPLIT_FACTOR = 2; // split bins with more than this many times the average count
+
+    private final int maxNumberOfBins;
+    private final double[] boundaries; // bin i is [boundaries[i], boundaries[i+1]]
+    private final long[] counts;
+    private int size = 0;
+    private long total = 0;
+    private long overflow = 0;
+    private long nextRebalanceAttempt = 0; // the total at which to try again after a failed split
+    private long version = 0;
+    private final SummaryStatistics summary = new SummaryStatistics();
+
+    /**
+     * Creates an empty histogram. The first value recorded creates the first bin.
+     * @param maxNumberOfBins the maximum number of bins
+     * @throws InvalidArgumentException if the maximum number of bins is less than 2
+     */
+    public AdaptiveDoubleRangeHistogram(int maxNumberOfBins) throws InvalidArgumentException {
+        if (maxNumberOfBins < 2) {
+            throw new InvalidArgumentException("there must be room for at least two bins: " + maxNumberOfBins);
+        }
+        this.maxNumberOfBins = maxNumberOfBins;
+        boundaries = new double[maxNumberOfBins + 1];
+        counts = new long[maxNumberOfBins];
+    }
+
+    public int getMaxNumberOfBins() {
+        return maxNumberOfBins;
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value, adapting the bins as needed
+     * @param value the value to record
+     */
+    public void record(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value, adapting the bins as needed
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(double value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        add(value, weight);
+    }
+
+    /**
+     * Records each of the values with a weight of one
+     * @param values the values to record
+     */
+    public void recordAll(double[] values) {
+        for (double value: values) {
+            add(value, 1);
+        }
+    }
+
+    private void add(double value, long weight) {
+        version++;
+        summary.add(value, weight);
+        if (value != value) { // NaN
+            overflow += weight;
+            return;
+        }
+        value += 0.0; // -0.0 becomes 0.0, so that no boundary is -0.0, which binarySearch orders before 0.0
+        int i;
+        if (size == 0) {
+            boundaries[0] = value;
+            boundaries[1] = value;
+            size = 1;
+            i = 0;
+        }
+        else if (value < boundaries[0]) {
+            boundaries[0] = value;
+            i = 0;
+        }
+        else if (value > boundaries[size]) {
+            boundaries[size] = value;
+            i = size - 1;
+        }
+        else {
+            i = findBinIndex(value);
+        }
+        counts[i] += weight;
+        total += weight;
+        if (counts[i] > SPLIT_FACTOR * (total / maxNumberOfBins) && counts[i] > 1 && total >= nextRebalanceAttempt) {
+            if (!split(i)) {
+                nextRebalanceAttempt = total + maxNumberOfBins;
+            }
+        }
+    }
+
+    /**
+     * Splits a bin in half, making room by merging two cold adjacent bins if needed
+     * @return true if the bin was split
+     */
+    private boolean split(int index) {
+        double from = boundaries[index];
+        double to = boundaries[index + 1];
+        double middle = from + (to - from) / 2;
+        if (!(middle > from && middle < to)) {
+            return false; // too narrow (or infinite) to split
+        }
+        if (size == maxNumberOfBins) {
+            int coldest = findColdestPair();
+            if (counts[coldest] + counts[coldest + 1] > counts[index] / 2) {
+                return false; // merging would create a bin hotter than the halves
+            }
+            merge(coldest);
+            if (coldest < index) {
+                index--;
+            }
+        }
+        System.arraycopy(boundaries, index + 1, boundaries, index + 2, size - index);
+        System.arraycopy(counts, index + 1, counts, index + 2, size - index - 1);
+        boundaries[index + 1] = middle;
+        long count = counts[index];
+        counts[index] = count - count / 2;
+        counts[index + 1] = count / 2;
+        size++;
+        return true;
+    }
+
+    /**
+     * @return the index of the first of the two adjacent bins with the smallest combined count
+     */
+    private int findColdestPair() {
+        int coldest = 0;
+        long smallest = Long.MAX_VALUE;
+        for (int i = 0; i < size - 1; i++) {
+            long combined = counts[i] + counts[i + 1];
+            if (combined < smallest) {
+                smallest = combined;
+                coldest = i;
+            }
+        }
+        return coldest;
+    }
+
+    private void merge(int index) {
+        counts[index] += counts[index + 1];
+        System.arraycopy(boundaries, index + 2, boundaries, index + 1, size - index - 1);
+        System.arraycopy(counts, index + 2, counts, index + 1, size - index - 2);
+        size--;
+    }
+
+    /**
+     * Finds the index of the bin containing the value
+     * @param value the value to look up
+     * @return the index of the bin, or a negative value if no bin contains it, following the convention of
+     * DoubleBinLayout.findBinIndex()
+     */
+    public int findBinIndex(double value) {
+        if (size == 0 || value != value) {
+            return -size - 1;
+        }
+        value += 0.0; // -0.0 becomes 0.0, as it does for the boundaries
+        if (value < boundaries[0]) {
+            return -1;
+        }
+        if (value > boundaries[size]) {
+            return -size - 1;
+        }
+        int i = Arrays.binarySearch(boundaries, 0, size + 1, value);
+        if (i >= 0) {
+            return Math.max(0, i - 1); // a shared boundary belongs to the lower bin
+        }
+        return -i - 2;
+    }
+
+    /**
+     * Creates a copy of the current bins, counts and summary statistics, with a layout that will no longer change
+     * @return a new histogram
+     */
+    public DoubleRangeHistogram snapshot() {
+        DoubleRangeHistogram copy;
+        try {
+            copy = new DoubleRangeHistogram(ExplicitDoubleBinLayout.ofSorted(
+                    Arrays.copyOfRange(boundaries, 0, size), Arrays.copyOfRange(boundaries, 1, size + 1)));
+        }
+        catch (InvalidArgumentException | InvalidStateException e) {
+            // cannot happen: the bins are contiguous and ascending by construction
+            throw new IllegalStateException("corrupt histogram boundaries", e);
+        }
+        BinCounts copyCounts = copy.getCounts();
+        for (int i = 0; i < size; i++) {
+            copyCounts.set(i, counts[i]);
+        }
+        copyCounts.setOutOfRange(0, 0, overflow);
+        copy.getSummary().merge(summary);
+        return copy;
+    }
+
+    @Override
+    public SummaryStatistics getSummaryStatistics() {
+        return new SummaryStatistics(summary);
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return size;
+    }
+
+    @Override
+    public long getCount(int index) {
+        checkIndex(index);
+        return counts[index];
+    }
+
+    public double getLowerBound(int index) {
+        checkIndex(index);
+        return boundaries[index];
+    }
+
+    public double getUpperBound(int index) {
+        checkIndex(index);
+        return boundaries[index + 1];
+    }
+
+    /**
+     * @return the sum of the counts of all bins
+     */
+    public long getTotalCount() {
+        return total;
+    }
+
+    /**
+     * @return the total weight recorded for NaN values
+     */
+    public long getOverflowCount() {
+        return overflow;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("no bin " + index);
+        }
+    }
+
+    @Override
+    Double getBinFrom(int index) {
+        return getLowerBound(index);
+    }
+
+    @Override
+    Double getBinTo(int index) {
+        return getUpperBound(index);
+    }
+
+    @Override
+    int indexOf(Double value) {
+        return findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return version;
+    }
+}
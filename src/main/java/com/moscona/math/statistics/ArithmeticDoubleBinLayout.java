@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+/**
+ * Base class for contiguous layouts whose bin boundaries are computed rather than stored.
+ * Subclasses provide a closed form estimate of the bin index, which is then corrected against the computed
+ * boundaries so that rounding errors never put a value in the wrong bin. The correction is at most a step or two, so
+ * lookups take constant time regardless of the number of bins.
+ */
+abstract class ArithmeticDoubleBinLayout implements DoubleBinLayout {
+    private final int numberOfBins;
+
+    ArithmeticDoubleBinLayout(int numberOfBins) {
+        this.numberOfBins = numberOfBins;
+    }
+
+    /**
+     * @param k a boundary number, from 0 to getNumberOfBins(). Must be non decreasing in k.
+     * @return the value of the boundary, which is the lower bound of bin k and the upper bound of bin k-1
+     */
+    abstract double boundary(int k);
+
+    /**
+     * @param value a value within the range of the layout
+     * @return an estimate of the index of the bin containing the value. Need not be exact, or even in range.
+     */
+    abstract int estimateIndex(double value);
+
+    @Override
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+
+    @Override
+    public int findBinIndex(double value) {
+        if (value < boundary(0)) {
+            return -1;
+        }
+        if (!(value <= boundary(numberOfBins))) { // also catches NaN
+            return -numberOfBins - 1;
+        }
+        int index = Math.max(0, Math.min(numberOfBins - 1, estimateIndex(value)));
+        while (index > 0 && value <= boundary(index)) {
+            index--;
+        }
+        while (index < numberOfBins - 1 && value > boundary(index + 1)) {
+            index++;
+        }
+        return index;
+    }
+
+    @Override
+    public double getLowerBound(int index) {
+        return boundary(index);
+    }
+
+    @Override
+    public double getUpperBound(int index) {
+        return boundary(index + 1);
+    }
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records values into a set of histograms from background threads, so that the threads recording them only pay for
+ * appending to a queue and not for the cache misses of looking up and counting bins.
+ * <p>
+ * Histograms are identified by their index in the list given to the constructor. Callers append (histogram, value)
+ * pairs to bounded ring buffers of primitive arrays, which do not allocate. Each recording thread uses one of the
+ * rings, chosen by its thread id, so recording threads rarely contend on a ring. Drainer threads take the pending
+ * updates from their rings in batches, sort each batch by histogram and value, and apply the updates of each histogram
+ * together, so that a histogram's bins stay in cache while its updates are applied.
+ * <p>
+ * When a ring is full, the overflow policy either drops the update, or makes the recording thread wait for room.
+ * Dropped updates are counted. Updates are applied with a delay: flush() waits until the updates recorded before it
+ * are applied, and close() applies all pending updates and stops the drainers. Updates recorded after close() are
+ * dropped.
+ * <p>
+ * The recorder owns its histograms: they may not be used directly while it runs. Use snapshot() or
+ * snapshotAndReset() to read them, which take a copy while no updates are being applied to the histogram.
+ * Thread safe.
+ */
+public class AsyncDoubleRecorder implements AutoCloseable {
+    /**
+     * What a recording thread does when the ring it appends to is full
+     */
+    public enum OverflowPolicy {
+        /** Drops the update and counts it */
+        DROP,
+        /** Waits until the drainers make room */
+        BLOCK
+    }
+
+    private static final long CLOSED = Long.MIN_VALUE; // set in the head of every ring on close
+    private static final long IDLE_WAIT_NANOS = 1_000_000; // drainers wait this long for a batch to fill
+    private static final long FULL_WAIT_NANOS = 50_000; // blocked recorders and flush() check again this often
+    private static final AtomicInteger RECORDERS = new AtomicInteger();
+
+    private final DoubleRangeHistogram[] histograms; // each also locks itself while updates are applied to it
+    private final Ring[] rings;
+    private final int ringMask;
+    private final OverflowPolicy policy;
+    private final Drainer[] drainers;
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private volatile boolean closed = false;
+
+    /**
+     * A bounded ring of (histogram, value) pairs with any number of producers and a single consumer. Producers claim a
+     * slot by advancing the head, then publish it by setting its sequence, so the consumer only reads complete pairs.
+     */
+    private static final class Ring {
+        final int[] ids;
+        final double[] values;
+        final AtomicLongArray published; // the sequence number of the pair in each slot, plus one
+        final AtomicLong head = new AtomicLong(); // the next sequence number to claim, with CLOSED set once closed
+        final int mask;
+        volatile long tail = 0; // the next sequence number to take
+        volatile long done = 0; // every pair before this sequence number has been applied
+        volatile Drainer drainer;
+
+        Ring(int capacity) {
+            ids = new int[capacity];
+            values = new double[capacity];
+            published = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+
+    /**
+     * Creates a recorder with one drainer, on daemon threads
+     * @param histograms the histograms to record into, identified by their index in the list
+     * @param queueCapacity the capacity of each ring of pending updates, rounded up to a power of two
+     * @param policy what to do when a ring is full
+     * @throws InvalidArgumentException if there are no histograms or the capacity is not positive
+     */
+    public AsyncDoubleRecorder(List<DoubleRangeHistogram> histograms, int queueCapacity, OverflowPolicy policy) throws InvalidArgumentException {
+        this(histograms, queueCapacity, Math.min(queueCapacity, 1024), policy, 1, null);
+    }
+
+    /**
+     * @param histograms the histograms to record into, identified by their index in the list
+     * @param queueCapacity the capacity of each ring of pending updates, rounded up to a power of two
+     * @param batchSize the largest number of updates a drainer takes from a ring at a time
+     * @param policy what to do when a ring is full
+     * @param numberOfDrainers the number of drainer threads
+     * @param threadFactory creates the drainer threads, or null for daemon threads. On newer JVMs this may create
+     *                      virtual threads.
+     * @throws InvalidArgumentException if there are no histograms, or any of the numbers is not positive
+     */
+    public AsyncDoubleRecorder(List<DoubleRangeHistogram> histograms, int queueCapacity, int batchSize,
+                               OverflowPolicy policy, int numberOfDrainers, ThreadFactory threadFactory) throws InvalidArgumentException {
+        if (histograms.isEmpty()) {
+            throw new InvalidArgumentException("there must be at least one histogram");
+        }
+        if (queueCapacity < 1 || batchSize < 1 || numberOfDrainers < 1) {
+            throw new InvalidArgumentException("the queue capacity, batch size and number of drainers must be positive");
+        }
+        if (policy == null) {
+            throw new InvalidArgumentException("the overflow policy may not be null");
+        }
+        this.histograms = histograms.toArray(new DoubleRangeHistogram[histograms.size()]);
+        this.policy = policy;
+
+        int numberOfRings = powerOfTwoAtLeast(Math.max(numberOfDrainers, Runtime.getRuntime().availableProcessors()));
+        int capacity = powerOfTwoAtLeast(queueCapacity);
+        rings = new Ring[numberOfRings];
+        for (int i = 0; i < numberOfRings; i++) {
+            rings[i] = new Ring(capacity);
+        }
+        ringMask = numberOfRings - 1;
+
+        int recorder = RECORDERS.incrementAndGet();
+        drainers = new Drainer[numberOfDrainers];
+        for (int i = 0; i < numberOfDrainers; i++) {
+            Drainer drainer = new Drainer(Math.min(batchSize, capacity));
+            for (int r = i; r < numberOfRings; r += numberOfDrainers) {
+                drainer.add(rings[r]);
+            }
+            if (threadFactory == null) {
+                drainer.thread = new Thread(drainer, "histogram-recorder-" + recorder + "-" + i);
+                drainer.thread.setDaemon(true);
+            }
+            else {
+                drainer.thread = threadFactory.newThread(drainer);
+            }
+            drainers[i] = drainer;
+        }
+        for (Drainer drainer: drainers) {
+            drainer.thread.start();
+        }
+    }
+
+    private static int powerOfTwoAtLeast(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    /**
+     * Queues a value for recording in a histogram. Does not allocate. With the BLOCK policy, waits while the queue is
+     * full.
+     * @param histogramId the index of the histogram
+     * @param value the value to record
+     * @throws IndexOutOfBoundsException if there is no such histogram
+     */
+    public void record(int histogramId, double value) {
+        if (histogramId < 0 || histogramId >= histograms.length) {
+            throw new IndexOutOfBoundsException("no histogram " + histogramId);
+        }
+        Ring ring = rings[(int) Thread.currentThread().getId() & ringMask];
+        long sequence;
+        while (true) {
+            sequence = ring.head.get();
+            if (sequence < 0) { // closed
+                dropped.increment();
+                return;
+            }
+            if (sequence - ring.tail >= ring.ids.length) {
+                if (policy == OverflowPolicy.DROP || !ring.drainer.thread.isAlive()) {
+                    dropped.increment(); // a drainer that stopped will never make room
+                    return;
+                }
+                LockSupport.unpark(ring.drainer.thread);
+                LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+            }
+            else if (ring.head.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+        int slot = (int) sequence & ring.mask;
+        ring.ids[slot] = histogramId;
+        ring.values[slot] = value;
+        ring.published.lazySet(slot, sequence + 1);
+        Drainer drainer = ring.drainer;
+        if (sequence - ring.tail == drainer.batchSize - 1 && drainer.idle) { // a batch is ready
+            LockSupport.unpark(drainer.thread);
+        }
+    }
+
+    /**
+     * Waits until all the updates recorded before the call are applied to the histograms
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if a drainer stopped before applying them, with the drainer's failure as the
+     * cause if it failed
+     */
+    public void flush() throws InterruptedException {
+        long[] targets = new long[rings.length];
+        for (int i = 0; i < rings.length; i++) {
+            targets[i] = rings[i].head.get() & ~CLOSED;
+        }
+        for (int i = 0; i < rings.length; i++) {
+            Ring ring = rings[i];
+            while (ring.done < targets[i]) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                Drainer drainer = ring.drainer;
+                if (!drainer.thread.isAlive() && ring.done < targets[i]) {
+                    throw new IllegalStateException("a drainer stopped with " + (targets[i] - ring.done) +
+                            " updates not applied", drainer.failure);
+                }
+                LockSupport.unpark(ring.drainer.thread);
+                LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting updates, applies all the pending ones and waits for the drainers to stop. Updates recorded
+     * after close() starts are dropped. Does nothing if already closed.
+     * If interrupted, keeps waiting for the drainers, and sets the interrupt status of the thread again before
+     * returning.
+     */
+    @Override
+    public void close() {
+        // close the rings first: once closed is seen, no recorder can claim another slot
+        for (Ring ring: rings) {
+            long head;
+            do {
+                head = ring.head.get();
+            } while (head >= 0 && !ring.head.compareAndSet(head, head | CLOSED));
+        }
+        closed = true;
+        for (Drainer drainer: drainers) {
+            LockSupport.unpark(drainer.thread);
+        }
+        boolean interrupted = false;
+        for (Drainer drainer: drainers) {
+            while (true) {
+                try {
+                    drainer.thread.join();
+                    break;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Copies a histogram, with all the updates applied to it so far
+     * @param histogramId the index of the histogram
+     * @return an independent copy of the histogram
+     */
+    public DoubleRangeHistogram snapshot(int histogramId) {
+        DoubleRangeHistogram histogram = histograms[histogramId];
+        synchronized (histogram) {
+            return histogram.snapshot();
+        }
+    }
+
+    /**
+     * Takes the counts of a histogram, with all the updates applied to it so far, and starts it over, empty
+     * @param histogramId the index of the histogram
+     * @return a histogram with the counts the histogram had
+     * @see DoubleRangeHistogram#snapshotAndReset()
+     */
+    public DoubleRangeHistogram snapshotAndReset(int histogramId) {
+        DoubleRangeHistogram histogram = histograms[histogramId];
+        synchronized (histogram) {
+            return histogram.snapshotAndReset();
+        }
+    }
+
+    public int getNumberOfHistograms() {
+        return histograms.length;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of updates queued and not yet taken by a drainer
+     */
+    public long getQueueDepth() {
+        long depth = 0;
+        for (Ring ring: rings) {
+            long tail = ring.tail;
+            depth += (ring.head.get() & ~CLOSED) - tail;
+        }
+        return depth;
+    }
+
+    /**
+     * @return the number of updates dropped because their queue was full or the recorder was closed
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of updates applied to the histograms
+     */
+    public long getAppliedCount() {
+        return applied.sum();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Takes batches of updates from a set of rings and applies them. The batch arrays are reused, so draining does not
+     * allocate either.
+     */
+    private final class Drainer implements Runnable {
+        final int batchSize;
+        Ring[] owned = new Ring[0];
+        Thread thread;
+        volatile boolean idle = false;
+        volatile Throwable failure = null; // what stopped the drainer, if it failed
+        private final int[] ids;
+        private final double[] values;
+        private final double[] sorted; // the values of the batch, grouped by histogram
+        private final int[] starts; // where the values of each histogram start in sorted, by histogram index
+
+        Drainer(int batchSize) {
+            this.batchSize = batchSize;
+            ids = new int[batchSize];
+            values = new double[batchSize];
+            sorted = new double[batchSize];
+            starts = new int[histograms.length + 1];
+        }
+
+        void add(Ring ring) {
+            owned = Arrays.copyOf(owned, owned.length + 1);
+            owned[owned.length - 1] = ring;
+            ring.drainer = this;
+        }
+
+        @Override
+        public void run() {
+            try {
+                drainUntilClosed();
+            }
+            catch (RuntimeException | Error e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        private void drainUntilClosed() {
+            while (true) {
+                boolean closing = closed; // read before draining, so that nothing recorded before close is missed
+                int taken = 0;
+                for (Ring ring: owned) {
+                    taken += drain(ring);
+                }
+                if (taken == 0) {
+                    if (closing && isDrained()) {
+                        return;
+                    }
+                    idle = true;
+                    LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+                    idle = false;
+                }
+            }
+        }
+
+        /**
+         * @return true once every ring is closed and every slot claimed in it has been applied
+         */
+        private boolean isDrained() {
+            for (Ring ring: owned) {
+                long head = ring.head.get();
+                if (head >= 0 || ring.done != (head & ~CLOSED)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Takes the published updates at the tail of a ring, up to a batch, and applies them
+         * @return the number of updates applied
+         */
+        private int drain(Ring ring) {
+            long tail = ring.tail;
+            int count = 0;
+            while (count < batchSize) {
+                int slot = (int) (tail + count) & ring.mask;
+                if (ring.published.get(slot) != tail + count + 1) {
+                    break; // not claimed yet, or claimed and not yet published
+                }
+                ids[count] = ring.ids[slot];
+                values[count] = ring.values[slot];
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            ring.tail = tail + count; // the slots are free for recorders again
+            apply(count);
+            ring.done = tail + count;
+            return count;
+        }
+
+        /**
+         * Groups the values of the batch by histogram with a counting sort, sorts each group, and records the groups
+         */
+        private void apply(int count) {
+            Arrays.fill(starts, 0);
+            for (int i = 0; i < count; i++) {
+                starts[ids[i] + 1]++;
+            }
+            for (int h = 0; h < histograms.length; h++) {
+                starts[h + 1] += starts[h];
+            }
+            for (int i = 0; i < count; i++) {
+                sorted[starts[ids[i]]++] = values[i]; // leaves starts[h] at the end of group h
+            }
+            int from = 0;
+            for (int h = 0; h < histograms.length; h++) {
+                int to = starts[h];
+                if (to > from) {
+                    Arrays.sort(sorted, from, to); // neighboring values go to the same or nearby bins
+                    DoubleRangeHistogram histogram = histograms[h];
+                    synchronized (histogram) {
+                        for (int i = from; i < to; i++) {
+                            histogram.record(sorted[i]);
+                        }
+                    }
+                }
+                from = to;
+            }
+            applied.add(count);
+        }
+    }
+}
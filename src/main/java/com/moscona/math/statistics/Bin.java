@@ -28,14 +28,31 @@ import com.moscona.util.StringHelper;
 public class Bin<T extends Comparable<T>> implements Comparable<Bin<T>> {
     private T from;
     private T to;
-    private int count;
+    private final long count;
+    private final Granularity granularity; // always EXACT for bins that are not real
 
-    public Bin(T from, T to, int count) throws InvalidArgumentException {
+    public Bin(T from, T to, long count) throws InvalidArgumentException {
+        this(from, to, count, Granularity.EXACT);
+    }
+
+    /**
+     * Creates a bin whose boundaries are compared at the given granularity, if the bin is real. Bins of other types
+     * are always compared exactly.
+     * @throws InvalidArgumentException if any of the arguments is null, from or to are NaN, or from is larger than to
+     */
+    public Bin(T from, T to, long count, Granularity granularity) throws InvalidArgumentException {
         if (from == null || to == null) {
             throw new InvalidArgumentException("from and to arguments may not be null");
         }
+        if (granularity == null) {
+            throw new InvalidArgumentException("granularity may not be null");
+        }
+        if (isReal(from) && (isNaN(from) || isNaN(to))) {
+            throw new InvalidArgumentException("from and to arguments may not be NaN");
+        }
+        this.granularity = isReal(from) ? granularity : Granularity.EXACT;
 
-        if (from.compareTo(to) > 0) {
+        if (compare(from, to, this.granularity) > 0) {
             throw new InvalidArgumentException("from may not be larger than to.");
         }
 
@@ -44,7 +61,28 @@ public class Bin<T extends Comparable<T>> implements Comparable<Bin<T>> {
         this.count = count;
     }
 
-    public int getCount() {
+    private Bin(T from, T to, long count, Granularity granularity, boolean validated) {
+        this.from = from;
+        this.to = to;
+        this.count = count;
+        this.granularity = isReal(from) ? granularity : Granularity.EXACT;
+    }
+
+    /**
+     * Creates a bin without validating its boundaries. For use by histograms that already hold validated layouts.
+     */
+    static <T extends Comparable<T>> Bin<T> of(T from, T to, long count) {
+        return new Bin<>(from, to, count, Granularity.EXACT, true);
+    }
+
+    /**
+     * Creates a bin without validating its boundaries. For use by histograms that already hold validated layouts.
+     */
+    static <T extends Comparable<T>> Bin<T> of(T from, T to, long count, Granularity granularity) {
+        return new Bin<>(from, to, count, granularity, true);
+    }
+
+    public long getCount() {
         return count;
     }
 
@@ -56,10 +94,24 @@ public class Bin<T extends Comparable<T>> implements Comparable<Bin<T>> {
         return to;
     }
 
+    /**
+     * @return the granularity at which the boundaries of this bin are compared. Always EXACT unless the bin is real.
+     */
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
     public String getBinLabel(String separator) {
-        if (isNumeric()) {
+        return label(from, to, separator);
+    }
+
+    /**
+     * Renders the label of a bin with the given boundaries, as getBinLabel() does
+     */
+    static String label(Object from, Object to, String separator) {
+        if (from instanceof Number) {
             // pretty print
-            if (isReal()) {
+            if (isReal(from)) {
                 return StringHelper.prettyPrint(((Number) from).doubleValue()) + separator +
                         StringHelper.prettyPrint(((Number)to).doubleValue());
             }
@@ -74,18 +126,52 @@ public class Bin<T extends Comparable<T>> implements Comparable<Bin<T>> {
     }
 
     public boolean isReal() {
-        return Double.class.isAssignableFrom(from.getClass()) || Float.class.isAssignableFrom(from.getClass());
+        return isReal(from);
     }
 
     public boolean isNumeric() {
-        return Number.class.isAssignableFrom(from.getClass());
+        return from instanceof Number;
+    }
+
+    static boolean isReal(Object value) {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    private static boolean isNaN(Object value) {
+        return Double.isNaN(((Number) value).doubleValue());
+    }
+
+    /**
+     * Compares two boundaries (or a value and a boundary) of the same type: real ones at the given granularity,
+     * others with compareTo()
+     */
+    static <T extends Comparable<T>> int compare(T a, T b, Granularity granularity) {
+        if (isReal(a)) {
+            return granularity.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return a.compareTo(b);
     }
 
+    /**
+     * @return true if the boundaries are of the same type and equal, real ones at the given granularity
+     */
+    static boolean sameBoundary(Object a, Object b, Granularity granularity) {
+        if (isReal(a) && a.getClass() == b.getClass()) {
+            return granularity.equal(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        return a.equals(b);
+    }
+
+    /**
+     * @return the hash code of a boundary, consistent with sameBoundary()
+     */
+    static int hashOf(Object boundary, Granularity granularity) {
+        return isReal(boundary) ? granularity.hash(((Number) boundary).doubleValue()) : boundary.hashCode();
+    }
 
     /**
      * Compares strictly for use in the histogram. Compares only based on the from variable and assumes a set of
-     * strictly ordered bins.
-     * This is not particularly good for double bins with sloppy construction. No provision for comparison granularity
+     * strictly ordered bins. Real bins are compared at the granularity of this bin.
      * @param o the Bin to compare to
      * @return a negative integer, zero, or a positive integer as this object is less than, equal to, or greater than the specified object.
      */
@@ -95,40 +181,43 @@ public class Bin<T extends Comparable<T>> implements Comparable<Bin<T>> {
             return 0;
         }
         Bin<T> other = (Bin<T>)o;
-        return (from.compareTo(other.from));
-
-        // FIXME floating types need a comparison granularity feature
+        return compare(from, other.from, granularity);
     }
 
     public boolean contains(T value) {
-        return value.compareTo(from) >= 0 && value.compareTo(to) <= 0;
+        if (isReal(from) && isNaN(value)) {
+            return false;
+        }
+        return compare(value, from, granularity) >= 0 && compare(value, to, granularity) <= 0;
     }
 
     public boolean overlaps(Bin<T> bin) {
         return bin.contains(from) || bin.contains((to)) || contains(bin.from) || contains(bin.to);
     }
 
+    /**
+     * Bins are equal if they have the same counts and granularity, and their boundaries are equal at that granularity
+     */
     @Override
     public boolean equals(Object o) {
-        // FIXME just like compare() should support equality granularity for real bins
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
         Bin bin = (Bin) o;
 
         if (count != bin.count) return false;
-        if (!from.equals(bin.from)) return false;
-        if (!to.equals(bin.to)) return false;
+        if (!granularity.equals(bin.granularity)) return false;
+        if (!sameBoundary(from, bin.from, granularity)) return false;
+        if (!sameBoundary(to, bin.to, granularity)) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        // FIXME just like compare() should support hash value equality granularity for real bins
-        int result = from.hashCode();
-        result = 31 * result + to.hashCode();
-        result = 31 * result + count;
+        int result = hashOf(from, granularity);
+        result = 31 * result + hashOf(to, granularity);
+        result = 31 * result + (int) (count ^ (count >>> 32));
         return result;
     }
 
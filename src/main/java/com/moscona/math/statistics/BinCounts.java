@@ -0,0 +1,427 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import java.util.Arrays;
+
+/**
+ * Per-bin counts of a histogram, plus counters for values that fell outside of all bins.
+ * Bins are addressed by the lookup results of the histogram's index: a non-negative result is a bin index, a negative
+ * result is (-(insertion point) - 1) as in {@link java.util.Arrays#binarySearch(double[], double)}.
+ * <p>
+ * Layouts with many bins start with sparse storage: an open addressing map from bin index to count, which only holds
+ * the bins that have been counted. Once the map would take more memory than a plain array of counts (which happens at
+ * between a sixth and a third of the bins, as the map is between a quarter and half full) the counts move to an array.
+ * Counts of a histogram only grow, so there is no way back.
+ * Not thread safe.
+ */
+class BinCounts {
+    /**
+     * Layouts with fewer bins always use an array, the map would not save enough to matter
+     */
+    static final int MIN_SPARSE_BINS = 256;
+    private static final int EMPTY = -1;
+    private static final int INITIAL_SPARSE_CAPACITY = 16; // a power of two
+
+    private final int numberOfBins;
+    private long[] counts; // null while the counts are sparse
+    private int[] keys; // open addressing with linear probing, EMPTY for a free slot. null when dense.
+    private long[] values;
+    private int entries = 0;
+    private long underflow = 0;
+    private long overflow = 0;
+    private long gap = 0;
+    private long version = 0; // incremented on every change, so that derived indexes know when to rebuild
+
+    BinCounts(int numberOfBins) {
+        this.numberOfBins = numberOfBins;
+        allocate();
+    }
+
+    /**
+     * Creates an instance with the counts of another one, either copying or taking over its storage
+     */
+    private BinCounts(BinCounts other, boolean copy) {
+        numberOfBins = other.numberOfBins;
+        counts = copy && other.counts != null ? other.counts.clone() : other.counts;
+        keys = copy && other.keys != null ? other.keys.clone() : other.keys;
+        values = copy && other.values != null ? other.values.clone() : other.values;
+        entries = other.entries;
+        underflow = other.underflow;
+        overflow = other.overflow;
+        gap = other.gap;
+    }
+
+    private void allocate() {
+        if (numberOfBins < MIN_SPARSE_BINS) {
+            counts = new long[numberOfBins];
+            keys = null;
+            values = null;
+        }
+        else {
+            counts = null;
+            keys = new int[INITIAL_SPARSE_CAPACITY];
+            Arrays.fill(keys, EMPTY);
+            values = new long[INITIAL_SPARSE_CAPACITY];
+        }
+        entries = 0;
+    }
+
+    int size() {
+        return numberOfBins;
+    }
+
+    /**
+     * @return true while the counts are kept in a map rather than in an array
+     */
+    boolean isSparse() {
+        return counts == null;
+    }
+
+    /**
+     * Adds a weight to the bin (or out of range counter) identified by a lookup result
+     * @param lookupResult the bin index, or a negative lookup miss
+     * @param weight the weight to add
+     */
+    void add(int lookupResult, long weight) {
+        version++;
+        if (lookupResult >= 0) {
+            addToBin(lookupResult, weight);
+        }
+        else {
+            int insertionPoint = -lookupResult - 1;
+            if (insertionPoint == 0) {
+                underflow += weight;
+            }
+            else if (insertionPoint >= numberOfBins) {
+                overflow += weight;
+            }
+            else {
+                gap += weight;
+            }
+        }
+    }
+
+    private void addToBin(int index, long weight) {
+        if (counts != null) {
+            counts[index] += weight;
+        }
+        else if (weight != 0) {
+            int slot = slotOf(index);
+            if (keys[slot] == index) {
+                values[slot] += weight;
+            }
+            else {
+                insert(slot, index, weight);
+            }
+        }
+    }
+
+    /**
+     * @return the slot holding the bin's count, or the free slot where it belongs
+     */
+    private int slotOf(int index) {
+        int mask = keys.length - 1;
+        int hash = index * 0x9E3779B9; // spread out runs of adjacent bins
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (keys[slot] != index && keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insert(int slot, int index, long count) {
+        // the map takes 12 bytes per slot, the array 8 bytes per bin
+        int capacity = (entries + 1) * 2 > keys.length ? keys.length * 2 : keys.length;
+        if (capacity * 12L >= numberOfBins * 8L) {
+            toDense();
+            counts[index] = count;
+            return;
+        }
+        keys[slot] = index;
+        values[slot] = count;
+        entries++;
+        if (capacity != keys.length) {
+            rehash(capacity);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new long[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void toDense() {
+        long[] dense = new long[numberOfBins];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                dense[keys[i]] = values[i];
+            }
+        }
+        counts = dense;
+        keys = null;
+        values = null;
+        entries = 0;
+    }
+
+    /**
+     * Creates an accumulator for counting lookup results away from this instance, for example in a parallel
+     * reduction. An accumulator has a slot per bin, followed by slots for underflow, gap and overflow.
+     */
+    long[] newAccumulator() {
+        return new long[numberOfBins + 3];
+    }
+
+    /**
+     * Counts a lookup result in an accumulator
+     */
+    static void accumulate(long[] accumulator, int lookupResult) {
+        if (lookupResult >= 0) {
+            accumulator[lookupResult]++;
+            return;
+        }
+        int numberOfBins = accumulator.length - 3;
+        int insertionPoint = -lookupResult - 1;
+        if (insertionPoint == 0) {
+            accumulator[numberOfBins]++;
+        }
+        else if (insertionPoint >= numberOfBins) {
+            accumulator[numberOfBins + 2]++;
+        }
+        else {
+            accumulator[numberOfBins + 1]++;
+        }
+    }
+
+    /**
+     * Adds the second accumulator into the first
+     */
+    static void combine(long[] accumulator, long[] other) {
+        for (int i = 0; i < accumulator.length; i++) {
+            accumulator[i] += other[i];
+        }
+    }
+
+    /**
+     * Adds the counts of an accumulator created by newAccumulator()
+     */
+    void addAccumulator(long[] accumulator) {
+        version++;
+        for (int i = 0; i < numberOfBins; i++) {
+            if (accumulator[i] != 0) {
+                addToBin(i, accumulator[i]);
+            }
+        }
+        underflow += accumulator[numberOfBins];
+        gap += accumulator[numberOfBins + 1];
+        overflow += accumulator[numberOfBins + 2];
+    }
+
+    /**
+     * An accumulator (see newAccumulator()) together with a summary of the accumulated values, for histograms that
+     * keep summary statistics
+     */
+    static final class Accumulator {
+        final long[] counts;
+        final SummaryStatistics summary = new SummaryStatistics();
+
+        Accumulator(BinCounts binCounts) {
+            counts = binCounts.newAccumulator();
+        }
+
+        void accumulate(int lookupResult, double value) {
+            BinCounts.accumulate(counts, lookupResult);
+            summary.add(value, 1);
+        }
+
+        void combine(Accumulator other) {
+            BinCounts.combine(counts, other.counts);
+            summary.merge(other.summary);
+        }
+    }
+
+    /**
+     * Adds all the counts of another instance with the same number of bins
+     */
+    void addAll(BinCounts other) {
+        version++;
+        if (other.counts == null) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    addToBin(other.keys[i], other.values[i]);
+                }
+            }
+        }
+        else {
+            for (int i = 0; i < numberOfBins; i++) {
+                if (other.counts[i] != 0) {
+                    addToBin(i, other.counts[i]);
+                }
+            }
+        }
+        underflow += other.underflow;
+        gap += other.gap;
+        overflow += other.overflow;
+    }
+
+    /**
+     * Adds the out of range counts of another instance, regardless of its bins
+     */
+    void addOutOfRange(BinCounts other) {
+        version++;
+        underflow += other.underflow;
+        gap += other.gap;
+        overflow += other.overflow;
+    }
+
+    /**
+     * @return an independent copy of the counts
+     */
+    BinCounts copy() {
+        return new BinCounts(this, true);
+    }
+
+    /**
+     * Moves the counts to a new instance without copying them, and starts this one over with no counts
+     * @return an instance with the counts this one had
+     */
+    BinCounts takeAll() {
+        BinCounts taken = new BinCounts(this, false);
+        version++;
+        allocate();
+        underflow = 0;
+        overflow = 0;
+        gap = 0;
+        return taken;
+    }
+
+    /**
+     * Computes the counts added since an earlier copy of this instance was taken, in a single pass over the counts of
+     * this instance
+     * @param earlier an earlier copy, with the same number of bins
+     * @return the difference, or null if the other instance has a larger count anywhere, so it cannot be an earlier copy
+     */
+    BinCounts minus(BinCounts earlier) {
+        if (earlier.underflow > underflow || earlier.gap > gap || earlier.overflow > overflow) {
+            return null;
+        }
+        BinCounts delta = new BinCounts(numberOfBins);
+        long unmatched = earlier.getTotal(); // every earlier count must be in a bin that is counted here
+        if (counts != null) {
+            for (int i = 0; i < numberOfBins; i++) {
+                if (counts[i] != 0) {
+                    long before = earlier.get(i);
+                    if (before > counts[i]) {
+                        return null;
+                    }
+                    delta.addToBin(i, counts[i] - before);
+                    unmatched -= before;
+                }
+            }
+        }
+        else {
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (keys[slot] != EMPTY) {
+                    long before = earlier.get(keys[slot]);
+                    if (before > values[slot]) {
+                        return null;
+                    }
+                    delta.addToBin(keys[slot], values[slot] - before);
+                    unmatched -= before;
+                }
+            }
+        }
+        if (unmatched != 0) {
+            return null;
+        }
+        delta.underflow = underflow - earlier.underflow;
+        delta.gap = gap - earlier.gap;
+        delta.overflow = overflow - earlier.overflow;
+        return delta;
+    }
+
+    long get(int index) {
+        if (counts != null) {
+            return counts[index];
+        }
+        if (index < 0 || index >= numberOfBins) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        int slot = slotOf(index);
+        return keys[slot] == index ? values[slot] : 0;
+    }
+
+    void set(int index, long count) {
+        version++;
+        if (counts != null) {
+            counts[index] = count;
+            return;
+        }
+        int slot = slotOf(index);
+        if (keys[slot] == index) {
+            values[slot] = count; // a zero stays in the map, as counts only grow there is no point in removing it
+        }
+        else if (count != 0) {
+            insert(slot, index, count);
+        }
+    }
+
+    void setOutOfRange(long underflow, long gap, long overflow) {
+        version++;
+        this.underflow = underflow;
+        this.gap = gap;
+        this.overflow = overflow;
+    }
+
+    /**
+     * @return a number that changes whenever any of the counts changes
+     */
+    long getVersion() {
+        return version;
+    }
+
+    long getUnderflow() {
+        return underflow;
+    }
+
+    long getOverflow() {
+        return overflow;
+    }
+
+    long getGap() {
+        return gap;
+    }
+
+    long getTotal() {
+        long total = 0;
+        for (long count: counts != null ? counts : values) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sorted boundary index over a list of sorted, non-overlapping bins, used to find the bin containing a value
+ * with a binary search rather than a linear scan.
+ * Real bins are compared at the granularity of the index. Their boundaries are also kept as primitive keys of their
+ * grains (see Granularity), so looking up a value compares primitives rather than calling compareTo().
+ * The index is immutable and must be rebuilt whenever the bin list changes. Indexes with the same granularity and the
+ * same boundaries (at that granularity) are equal.
+ */
+class BinIndex<T extends Comparable<T>> {
+    private final Object[] from;
+    private final Object[] to;
+    private final Granularity granularity; // always EXACT for bins that are not real
+    private final double[] fromKeys; // the keys of the boundaries of real bins, null for other bins
+    private final double[] toKeys;
+
+    /**
+     * @param bins the bins to index. Must be sorted and validated as non-overlapping, at their own granularity.
+     */
+    BinIndex(List<Bin<T>> bins) {
+        this(bins, bins.isEmpty() ? Granularity.EXACT : bins.get(0).getGranularity());
+    }
+
+    /**
+     * @param bins the bins to index. Must be sorted and validated as non-overlapping at the granularity.
+     * @param granularity the granularity of the index. Kept by an empty index, ignored if the bins are not real.
+     */
+    BinIndex(List<Bin<T>> bins, Granularity granularity) {
+        int size = bins.size();
+        from = new Object[size];
+        to = new Object[size];
+        for (int i = 0; i < size; i++) {
+            Bin<T> bin = bins.get(i);
+            from[i] = bin.getFrom();
+            to[i] = bin.getTo();
+        }
+        if (size > 0 && Bin.isReal(from[0])) {
+            this.granularity = granularity;
+            fromKeys = new double[size];
+            toKeys = new double[size];
+            for (int i = 0; i < size; i++) {
+                fromKeys[i] = granularity.key(((Number) from[i]).doubleValue());
+                toKeys[i] = granularity.key(((Number) to[i]).doubleValue());
+            }
+        }
+        else {
+            this.granularity = size > 0 ? Granularity.EXACT : granularity;
+            fromKeys = null;
+            toKeys = null;
+        }
+    }
+
+    int size() {
+        return from.length;
+    }
+
+    Granularity getGranularity() {
+        return granularity;
+    }
+
+    /**
+     * Finds the index of the bin containing the value.
+     * When the value sits on a boundary shared by adjacent (real) bins the lower bin wins, which is what a linear
+     * scan of the bins would find. NaN is above all real bins.
+     * @param value the value to look up
+     * @return the index of the bin containing the value, or (-(insertion point) - 1) if no bin contains it, following
+     * the convention of {@link java.util.Arrays#binarySearch(Object[], Object)}. An insertion point of 0 means the
+     * value is below all bins, an insertion point of size() means it is above all bins, and anything else means it
+     * fell in a gap between bins.
+     */
+    int indexOf(T value) {
+        if (fromKeys != null) {
+            return indexOfKey(granularity.key(((Number) value).doubleValue()));
+        }
+
+        // find the last bin whose from is <= value
+        int low = 0;
+        int high = from.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (value.compareTo(fromAt(mid)) < 0) {
+                high = mid - 1;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        int index = high;
+        if (index < 0) {
+            return -1; // underflow
+        }
+
+        // bins may touch at their boundaries (real bins) - prefer the lowest bin containing the value
+        while (index > 0 && value.compareTo(toAt(index - 1)) <= 0) {
+            index--;
+        }
+
+        if (value.compareTo(toAt(index)) <= 0) {
+            return index;
+        }
+        return -(index + 1) - 1; // gap or overflow
+    }
+
+    /**
+     * The same as indexOf(), over the primitive keys of real bins
+     */
+    private int indexOfKey(double key) {
+        if (key != key) { // NaN
+            return -fromKeys.length - 1;
+        }
+        int low = 0;
+        int high = fromKeys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (key < fromKeys[mid]) {
+                high = mid - 1;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        int index = high;
+        if (index < 0) {
+            return -1;
+        }
+        while (index > 0 && key <= toKeys[index - 1]) {
+            index--;
+        }
+        return key <= toKeys[index] ? index : -(index + 1) - 1;
+    }
+
+    /**
+     * @param insertionPoint an insertion point decoded from a negative result of indexOf()
+     * @return true if a value with this insertion point fell in a gap between bins
+     */
+    boolean isGap(int insertionPoint) {
+        return insertionPoint > 0 && insertionPoint < from.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    T fromAt(int i) {
+        return (T) from[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    T toAt(int i) {
+        return (T) to[i];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BinIndex<?> that = (BinIndex<?>) o;
+        if (!granularity.equals(that.granularity)) {
+            return false;
+        }
+        if (fromKeys != null) {
+            // the same keys of boundaries of the same type
+            return that.fromKeys != null && from[0].getClass() == that.from[0].getClass() &&
+                    Arrays.equals(fromKeys, that.fromKeys) && Arrays.equals(toKeys, that.toKeys);
+        }
+        return Arrays.equals(from, that.from) && Arrays.equals(to, that.to);
+    }
+
+    @Override
+    public int hashCode() {
+        if (fromKeys != null) {
+            return 31 * Arrays.hashCode(fromKeys) + Arrays.hashCode(toKeys);
+        }
+        return 31 * (31 * Arrays.hashCode(from) + Arrays.hashCode(to)) + granularity.hashCode();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Rendered labels and boundaries of the bins of a layout, cached so that exporting histograms does not format the same
+ * numbers over and over. There is a single instance per layout, shared by all the histograms with that layout, and it
+ * is dropped once the layout is no longer used.
+ * Texts are rendered lazily, the first time each bin is asked for. Thread safe: concurrent callers may render the
+ * same text twice, but always get equal texts.
+ */
+class BinLabels {
+    private static final Map<Object, BinLabels> CACHE = new WeakHashMap<>();
+
+    private final String[] from;
+    private final String[] to;
+    private volatile Labels labels = null; // the labels with the separator last asked for
+
+    private static class Labels {
+        final String separator;
+        final String[] texts;
+
+        Labels(String separator, int size) {
+            this.separator = separator;
+            texts = new String[size];
+        }
+    }
+
+    private BinLabels(int numberOfBins) {
+        from = new String[numberOfBins];
+        to = new String[numberOfBins];
+    }
+
+    /**
+     * @param layout an immutable object identifying the bins, with a stable hash code
+     * @param numberOfBins the number of bins in the layout
+     * @return the shared labels of the layout
+     */
+    static synchronized BinLabels of(Object layout, int numberOfBins) {
+        BinLabels labels = CACHE.get(layout);
+        if (labels == null || labels.from.length != numberOfBins) {
+            labels = new BinLabels(numberOfBins);
+            CACHE.put(layout, labels);
+        }
+        return labels;
+    }
+
+    /**
+     * @return the lower boundary of the bin, as rendered by toString()
+     */
+    String from(int index, AbstractRangeHistogram<?> bins) {
+        String text = from[index];
+        if (text == null) {
+            text = bins.getBinFrom(index).toString();
+            from[index] = text;
+        }
+        return text;
+    }
+
+    /**
+     * @return the upper boundary of the bin, as rendered by toString()
+     */
+    String to(int index, AbstractRangeHistogram<?> bins) {
+        String text = to[index];
+        if (text == null) {
+            text = bins.getBinTo(index).toString();
+            to[index] = text;
+        }
+        return text;
+    }
+
+    /**
+     * @return the label of the bin, as rendered by Bin.getBinLabel(). Switching between separators drops the labels
+     * of the previous separator.
+     */
+    String label(int index, String separator, AbstractRangeHistogram<?> bins) {
+        Labels current = labels;
+        if (current == null || !current.separator.equals(separator)) {
+            current = new Labels(separator, from.length);
+            labels = current;
+        }
+        String text = current.texts[index];
+        if (text == null) {
+            text = Bin.label(bins.getBinFrom(index), bins.getBinTo(index), separator);
+            current.texts[index] = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The immutable bins of a RangeHistogram: their boundaries and the index used to look them up, without counts.
+ * Layouts are interned: equal layouts are always the same instance, so any number of histograms with the same bins
+ * share a single layout, and histograms can tell that they have the same bins by comparing layout references.
+ * The bins follow the rules of RangeHistogram: real bins may touch at their boundaries, discreet bins may not, and
+ * no bins may otherwise overlap.
+ * <p>
+ * Real bins are compared at the granularity of the layout, in lookups, validation and equality. Layouts whose
+ * boundaries are equal at their granularity are the same layout, and keep the boundaries of the first of them.
+ */
+public final class BinLayout<T extends Comparable<T>> {
+    private static final Interner<BinLayout<?>> INTERNER = new Interner<>();
+
+    private final BinIndex<T> index;
+    private final int hashCode;
+
+    private BinLayout(BinIndex<T> index) {
+        this.index = index;
+        hashCode = index.hashCode();
+    }
+
+    /**
+     * Gets the layout of the given bins (their counts are ignored), at the granularity of the bins
+     * @param bins the bins, in any order
+     * @return the shared layout instance
+     * @throws InvalidArgumentException if any of the bins is null, or the bins have different granularities
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public static <T extends Comparable<T>> BinLayout<T> of(Collection<Bin<T>> bins) throws InvalidArgumentException, InvalidStateException {
+        Granularity granularity = null;
+        for (Bin<T> bin: bins) {
+            if (bin == null) {
+                throw new InvalidArgumentException("bins may not be null");
+            }
+            if (granularity != null && !granularity.equals(bin.getGranularity())) {
+                throw new InvalidArgumentException("all the bins of a layout must have the same granularity");
+            }
+            granularity = bin.getGranularity();
+        }
+        return of(bins, granularity == null ? Granularity.EXACT : granularity);
+    }
+
+    /**
+     * Gets the layout of the given bins (their counts are ignored), comparing real bins at the given granularity
+     * regardless of the granularity of the bins
+     * @param bins the bins, in any order
+     * @param granularity the granularity of the layout
+     * @return the shared layout instance
+     * @throws InvalidArgumentException if any of the bins is null, or its from is larger than its to at the granularity
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public static <T extends Comparable<T>> BinLayout<T> of(Collection<Bin<T>> bins, Granularity granularity) throws InvalidArgumentException, InvalidStateException {
+        ArrayList<Bin<T>> sorted = new ArrayList<>(bins.size());
+        for (Bin<T> bin: bins) {
+            if (bin == null) {
+                throw new InvalidArgumentException("bins may not be null");
+            }
+            sorted.add(withGranularity(bin, granularity));
+        }
+        Collections.sort(sorted);
+        validate(sorted);
+        return ofSorted(sorted, granularity);
+    }
+
+    /**
+     * @return the bin, or an equivalent bin at the given granularity
+     * @throws InvalidArgumentException if the from of the bin is larger than its to at the granularity
+     */
+    static <T extends Comparable<T>> Bin<T> withGranularity(Bin<T> bin, Granularity granularity) throws InvalidArgumentException {
+        if (!Bin.isReal(bin.getFrom()) || bin.getGranularity().equals(granularity)) {
+            return bin;
+        }
+        return new Bin<>(bin.getFrom(), bin.getTo(), bin.getCount(), granularity);
+    }
+
+    /**
+     * Gets the layout of the bins of a histogram
+     * @param histogram the histogram
+     * @return the shared layout instance
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<T>> BinLayout<T> of(ImmutableRangeHistogram<T> histogram) {
+        if (histogram instanceof RangeHistogram) {
+            return ((RangeHistogram<T>) histogram).getLayout();
+        }
+        return ofSorted(histogram.getBins()); // a histogram's bins are already sorted and validated
+    }
+
+    /**
+     * @return the shared layout with no bins
+     */
+    public static <T extends Comparable<T>> BinLayout<T> empty() {
+        return empty(Granularity.EXACT);
+    }
+
+    /**
+     * @return the shared layout with no bins, which keeps the granularity for the bins added to it
+     */
+    public static <T extends Comparable<T>> BinLayout<T> empty(Granularity granularity) {
+        return ofSorted(Collections.<Bin<T>>emptyList(), granularity);
+    }
+
+    /**
+     * Gets the layout of bins that are already sorted and validated, at the granularity of the bins
+     */
+    static <T extends Comparable<T>> BinLayout<T> ofSorted(List<Bin<T>> sortedBins) {
+        return ofSorted(sortedBins, sortedBins.isEmpty() ? Granularity.EXACT : sortedBins.get(0).getGranularity());
+    }
+
+    /**
+     * Gets the layout of bins that are already sorted and validated at the granularity
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends Comparable<T>> BinLayout<T> ofSorted(List<Bin<T>> sortedBins, Granularity granularity) {
+        // equal layouts have boundaries of the same classes, so the canonical instance has the same T
+        return (BinLayout<T>) INTERNER.intern(new BinLayout<>(new BinIndex<>(sortedBins, granularity)));
+    }
+
+    /**
+     * Validates that a sorted list of bins is non-overlapping.
+     * Real bins may touch at their boundaries, discreet bins must be mutually exclusive. Real bins are compared at
+     * their granularity, so bins that overlap by less than a grain touch.
+     * As the bins are sorted by their from values, it is sufficient to check each bin against its predecessor.
+     */
+    static <T extends Comparable<T>> void validate(List<Bin<T>> bins) throws InvalidStateException {
+        Bin<T> previous = null;
+        for (Bin<T> bin: bins) {
+            if (previous != null) {
+                int comparison = Bin.compare(bin.getFrom(), previous.getTo(), bin.getGranularity());
+                // real bins allow equality at the boundaries, discreet ones do not
+                if (comparison < 0 || (comparison == 0 && !bin.isReal())) {
+                    String separator = "-";
+                    throw new InvalidStateException("The bin '"+bin.getBinLabel(separator)+"' overlaps with the bin '"+previous.getBinLabel(separator)+"'");
+                }
+            }
+            previous = bin;
+        }
+    }
+
+    public int getNumberOfBins() {
+        return index.size();
+    }
+
+    /**
+     * @return the granularity at which real bins are compared. Always EXACT for layouts of other bins.
+     */
+    public Granularity getGranularity() {
+        return index.getGranularity();
+    }
+
+    public T getFrom(int index) {
+        return this.index.fromAt(index);
+    }
+
+    public T getTo(int index) {
+        return this.index.toAt(index);
+    }
+
+    /**
+     * Finds the index of the bin containing the value
+     * @param value the value to look up
+     * @return the index of the bin, or (-(insertion point) - 1) if no bin contains it. An insertion point of 0 means
+     * the value is below all bins, an insertion point of getNumberOfBins() means it is above all bins, and anything
+     * else means it fell in a gap between bins.
+     */
+    public int findBinIndex(T value) {
+        return index.indexOf(value);
+    }
+
+    /**
+     * @param value the value to check
+     * @return true if no bin contains the value, but there are bins both below and above it
+     */
+    public boolean isInGap(T value) {
+        int i = index.indexOf(value);
+        return i < 0 && index.isGap(-i - 1);
+    }
+
+    /**
+     * @return the bins of the layout, with zero counts
+     */
+    public List<Bin<T>> getBins() {
+        int size = index.size();
+        ArrayList<Bin<T>> bins = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            bins.add(Bin.of(index.fromAt(i), index.toAt(i), 0, index.getGranularity()));
+        }
+        return Collections.unmodifiableList(bins);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        BinLayout<?> that = (BinLayout<?>) o;
+        return hashCode == that.hashCode && index.equals(that.index);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "BinLayout{" +
+                "numberOfBins=" + index.size() +
+                '}';
+    }
+}
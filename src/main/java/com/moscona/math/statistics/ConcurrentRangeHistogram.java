@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread safe histogram for recording values from many threads at once.
+ * The bins are fixed at construction time. Each bin's count is a LongAdder, which spreads contended updates over
+ * padded cells, so recording scales with the number of recording threads without locking or false sharing.
+ * Reading counts (including through the ImmutableRangeHistogram view) never blocks recorders.
+ * <p>
+ * Summary statistics of numeric values are kept the same way, in adders and accumulators, so recording a value
+ * never locks either.
+ */
+public class ConcurrentRangeHistogram<T extends Comparable<T>> extends AbstractRangeHistogram<T> {
+    private final BinLayout<T> layout;
+    private final LongAdder[] counts;
+    private final LongAdder underflowCount = new LongAdder();
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder gapCount = new LongAdder();
+    private final ConcurrentSummaryStatistics summary = new ConcurrentSummaryStatistics();
+
+    /**
+     * Creates an empty concurrent histogram with the same bins as the layout histogram. The counts of the layout
+     * are not copied.
+     * @param layout a histogram defining the bins
+     */
+    public ConcurrentRangeHistogram(ImmutableRangeHistogram<T> layout) {
+        this(BinLayout.of(layout));
+    }
+
+    /**
+     * Creates an empty concurrent histogram with the bins of a layout. The layout is shared, not copied.
+     * @param layout the bins of the histogram
+     */
+    public ConcurrentRangeHistogram(BinLayout<T> layout) {
+        this.layout = layout;
+        counts = new LongAdder[layout.getNumberOfBins()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value. Safe to call from any thread.
+     * @param value the value to record
+     */
+    public void record(T value) {
+        adderFor(layout.findBinIndex(value)).increment();
+        summarize(value, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value. Safe to call from any thread.
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(T value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        adderFor(layout.findBinIndex(value)).add(weight);
+        summarize(value, weight);
+    }
+
+    private void summarize(T value, long weight) {
+        if (value instanceof Number) {
+            summary.add(((Number) value).doubleValue(), weight);
+        }
+    }
+
+    private LongAdder adderFor(int lookupResult) {
+        if (lookupResult >= 0) {
+            return counts[lookupResult];
+        }
+        int insertionPoint = -lookupResult - 1;
+        if (insertionPoint == 0) {
+            return underflowCount;
+        }
+        return insertionPoint >= counts.length ? overflowCount : gapCount;
+    }
+
+    /**
+     * Takes a snapshot of the histogram without blocking recorders.
+     * Each count in the snapshot is read exactly once, so the snapshot is stable and its total is exactly the sum of
+     * its bins. Values recorded while the snapshot is being taken may or may not be included in it, in the counts
+     * and in the summary (independently).
+     * Snapshots share the bins of this histogram, so the counts recorded in an interval are the difference between
+     * two snapshots: later.minus(earlier).
+     * @return an independent copy of the current counts and summary
+     */
+    public RangeHistogram<T> snapshot() {
+        long[] snapshot = new long[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+        }
+        return new RangeHistogram<>(layout, snapshot, underflowCount.sum(), overflowCount.sum(), gapCount.sum(),
+                getSummaryStatistics());
+    }
+
+    /**
+     * Adds the counts and summary of another histogram with the same layout, without blocking recorders of either
+     * histogram. Values recorded into the other histogram while it is being added may or may not be included.
+     */
+    void addAll(ConcurrentRangeHistogram<T> other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i].add(other.counts[i].sum());
+        }
+        underflowCount.add(other.underflowCount.sum());
+        overflowCount.add(other.overflowCount.sum());
+        gapCount.add(other.gapCount.sum());
+        summary.merge(other.getSummaryStatistics());
+    }
+
+    /**
+     * Reads the summary without blocking recorders. Values recorded while it is being read may be partly included.
+     */
+    @Override
+    public SummaryStatistics getSummaryStatistics() {
+        return summary.get();
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return counts.length;
+    }
+
+    @Override
+    public long getCount(int index) {
+        return counts[index].sum();
+    }
+
+    /**
+     * @return the sum of the counts of all bins
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (LongAdder count: counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return the total weight recorded for values below all bins
+     */
+    public long getUnderflowCount() {
+        return underflowCount.sum();
+    }
+
+    /**
+     * @return the total weight recorded for values above all bins
+     */
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    /**
+     * @return the total weight recorded for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        return gapCount.sum();
+    }
+
+    @Override
+    T getBinFrom(int index) {
+        return layout.getFrom(index);
+    }
+
+    @Override
+    T getBinTo(int index) {
+        return layout.getTo(index);
+    }
+
+    @Override
+    int indexOf(T value) {
+        return layout.findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return VOLATILE_COUNTS; // recorded into from other threads
+    }
+
+    @Override
+    public Granularity getGranularity() {
+        return layout.getGranularity();
+    }
+
+    @Override
+    Object getLayoutKey() {
+        return layout;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Summary statistics that many threads record into at once without locking.
+ * The count, the sums of (value - shift) and of its square, and the minimum and maximum are kept in adders and
+ * accumulators, which spread contended updates over padded cells. The mean, variance and sum are computed from them
+ * when read. The shift is the first value recorded: as long as values stay near it, the shifted sum of squares stays
+ * close to the sum of squared deviations, so the variance does not lose the precision that summing raw squares would.
+ * <p>
+ * A value recorded while the summary is being read may be partly included, for example in the count but not yet in
+ * the sums.
+ */
+final class ConcurrentSummaryStatistics {
+    private static final long NO_SHIFT = Double.doubleToRawLongBits(Double.NaN);
+
+    private final AtomicLong shift = new AtomicLong(NO_SHIFT); // the bits of the shift, set once
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder shiftedSum = new DoubleAdder();
+    private final DoubleAdder shiftedSquares = new DoubleAdder();
+    private final DoubleAccumulator min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+
+    /**
+     * Records a value with a weight that is known not to be negative. NaN is ignored.
+     */
+    void add(double value, long weight) {
+        if (weight == 0 || value != value) {
+            return;
+        }
+        double deviation = value - shiftFor(value);
+        count.add(weight);
+        shiftedSum.add(deviation * weight);
+        shiftedSquares.add(deviation * deviation * weight);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Adds the values summarized by another summary, as if they had been recorded here
+     */
+    void merge(SummaryStatistics other) {
+        long otherCount = other.getCount();
+        if (otherCount == 0) {
+            return;
+        }
+        double otherMean = other.getMean();
+        double deviation = otherMean - shiftFor(otherMean);
+        count.add(otherCount);
+        shiftedSum.add(deviation * otherCount);
+        shiftedSquares.add(other.getSquaredDeviations() + deviation * deviation * otherCount);
+        min.accumulate(other.getMin());
+        max.accumulate(other.getMax());
+    }
+
+    private double shiftFor(double value) {
+        long bits = shift.get();
+        if (bits == NO_SHIFT) {
+            double candidate = Double.isInfinite(value) ? 0.0 : value;
+            shift.compareAndSet(NO_SHIFT, Double.doubleToRawLongBits(candidate));
+            bits = shift.get();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * @return a new summary of the values recorded so far
+     */
+    SummaryStatistics get() {
+        long n = count.sum();
+        if (n == 0) {
+            return new SummaryStatistics();
+        }
+        double base = Double.longBitsToDouble(shift.get());
+        double deviations = shiftedSum.sum();
+        double squaredDeviations = Math.max(0.0, shiftedSquares.sum() - deviations * deviations / n);
+        return SummaryStatistics.of(n, base + deviations / n, squaredDeviations, base * n + deviations, min.get(),
+                max.get());
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+/**
+ * The bins of a histogram over double values, independent of any counts.
+ * Bins are inclusive at both ends and ordered by their boundaries. Adjacent bins may touch at their boundaries, in
+ * which case a value on the shared boundary belongs to the lower bin.
+ * Implementations are immutable and their lookups do not allocate.
+ */
+public interface DoubleBinLayout {
+    int getNumberOfBins();
+
+    /**
+     * Finds the index of the bin containing the value.
+     * NaN is not contained in any bin, and is treated as being above all bins.
+     * @param value the value to look up
+     * @return the index of the bin containing the value, or (-(insertion point) - 1) if no bin contains it, as in
+     * {@link java.util.Arrays#binarySearch(double[], double)}. An insertion point of 0 means the value is below all
+     * bins, an insertion point of getNumberOfBins() means it is above all bins, and anything else means it fell in a
+     * gap.
+     */
+    int findBinIndex(double value);
+
+    double getLowerBound(int index);
+
+    double getUpperBound(int index);
+
+    /**
+     * @return the granularity at which values are compared with the boundaries. Layouts that compute the bin of a
+     * value arithmetically are exact.
+     */
+    default Granularity getGranularity() {
+        return Granularity.EXACT;
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A bounded memory streaming sketch of the distribution of a stream of doubles, for when the range of the values is
+ * not known up front. Produces histograms on demand, with equi-depth boundaries or with boundaries given by the caller.
+ * <p>
+ * This is a KLL sketch (Karnin, Lang and Liberty, "Optimal Quantile Approximation in Streams", 2016). Values are kept
+ * in levels, where each value in level h stands for 2<sup>h</sup> values of the stream. When a level is full it is
+ * sorted and every other value (starting at random at the first or the second) is promoted to the next level, the
+ * rest are dropped. Level capacities shrink by a factor of 2/3 going down from the top level, so the sketch retains
+ * about 3k values, plus at most 8 for each level (of which there are less than 64 for any stream).
+ * <p>
+ * Error bounds: for any value, the estimated rank (the fraction of the stream below the value) is within
+ * getNormalizedRankError() of the true rank with a probability of 99%, regardless of the distribution of the values.
+ * For the default k of 200 this is about 1.33%. The error is in rank, not in value: the value at the 99th percentile
+ * is the true value at some rank between 0.9867 and 0.9933. The minimum and maximum are exact.
+ * <p>
+ * Sketches with the same k can be merged, for example to combine sketches from many threads or hosts. The merged
+ * sketch has the same error bounds. Not thread safe.
+ */
+public class DoubleQuantileSketch {
+    public static final int DEFAULT_K = 200;
+    public static final int MIN_K = 8;
+    public static final int MAX_K = 65535;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+
+    private final int k;
+    private final Random random;
+    private double[][] levels; // levels[h] holds values of weight 2^h, levels[0] in arrival order
+    private int[] sizes;
+    private int numberOfLevels;
+    private int capacity; // the total capacity of all levels, compress when the retained values reach it
+    private int retained = 0;
+    private long n = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    // a sorted view of the retained values, built lazily for queries and discarded on any change
+    private double[] sortedValues = null;
+    private long[] cumulativeWeights = null;
+
+    /**
+     * Creates a sketch with the default k
+     */
+    public DoubleQuantileSketch() {
+        k = DEFAULT_K;
+        random = new Random();
+        init();
+    }
+
+    /**
+     * Creates a sketch with a given accuracy parameter
+     * @param k the accuracy parameter: the rank error is roughly proportional to 1/k, memory use to k
+     * @throws InvalidArgumentException if k is not between MIN_K and MAX_K
+     */
+    public DoubleQuantileSketch(int k) throws InvalidArgumentException {
+        this(k, new Random());
+    }
+
+    /**
+     * Creates a sketch with a given accuracy parameter and a fixed random seed, for reproducible results
+     * @param k the accuracy parameter: the rank error is roughly proportional to 1/k, memory use to k
+     * @param seed the seed of the random choices made when compressing
+     * @throws InvalidArgumentException if k is not between MIN_K and MAX_K
+     */
+    public DoubleQuantileSketch(int k, long seed) throws InvalidArgumentException {
+        this(k, new Random(seed));
+    }
+
+    private DoubleQuantileSketch(int k, Random random) throws InvalidArgumentException {
+        if (k < MIN_K || k > MAX_K) {
+            throw new InvalidArgumentException("k must be between " + MIN_K + " and " + MAX_K + ": " + k);
+        }
+        this.k = k;
+        this.random = random;
+        init();
+    }
+
+    private void init() {
+        levels = new double[1][];
+        sizes = new int[1];
+        numberOfLevels = 1;
+        levels[0] = new double[levelCapacity(0)];
+        capacity = levelCapacity(0);
+    }
+
+    /**
+     * The normalized rank error of a sketch with the given k, with a probability of 99%.
+     * Uses the empirical formula published by the Apache DataSketches project for KLL sketches.
+     * @param k the accuracy parameter
+     * @return the rank error, as a fraction of the number of values
+     */
+    public static double getNormalizedRankError(int k) {
+        return 2.296 / Math.pow(k, 0.9723);
+    }
+
+    /**
+     * @return the normalized rank error of this sketch, with a probability of 99%
+     */
+    public double getNormalizedRankError() {
+        return getNormalizedRankError(k);
+    }
+
+    /**
+     * Adds a value to the sketch. NaN values are ignored.
+     * @param value the value to add
+     */
+    public void update(double value) {
+        if (value != value) {
+            return;
+        }
+        if (n == 0) {
+            min = value;
+            max = value;
+        }
+        else if (value < min) {
+            min = value;
+        }
+        else if (value > max) {
+            max = value;
+        }
+        n++;
+        sortedValues = null;
+        append(0, value);
+        while (retained >= capacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Merges another sketch into this one. The other sketch is not changed.
+     * @param other a sketch with the same k
+     * @return this sketch
+     * @throws InvalidArgumentException if the sketches have a different k
+     */
+    public DoubleQuantileSketch merge(DoubleQuantileSketch other) throws InvalidArgumentException {
+        if (other.k != k) {
+            throw new InvalidArgumentException("cannot merge a sketch with k=" + other.k + " into a sketch with k=" + k);
+        }
+        if (other.n == 0) {
+            return this;
+        }
+        while (numberOfLevels < other.numberOfLevels) {
+            addLevel();
+        }
+        for (int h = 0; h < other.numberOfLevels; h++) {
+            int size = other.sizes[h]; // taken up front in case this is the other sketch
+            for (int i = 0; i < size; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        min = n == 0 ? other.min : Math.min(min, other.min);
+        max = n == 0 ? other.max : Math.max(max, other.max);
+        n += other.n;
+        sortedValues = null;
+        while (retained >= capacity) {
+            compress();
+        }
+        return this;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the number of values added to the sketch, including values of merged sketches
+     */
+    public long getN() {
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    /**
+     * @return the smallest value added, or NaN if the sketch is empty
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the largest value added, or NaN if the sketch is empty
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the number of values the sketch currently keeps
+     */
+    public int getNumberOfRetainedValues() {
+        return retained;
+    }
+
+    /**
+     * Estimates the fraction of the values that are smaller than the given value
+     * @param value the value
+     * @return the estimated rank, between 0 and 1, or NaN if the sketch is empty
+     */
+    public double getRank(double value) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        buildSortedView();
+        int i = lowerBound(sortedValues, value);
+        return i == 0 ? 0.0 : (double) cumulativeWeights[i - 1] / n;
+    }
+
+    /**
+     * Estimates the value at a quantile
+     * @param quantile the quantile, between 0 and 1
+     * @return the estimated value, or NaN if the sketch is empty. Quantile 0 is the minimum and 1 the maximum.
+     * @throws InvalidArgumentException if the quantile is not between 0 and 1
+     */
+    public double getQuantile(double quantile) throws InvalidArgumentException {
+        if (!(quantile >= 0.0 && quantile <= 1.0)) {
+            throw new InvalidArgumentException("the quantile must be between 0 and 1: " + quantile);
+        }
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (quantile == 0.0) {
+            return min;
+        }
+        if (quantile == 1.0) {
+            return max;
+        }
+        buildSortedView();
+        // the first value whose cumulative weight covers the rank
+        double rank = quantile * n;
+        int low = 0;
+        int high = sortedValues.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulativeWeights[mid] >= rank) {
+                high = mid;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        return sortedValues[low];
+    }
+
+    /**
+     * Creates an equi-depth histogram: contiguous bins between the minimum and the maximum, each holding about the same
+     * number of values. Boundaries that would repeat (due to many equal values) are merged, so the histogram may have
+     * less bins than requested.
+     * @param numberOfBins the number of bins
+     * @return a new histogram, with the counts of the sketch
+     * @throws InvalidArgumentException if the number of bins is not positive
+     * @throws InvalidStateException if the sketch is empty
+     */
+    public DoubleRangeHistogram toHistogram(int numberOfBins) throws InvalidArgumentException, InvalidStateException {
+        if (numberOfBins < 1) {
+            throw new InvalidArgumentException("the number of bins must be positive: " + numberOfBins);
+        }
+        if (n == 0) {
+            throw new InvalidStateException("cannot choose the boundaries of an empty sketch");
+        }
+        double[] boundaries = new double[numberOfBins + 1];
+        int size = 0;
+        boundaries[size++] = min;
+        for (int i = 1; i <= numberOfBins; i++) {
+            double boundary = i == numberOfBins ? max : getQuantile((double) i / numberOfBins);
+            if (boundary > boundaries[size - 1]) {
+                boundaries[size++] = boundary;
+            }
+        }
+        if (size == 1) {
+            boundaries[size++] = max; // all the values are equal: a single bin [min, min]
+        }
+        return toHistogram(ExplicitDoubleBinLayout.contiguous(Arrays.copyOf(boundaries, size)));
+    }
+
+    /**
+     * Creates a histogram of adjacent bins with the given boundaries: [b0, b1], [b1, b2], ... [bn-1, bn]
+     * @param boundaries the bin boundaries, in ascending order
+     * @return a new histogram, with the counts of the sketch
+     * @throws InvalidArgumentException if the boundaries are not in ascending order
+     */
+    public DoubleRangeHistogram toHistogram(double... boundaries) throws InvalidArgumentException {
+        return toHistogram(ExplicitDoubleBinLayout.contiguous(boundaries));
+    }
+
+    /**
+     * Creates a histogram with the given layout. Each retained value of the sketch is counted with its weight in the
+     * bin containing it, so the total of all counts (including underflow, gap and overflow) is exactly getN(), and the
+     * count of any range of bins has the rank error of the sketch.
+     * @param layout the bins of the histogram
+     * @return a new histogram, with the counts of the sketch
+     */
+    public DoubleRangeHistogram toHistogram(DoubleBinLayout layout) {
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(layout);
+        BinCounts counts = histogram.getCounts();
+        for (int h = 0; h < numberOfLevels; h++) {
+            long weight = 1L << h;
+            for (int i = 0; i < sizes[h]; i++) {
+                counts.add(layout.findBinIndex(levels[h][i]), weight);
+            }
+        }
+        return histogram;
+    }
+
+    private void append(int level, double value) {
+        double[] items = levels[level];
+        if (sizes[level] == items.length) {
+            items = Arrays.copyOf(items, Math.max(MIN_LEVEL_CAPACITY, items.length * 2));
+            levels[level] = items;
+        }
+        items[sizes[level]++] = value;
+        retained++;
+    }
+
+    /**
+     * Compresses the lowest level that reached its capacity. As the total capacity is the sum of the level capacities,
+     * there is always such a level when the sketch is full.
+     */
+    private void compress() {
+        int h = 0;
+        while (sizes[h] < levelCapacity(h)) {
+            h++;
+        }
+        if (h == numberOfLevels - 1) {
+            addLevel();
+        }
+        double[] items = levels[h];
+        int size = sizes[h];
+        int pairs = size / 2;
+        // with an odd size the last arrival stays at this level, before sorting, so that it is not always the largest
+        double heldOut = items[size - 1];
+        Arrays.sort(items, 0, 2 * pairs);
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = 0; i < pairs; i++) {
+            append(h + 1, items[2 * i + offset]);
+        }
+        retained -= 2 * pairs;
+        if (size % 2 == 1) {
+            items[0] = heldOut;
+            sizes[h] = 1;
+        }
+        else {
+            sizes[h] = 0;
+        }
+    }
+
+    private void addLevel() {
+        levels = Arrays.copyOf(levels, numberOfLevels + 1);
+        sizes = Arrays.copyOf(sizes, numberOfLevels + 1);
+        levels[numberOfLevels] = new double[MIN_LEVEL_CAPACITY];
+        numberOfLevels++;
+        capacity = 0;
+        for (int h = 0; h < numberOfLevels; h++) {
+            capacity += levelCapacity(h);
+        }
+    }
+
+    /**
+     * The capacity of a level shrinks by a factor of 2/3 for each level below the top one
+     */
+    private int levelCapacity(int level) {
+        int depth = numberOfLevels - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(2.0 / 3.0, depth)));
+    }
+
+    private void buildSortedView() {
+        if (sortedValues != null) {
+            return;
+        }
+        double[] values = new double[retained];
+        long[] weights = new long[retained];
+        int size = 0;
+        for (int h = 0; h < numberOfLevels; h++) {
+            for (int i = 0; i < sizes[h]; i++) {
+                values[size] = levels[h][i];
+                weights[size++] = 1L << h;
+            }
+        }
+        // sort the values together with their weights
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(values[a], values[b]));
+        double[] sorted = new double[size];
+        long[] cumulative = new long[size];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            sorted[i] = values[order[i]];
+            total += weights[order[i]];
+            cumulative[i] = total;
+        }
+        sortedValues = sorted;
+        cumulativeWeights = cumulative;
+    }
+
+    /**
+     * @return the index of the first value that is not smaller than the given value
+     */
+    private static int lowerBound(double[] sorted, double value) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < value) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
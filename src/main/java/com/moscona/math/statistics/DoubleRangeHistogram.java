@@ -0,0 +1,412 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A range histogram over double values, with primitive boundaries and counts.
+ * The bins are defined by a DoubleBinLayout. With an ExplicitDoubleBinLayout the bins follow the same rules as real
+ * bins in RangeHistogram: they are inclusive at both ends, may touch at their boundaries (a value on a shared boundary
+ * belongs to the lower bin) and may not otherwise overlap. Arithmetic layouts compute the bin of a value directly.
+ * Lookups and recording do not allocate. Not thread safe.
+ */
+public class DoubleRangeHistogram extends AbstractRangeHistogram<Double> {
+    private final DoubleBinLayout layout;
+    private final BinCounts counts;
+    private final SummaryStatistics summary;
+
+    /**
+     * Creates an empty histogram with the bins of the layout
+     * @param layout the bins of the histogram
+     */
+    public DoubleRangeHistogram(DoubleBinLayout layout) {
+        this(layout, new BinCounts(layout.getNumberOfBins()), new SummaryStatistics());
+    }
+
+    /**
+     * Creates a histogram with counts and a summary, which are used as they are, not copied
+     */
+    private DoubleRangeHistogram(DoubleBinLayout layout, BinCounts counts, SummaryStatistics summary) {
+        this.layout = layout;
+        this.counts = counts;
+        this.summary = summary;
+    }
+
+    /**
+     * Creates an empty histogram with the given bins
+     * @param from the lower boundaries of the bins
+     * @param to the upper boundaries of the bins
+     * @throws InvalidArgumentException if the arrays are of different lengths, contain NaN, or a bin's from is larger
+     * than its to
+     * @throws InvalidStateException if any two bins overlap
+     * @see ExplicitDoubleBinLayout
+     */
+    public DoubleRangeHistogram(double[] from, double[] to) throws InvalidArgumentException, InvalidStateException {
+        this(new ExplicitDoubleBinLayout(from, to));
+    }
+
+    /**
+     * Creates an empty histogram of adjacent bins: [b0, b1], [b1, b2], ... [bn-1, bn]
+     * @param boundaries the bin boundaries, in ascending order
+     * @return a new histogram
+     * @throws InvalidArgumentException if the boundaries are not in ascending order
+     */
+    public static DoubleRangeHistogram contiguous(double... boundaries) throws InvalidArgumentException {
+        return new DoubleRangeHistogram(ExplicitDoubleBinLayout.contiguous(boundaries));
+    }
+
+    /**
+     * Creates a primitive copy of a histogram of doubles, including its counts, the granularity of its bins and
+     * its summary statistics, if it keeps them
+     * @param histogram the histogram to copy
+     * @return a new histogram
+     * @throws InvalidArgumentException if the histogram has NaN boundaries
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public static DoubleRangeHistogram copyOf(ImmutableRangeHistogram<Double> histogram) throws InvalidArgumentException, InvalidStateException {
+        List<Bin<Double>> bins = histogram.getBins();
+        double[] from = new double[bins.size()];
+        double[] to = new double[bins.size()];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = bins.get(i).getFrom();
+            to[i] = bins.get(i).getTo();
+        }
+        Granularity granularity = bins.isEmpty() ? Granularity.EXACT : bins.get(0).getGranularity();
+        DoubleRangeHistogram copy = new DoubleRangeHistogram(new ExplicitDoubleBinLayout(from, to, granularity));
+        for (int i = 0; i < from.length; i++) {
+            copy.counts.set(i, bins.get(i).getCount()); // the layout sort is stable, so the bins keep their order
+        }
+        SummaryStatistics summary = histogram.getSummaryStatistics();
+        if (summary != null) {
+            copy.summary.merge(summary);
+        }
+        return copy;
+    }
+
+    public DoubleBinLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Finds the index of the bin containing the value.
+     * @param value the value to look up
+     * @return the index of the bin, or a negative value if no bin contains it
+     * @see DoubleBinLayout#findBinIndex(double)
+     */
+    public int findBinIndex(double value) {
+        return layout.findBinIndex(value);
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value
+     * @param value the value to record
+     */
+    public void record(double value) {
+        counts.add(findBinIndex(value), 1);
+        summary.add(value, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(double value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        counts.add(findBinIndex(value), weight);
+        summary.add(value, weight);
+    }
+
+    /**
+     * Records each of the values with a weight of one
+     * @param values the values to record
+     */
+    public void recordAll(double[] values) {
+        for (double value: values) {
+            counts.add(findBinIndex(value), 1);
+            summary.add(value, 1);
+        }
+    }
+
+    /**
+     * Records each of the values in the stream with a weight of one.
+     * If the stream is parallel, the values are counted in parallel, each fork/join task into its own count array
+     * and summary, and these are merged when the stream is exhausted. The result is the same as recording the values
+     * one by one (up to rounding in the summary). This histogram is only updated once the stream is exhausted, on the
+     * calling thread.
+     * @param values the values to record
+     */
+    public void recordAll(DoubleStream values) {
+        addAccumulator(accumulate(values));
+    }
+
+    /**
+     * Records the values in parallel in a given fork/join pool
+     * @param values the values to record
+     * @param pool the pool to use for counting
+     * @see #recordAll(DoubleStream)
+     */
+    public void recordAll(double[] values, ForkJoinPool pool) {
+        recordAll(Spliterators.spliterator(values, Spliterator.IMMUTABLE), pool);
+    }
+
+    /**
+     * Records the values in parallel in a given fork/join pool. The values are split as far as the spliterator
+     * allows.
+     * @param values the values to record
+     * @param pool the pool to use for counting
+     * @see #recordAll(DoubleStream)
+     */
+    public void recordAll(Spliterator.OfDouble values, ForkJoinPool pool) {
+        // a parallel stream started from within a fork/join task runs its tasks in that task's pool
+        addAccumulator(pool.submit(() -> accumulate(StreamSupport.doubleStream(values, true))).join());
+    }
+
+    private BinCounts.Accumulator accumulate(DoubleStream values) {
+        return values.collect(() -> new BinCounts.Accumulator(counts),
+                (accumulator, value) -> accumulator.accumulate(layout.findBinIndex(value), value),
+                BinCounts.Accumulator::combine);
+    }
+
+    private void addAccumulator(BinCounts.Accumulator accumulator) {
+        counts.addAccumulator(accumulator.counts);
+        summary.merge(accumulator.summary);
+    }
+
+    /**
+     * Copies the counts and summary statistics in a single pass, sharing the bins
+     * @return an independent copy of this histogram
+     */
+    public DoubleRangeHistogram snapshot() {
+        return new DoubleRangeHistogram(layout, counts.copy(), new SummaryStatistics(summary));
+    }
+
+    /**
+     * Takes the counts and summary statistics recorded so far and starts this histogram over, empty. The counts are
+     * moved to the returned histogram, not copied, so taking an interval's histogram this way costs about as much as
+     * creating an empty one.
+     * @return a histogram with the counts and summary statistics this one had, sharing its bins
+     */
+    public DoubleRangeHistogram snapshotAndReset() {
+        DoubleRangeHistogram taken = new DoubleRangeHistogram(layout, counts.takeAll(), new SummaryStatistics(summary));
+        summary.clear();
+        return taken;
+    }
+
+    /**
+     * Computes what was recorded between an earlier snapshot of this histogram and now, in a single pass over the
+     * counts. The summary statistics of the difference are computed as SummaryStatistics.minus() does.
+     * @param earlier an earlier snapshot of this histogram (or of a histogram with the same bins)
+     * @return a new histogram with the differences of the counts, sharing the bins of this one
+     * @throws InvalidArgumentException if the bins are not the same, or any count of the earlier histogram is larger
+     * than the count here, so it cannot be an earlier snapshot
+     */
+    public DoubleRangeHistogram minus(DoubleRangeHistogram earlier) throws InvalidArgumentException {
+        if (!layout.equals(earlier.layout)) {
+            throw new InvalidArgumentException("cannot subtract a histogram with a different layout: " + earlier.layout);
+        }
+        BinCounts delta = counts.minus(earlier.counts);
+        if (delta == null) {
+            throw new InvalidArgumentException("not an earlier snapshot: some of its counts are larger");
+        }
+        return new DoubleRangeHistogram(layout, delta, summary.minus(earlier.summary));
+    }
+
+    /**
+     * Adds the counts of another histogram with the same layout, in a single pass over the counts
+     * @param other the histogram to add
+     * @return this histogram
+     * @throws InvalidArgumentException if the layouts are not equal
+     */
+    public DoubleRangeHistogram add(DoubleRangeHistogram other) throws InvalidArgumentException {
+        if (!layout.equals(other.layout)) {
+            throw new InvalidArgumentException("cannot add a histogram with a different layout: " + other.layout);
+        }
+        counts.addAll(other.counts);
+        summary.merge(other.summary);
+        return this;
+    }
+
+    /**
+     * Adds the counts of a histogram with any layout. The count of each of its bins is spread over the bins of this
+     * histogram in proportion to how much of it they cover, as if the values in the bin were uniformly distributed.
+     * Parts of bins that fall outside of all the bins of this histogram are counted as underflow, gap or overflow.
+     * Out of range counts of the other histogram are added as they are.
+     * With equal layouts this is the same as add().
+     * @param other the histogram to add
+     * @return this histogram
+     */
+    public DoubleRangeHistogram addRedistributed(DoubleRangeHistogram other) {
+        if (layout.equals(other.layout)) {
+            counts.addAll(other.counts);
+            summary.merge(other.summary);
+            return this;
+        }
+        int size = getNumberOfBins();
+        double[] lower = new double[size];
+        double[] upper = new double[size];
+        for (int i = 0; i < size; i++) {
+            lower[i] = layout.getLowerBound(i);
+            upper[i] = layout.getUpperBound(i);
+        }
+        Redistribution redistribution = new Redistribution(lower, upper);
+        for (int i = 0; i < other.getNumberOfBins(); i++) {
+            long count = other.getCount(i);
+            if (count == 0) {
+                continue;
+            }
+            double from = other.getLowerBound(i);
+            double to = other.getUpperBound(i);
+            if (from == to || Double.isInfinite(to - from)) {
+                // nothing to spread over: count it all at the (finite) end of the bin
+                counts.add(findBinIndex(Double.isInfinite(from) ? to : from), count);
+            }
+            else {
+                redistribution.distribute(count, from, to, counts);
+            }
+        }
+        counts.addOutOfRange(other.counts);
+        summary.merge(other.summary);
+        return this;
+    }
+
+    /**
+     * A collector that merges histograms into a new histogram with the given layout, using addRedistributed().
+     * Histograms with the same layout are merged exactly, in a single pass over their counts. Can be used to reduce
+     * many histograms with a parallel stream.
+     * @param layout the layout of the merged histogram
+     * @return a collector of histograms
+     */
+    public static Collector<DoubleRangeHistogram, ?, DoubleRangeHistogram> merging(DoubleBinLayout layout) {
+        return Collector.of(() -> new DoubleRangeHistogram(layout),
+                DoubleRangeHistogram::addRedistributed,
+                DoubleRangeHistogram::addRedistributed,
+                Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    BinCounts getCounts() {
+        return counts;
+    }
+
+    SummaryStatistics getSummary() {
+        return summary;
+    }
+
+    @Override
+    public SummaryStatistics getSummaryStatistics() {
+        return new SummaryStatistics(summary);
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return counts.size();
+    }
+
+    @Override
+    public long getCount(int index) {
+        return counts.get(index);
+    }
+
+    public double getLowerBound(int index) {
+        return layout.getLowerBound(index);
+    }
+
+    public double getUpperBound(int index) {
+        return layout.getUpperBound(index);
+    }
+
+    /**
+     * @return the sum of the counts of all bins
+     */
+    public long getTotalCount() {
+        return counts.getTotal();
+    }
+
+    /**
+     * @return the total weight recorded for values below all bins
+     */
+    public long getUnderflowCount() {
+        return counts.getUnderflow();
+    }
+
+    /**
+     * @return the total weight recorded for values above all bins (including NaN)
+     */
+    public long getOverflowCount() {
+        return counts.getOverflow();
+    }
+
+    /**
+     * @return the total weight recorded for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        return counts.getGap();
+    }
+
+    @Override
+    Double getBinFrom(int index) {
+        return layout.getLowerBound(index);
+    }
+
+    @Override
+    Double getBinTo(int index) {
+        return layout.getUpperBound(index);
+    }
+
+    @Override
+    int indexOf(Double value) {
+        return findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return counts.getVersion();
+    }
+
+    @Override
+    boolean hasSameBins(AbstractRangeHistogram<?> other) {
+        // layouts of different classes may still have the same bins
+        if (other instanceof DoubleRangeHistogram && layout.equals(((DoubleRangeHistogram) other).layout)) {
+            return true;
+        }
+        return super.hasSameBins(other);
+    }
+
+    @Override
+    public Granularity getGranularity() {
+        return layout.getGranularity();
+    }
+
+    @Override
+    Object getLayoutKey() {
+        return layout;
+    }
+}
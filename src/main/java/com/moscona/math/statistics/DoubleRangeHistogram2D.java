@@ -0,0 +1,341 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.util.Arrays;
+import java.util.stream.Collector;
+
+/**
+ * A two dimensional histogram over pairs of double values, for example (latency, payload size).
+ * Each axis is a DoubleBinLayout, with the same bin rules as a DoubleRangeHistogram, and a value is looked up on each
+ * axis independently: in O(1) with arithmetic layouts, in O(log n) with explicit ones.
+ * <p>
+ * All counts are kept in one flat array, with a row for each bin of the x axis. Besides the bins, each axis has slots
+ * for values below all its bins, in gaps and above all its bins (including NaN), so every recorded pair is counted
+ * and the marginal histogram of either axis has exactly the counts of a DoubleRangeHistogram that recorded only that
+ * axis. The grid takes (x bins + 3) * (y bins + 3) longs.
+ * <p>
+ * Each axis also keeps summary statistics of its values. Not thread safe.
+ */
+public class DoubleRangeHistogram2D {
+    private static final int OUT_OF_RANGE_SLOTS = 3; // underflow, gap and overflow, after the bins
+
+    private final DoubleBinLayout xLayout;
+    private final DoubleBinLayout yLayout;
+    private final int rowLength; // slots per x slot
+    private final long[] counts; // counts[xSlot * rowLength + ySlot]
+    private final SummaryStatistics xSummary = new SummaryStatistics();
+    private final SummaryStatistics ySummary = new SummaryStatistics();
+
+    /**
+     * Creates an empty histogram
+     * @param xLayout the bins of the x axis
+     * @param yLayout the bins of the y axis
+     * @throws InvalidArgumentException if the grid would be too large for an array
+     */
+    public DoubleRangeHistogram2D(DoubleBinLayout xLayout, DoubleBinLayout yLayout) throws InvalidArgumentException {
+        this.xLayout = xLayout;
+        this.yLayout = yLayout;
+        rowLength = yLayout.getNumberOfBins() + OUT_OF_RANGE_SLOTS;
+        counts = new long[gridSize(xLayout, yLayout)];
+    }
+
+    private static int gridSize(DoubleBinLayout xLayout, DoubleBinLayout yLayout) throws InvalidArgumentException {
+        long size = (long) (xLayout.getNumberOfBins() + OUT_OF_RANGE_SLOTS) *
+                (yLayout.getNumberOfBins() + OUT_OF_RANGE_SLOTS);
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new InvalidArgumentException("too many bins for one grid: " + xLayout.getNumberOfBins() + " by " +
+                    yLayout.getNumberOfBins());
+        }
+        return (int) size;
+    }
+
+    public DoubleBinLayout getXLayout() {
+        return xLayout;
+    }
+
+    public DoubleBinLayout getYLayout() {
+        return yLayout;
+    }
+
+    public int getNumberOfXBins() {
+        return xLayout.getNumberOfBins();
+    }
+
+    public int getNumberOfYBins() {
+        return yLayout.getNumberOfBins();
+    }
+
+    /**
+     * Adds one to the count of the cell containing the pair
+     * @param x the value on the x axis
+     * @param y the value on the y axis
+     */
+    public void record(double x, double y) {
+        add(x, y, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the cell containing the pair
+     * @param x the value on the x axis
+     * @param y the value on the y axis
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(double x, double y, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        add(x, y, weight);
+    }
+
+    /**
+     * Records each pair (xs[i], ys[i]) with a weight of one
+     * @param xs the values on the x axis
+     * @param ys the values on the y axis
+     * @throws InvalidArgumentException if the arrays are of different lengths
+     */
+    public void recordAll(double[] xs, double[] ys) throws InvalidArgumentException {
+        if (xs.length != ys.length) {
+            throw new InvalidArgumentException("xs and ys must be of the same length");
+        }
+        for (int i = 0; i < xs.length; i++) {
+            add(xs[i], ys[i], 1);
+        }
+    }
+
+    private void add(double x, double y, long weight) {
+        int xSlot = slotOf(xLayout.findBinIndex(x), xLayout.getNumberOfBins());
+        int ySlot = slotOf(yLayout.findBinIndex(y), yLayout.getNumberOfBins());
+        counts[xSlot * rowLength + ySlot] += weight;
+        xSummary.add(x, weight);
+        ySummary.add(y, weight);
+    }
+
+    /**
+     * @return the slot of a lookup result on an axis: the bin index, or one of the out of range slots after the bins
+     */
+    private static int slotOf(int lookupResult, int numberOfBins) {
+        if (lookupResult >= 0) {
+            return lookupResult;
+        }
+        int insertionPoint = -lookupResult - 1;
+        if (insertionPoint == 0) {
+            return numberOfBins;
+        }
+        return insertionPoint >= numberOfBins ? numberOfBins + 2 : numberOfBins + 1;
+    }
+
+    /**
+     * @param xIndex the index of a bin of the x axis
+     * @param yIndex the index of a bin of the y axis
+     * @return the count of the cell of the two bins
+     */
+    public long getCount(int xIndex, int yIndex) {
+        if (xIndex < 0 || xIndex >= xLayout.getNumberOfBins() || yIndex < 0 || yIndex >= yLayout.getNumberOfBins()) {
+            throw new IndexOutOfBoundsException("no cell " + xIndex + ", " + yIndex);
+        }
+        return counts[xIndex * rowLength + yIndex];
+    }
+
+    /**
+     * @return the sum of the counts of all cells, not including pairs that are out of range on either axis
+     */
+    public long getTotalCount() {
+        long total = 0;
+        int yBins = yLayout.getNumberOfBins();
+        for (int x = 0; x < xLayout.getNumberOfBins(); x++) {
+            int row = x * rowLength;
+            for (int y = 0; y < yBins; y++) {
+                total += counts[row + y];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Projects the histogram on the x axis, in one pass over the grid
+     * @return a histogram of the x values of all recorded pairs, whatever their y values
+     */
+    public DoubleRangeHistogram getXMarginal() {
+        DoubleRangeHistogram marginal = new DoubleRangeHistogram(xLayout);
+        long[] totals = new long[xLayout.getNumberOfBins() + OUT_OF_RANGE_SLOTS];
+        for (int x = 0; x < totals.length; x++) {
+            int row = x * rowLength;
+            for (int y = 0; y < rowLength; y++) {
+                totals[x] += counts[row + y];
+            }
+        }
+        fill(marginal, totals, xSummary);
+        return marginal;
+    }
+
+    /**
+     * Projects the histogram on the y axis, in one pass over the grid
+     * @return a histogram of the y values of all recorded pairs, whatever their x values
+     */
+    public DoubleRangeHistogram getYMarginal() {
+        DoubleRangeHistogram marginal = new DoubleRangeHistogram(yLayout);
+        long[] totals = new long[rowLength];
+        for (int row = 0; row < counts.length; row += rowLength) {
+            for (int y = 0; y < rowLength; y++) {
+                totals[y] += counts[row + y];
+            }
+        }
+        fill(marginal, totals, ySummary);
+        return marginal;
+    }
+
+    /**
+     * Gets the histogram of the x values of the pairs whose y value is in one bin, for example the latencies of
+     * requests of one payload size range
+     * @param yIndex the index of a bin of the y axis
+     * @return a histogram over the x axis. It has no summary statistics, as they are kept per axis, not per bin.
+     */
+    public DoubleRangeHistogram getXHistogram(int yIndex) {
+        if (yIndex < 0 || yIndex >= yLayout.getNumberOfBins()) {
+            throw new IndexOutOfBoundsException("no y bin " + yIndex);
+        }
+        DoubleRangeHistogram slice = new DoubleRangeHistogram(xLayout);
+        long[] column = new long[xLayout.getNumberOfBins() + OUT_OF_RANGE_SLOTS];
+        for (int x = 0; x < column.length; x++) {
+            column[x] = counts[x * rowLength + yIndex];
+        }
+        fill(slice, column, null);
+        return slice;
+    }
+
+    /**
+     * Gets the histogram of the y values of the pairs whose x value is in one bin
+     * @param xIndex the index of a bin of the x axis
+     * @return a histogram over the y axis. It has no summary statistics, as they are kept per axis, not per bin.
+     */
+    public DoubleRangeHistogram getYHistogram(int xIndex) {
+        if (xIndex < 0 || xIndex >= xLayout.getNumberOfBins()) {
+            throw new IndexOutOfBoundsException("no x bin " + xIndex);
+        }
+        DoubleRangeHistogram slice = new DoubleRangeHistogram(yLayout);
+        fill(slice, Arrays.copyOfRange(counts, xIndex * rowLength, (xIndex + 1) * rowLength), null);
+        return slice;
+    }
+
+    private static void fill(DoubleRangeHistogram histogram, long[] slots, SummaryStatistics summary) {
+        BinCounts binCounts = histogram.getCounts();
+        int numberOfBins = slots.length - OUT_OF_RANGE_SLOTS;
+        for (int i = 0; i < numberOfBins; i++) {
+            if (slots[i] != 0) {
+                binCounts.set(i, slots[i]);
+            }
+        }
+        binCounts.setOutOfRange(slots[numberOfBins], slots[numberOfBins + 1], slots[numberOfBins + 2]);
+        if (summary != null) {
+            histogram.getSummary().merge(summary);
+        }
+    }
+
+    /**
+     * @return a copy of the summary statistics of the x values of all recorded pairs
+     */
+    public SummaryStatistics getXSummaryStatistics() {
+        return new SummaryStatistics(xSummary);
+    }
+
+    /**
+     * @return a copy of the summary statistics of the y values of all recorded pairs
+     */
+    public SummaryStatistics getYSummaryStatistics() {
+        return new SummaryStatistics(ySummary);
+    }
+
+    /**
+     * Adds the counts of another histogram with the same layouts, in a single pass over the grid
+     * @param other the histogram to add
+     * @return this histogram
+     * @throws InvalidArgumentException if the layouts are not equal
+     */
+    public DoubleRangeHistogram2D add(DoubleRangeHistogram2D other) throws InvalidArgumentException {
+        if (!xLayout.equals(other.xLayout) || !yLayout.equals(other.yLayout)) {
+            throw new InvalidArgumentException("cannot add a histogram with different layouts");
+        }
+        long[] otherCounts = other.counts;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += otherCounts[i];
+        }
+        xSummary.merge(other.xSummary);
+        ySummary.merge(other.ySummary);
+        return this;
+    }
+
+    /**
+     * A collector that merges histograms into a new histogram with the given layouts, using add(). Can be used to
+     * reduce many histograms with a parallel stream.
+     * As collectors cannot throw checked exceptions, a histogram with other layouts causes an IllegalArgumentException
+     * wrapping the InvalidArgumentException thrown by add().
+     * @param xLayout the bins of the x axis
+     * @param yLayout the bins of the y axis
+     * @return a collector of histograms
+     * @throws InvalidArgumentException if the grid would be too large for an array
+     */
+    public static Collector<DoubleRangeHistogram2D, ?, DoubleRangeHistogram2D> merging(DoubleBinLayout xLayout,
+            DoubleBinLayout yLayout) throws InvalidArgumentException {
+        gridSize(xLayout, yLayout); // fail now rather than in the stream
+        return Collector.of(() -> newUnchecked(xLayout, yLayout),
+                DoubleRangeHistogram2D::addUnchecked,
+                DoubleRangeHistogram2D::addUnchecked,
+                Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    private static DoubleRangeHistogram2D newUnchecked(DoubleBinLayout xLayout, DoubleBinLayout yLayout) {
+        try {
+            return new DoubleRangeHistogram2D(xLayout, yLayout);
+        }
+        catch (InvalidArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    private DoubleRangeHistogram2D addUnchecked(DoubleRangeHistogram2D other) {
+        try {
+            return add(other);
+        }
+        catch (InvalidArgumentException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Histograms are equal if they have equal layouts and equal counts in all cells, also out of range
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DoubleRangeHistogram2D other = (DoubleRangeHistogram2D) o;
+        return xLayout.equals(other.xLayout) && yLayout.equals(other.yLayout) && Arrays.equals(counts, other.counts);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = xLayout.hashCode();
+        result = 31 * result + yLayout.hashCode();
+        result = 31 * result + Arrays.hashCode(counts);
+        return result;
+    }
+}
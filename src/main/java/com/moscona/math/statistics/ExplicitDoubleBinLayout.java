@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A layout of arbitrary bins given by their boundaries. Lookups use a binary search over the primitive boundaries.
+ * Bins follow the same rules as real bins in RangeHistogram: they are inclusive at both ends, may touch at their
+ * boundaries and may not otherwise overlap. There may be gaps between bins.
+ * <p>
+ * Boundaries and values are compared at the granularity of the layout. The keys of the grains of the boundaries are
+ * computed once, when the layout is created, so a lookup only maps the value to its key.
+ */
+public class ExplicitDoubleBinLayout implements DoubleBinLayout {
+    private static final Interner<ExplicitDoubleBinLayout> INTERNER = new Interner<>();
+
+    private final double[] from;
+    private final double[] to;
+    private final Granularity granularity;
+    private final double[] fromKeys; // the keys of the grains of the boundaries, the boundaries themselves if equal
+    private final double[] toKeys;
+    private int hashCode = 0; // computed lazily, as the layout is immutable
+
+    /**
+     * @param from the lower boundaries of the bins
+     * @param to the upper boundaries of the bins
+     * @throws InvalidArgumentException if the arrays are of different lengths, contain NaN, or a bin's from is larger
+     * than its to
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public ExplicitDoubleBinLayout(double[] from, double[] to) throws InvalidArgumentException, InvalidStateException {
+        this(from, to, Granularity.EXACT);
+    }
+
+    /**
+     * @param from the lower boundaries of the bins
+     * @param to the upper boundaries of the bins
+     * @param granularity the granularity at which boundaries and values are compared. Bins that overlap by less than
+     *                    a grain touch.
+     * @throws InvalidArgumentException if the arrays are of different lengths, contain NaN, or a bin's from is larger
+     * than its to at the granularity
+     * @throws InvalidStateException if any two bins overlap at the granularity
+     */
+    public ExplicitDoubleBinLayout(double[] from, double[] to, Granularity granularity) throws InvalidArgumentException, InvalidStateException {
+        if (granularity == null) {
+            throw new InvalidArgumentException("granularity may not be null");
+        }
+        if (from.length != to.length) {
+            throw new InvalidArgumentException("from and to must be of the same length");
+        }
+        int size = from.length;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            if (Double.isNaN(from[i]) || Double.isNaN(to[i])) {
+                throw new InvalidArgumentException("bin boundaries may not be NaN");
+            }
+            if (granularity.compare(from[i], to[i]) > 0) {
+                throw new InvalidArgumentException("from may not be larger than to.");
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> from[i])); // stable, so bins with the same from keep their order
+
+        this.from = new double[size];
+        this.to = new double[size];
+        for (int i = 0; i < size; i++) {
+            this.from[i] = from[order[i]];
+            this.to[i] = to[order[i]];
+        }
+        this.granularity = granularity;
+        fromKeys = keysOf(this.from, granularity);
+        toKeys = keysOf(this.to, granularity);
+        for (int i = 1; i < size; i++) {
+            if (fromKeys[i] < toKeys[i - 1]) {
+                throw new InvalidStateException("The bin '" + this.from[i] + "-" + this.to[i] +
+                        "' overlaps with the bin '" + this.from[i - 1] + "-" + this.to[i - 1] + "'");
+            }
+        }
+    }
+
+    /**
+     * Creates a layout directly from boundary arrays that are already sorted, checking them in a single pass.
+     * The arrays are used as they are, not copied.
+     */
+    static ExplicitDoubleBinLayout ofSorted(double[] from, double[] to) throws InvalidArgumentException, InvalidStateException {
+        return ofSorted(from, to, Granularity.EXACT);
+    }
+
+    /**
+     * Creates a layout directly from boundary arrays that are already sorted, checking them at the granularity in a
+     * single pass. The arrays are used as they are, not copied.
+     */
+    static ExplicitDoubleBinLayout ofSorted(double[] from, double[] to, Granularity granularity) throws InvalidArgumentException, InvalidStateException {
+        if (from.length != to.length) {
+            throw new InvalidArgumentException("from and to must be of the same length");
+        }
+        for (int i = 0; i < from.length; i++) {
+            if (from[i] != from[i] || to[i] != to[i] || granularity.compare(from[i], to[i]) > 0) {
+                throw new InvalidArgumentException("from may not be larger than to, and bin boundaries may not be NaN");
+            }
+            if (i > 0 && (from[i] < from[i - 1] || granularity.compare(from[i], to[i - 1]) < 0)) {
+                throw new InvalidStateException("The bin '" + from[i] + "-" + to[i] +
+                        "' overlaps with the bin '" + from[i - 1] + "-" + to[i - 1] + "'");
+            }
+        }
+        return new ExplicitDoubleBinLayout(from, to, granularity, true);
+    }
+
+    /**
+     * Creates a layout from boundary arrays that are already sorted and validated at the granularity, without copying
+     * them
+     */
+    private ExplicitDoubleBinLayout(double[] from, double[] to, Granularity granularity, boolean sorted) {
+        this.from = from;
+        this.to = to;
+        this.granularity = granularity;
+        fromKeys = keysOf(from, granularity);
+        toKeys = keysOf(to, granularity);
+    }
+
+    /**
+     * @return the keys of the values at the granularity, or the values themselves if they are their own keys
+     */
+    private static double[] keysOf(double[] values, Granularity granularity) {
+        double[] keys = null;
+        for (int i = 0; i < values.length; i++) {
+            double key = granularity.key(values[i]);
+            if (keys == null && Double.doubleToRawLongBits(key) != Double.doubleToRawLongBits(values[i])) {
+                keys = Arrays.copyOf(values, values.length);
+            }
+            if (keys != null) {
+                keys[i] = key;
+            }
+        }
+        return keys == null ? values : keys;
+    }
+
+    /**
+     * Creates a layout of adjacent bins: [b0, b1], [b1, b2], ... [bn-1, bn]
+     * @param boundaries the bin boundaries, in ascending order
+     * @return the shared layout
+     * @throws InvalidArgumentException if the boundaries are not in ascending order
+     */
+    public static ExplicitDoubleBinLayout contiguous(double... boundaries) throws InvalidArgumentException {
+        if (boundaries.length < 2) {
+            throw new InvalidArgumentException("at least two boundaries are required");
+        }
+        try {
+            return new ExplicitDoubleBinLayout(Arrays.copyOfRange(boundaries, 0, boundaries.length - 1),
+                    Arrays.copyOfRange(boundaries, 1, boundaries.length)).intern();
+        }
+        catch (InvalidStateException e) {
+            throw new InvalidArgumentException("boundaries must be in ascending order", e);
+        }
+    }
+
+    /**
+     * Gets a layout with the same boundaries, compared at another granularity. As the order of values never reverses
+     * at a coarser granularity, the bins remain valid.
+     * @param granularity the granularity of the new layout
+     * @return a layout with the granularity (this layout if it already has it)
+     */
+    public ExplicitDoubleBinLayout withGranularity(Granularity granularity) {
+        if (this.granularity.equals(granularity)) {
+            return this;
+        }
+        return new ExplicitDoubleBinLayout(from, to, granularity, true);
+    }
+
+    /**
+     * Gets the shared instance of this layout, like String.intern(). Histograms with interned layouts share a single
+     * copy of the boundaries, and finding that two of them have the same layout takes a reference comparison.
+     * @return the shared layout equal to this one
+     */
+    public ExplicitDoubleBinLayout intern() {
+        return INTERNER.intern(this);
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return from.length;
+    }
+
+    @Override
+    public int findBinIndex(double value) {
+        if (value != value) { // NaN
+            return -from.length - 1;
+        }
+        double key = granularity.key(value);
+        // find the last bin whose from is <= value
+        int low = 0;
+        int high = fromKeys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (key < fromKeys[mid]) {
+                high = mid - 1;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        int index = high;
+        if (index < 0) {
+            return -1;
+        }
+        while (index > 0 && key <= toKeys[index - 1]) {
+            index--;
+        }
+        return key <= toKeys[index] ? index : -(index + 1) - 1;
+    }
+
+    @Override
+    public double getLowerBound(int index) {
+        return from[index];
+    }
+
+    @Override
+    public double getUpperBound(int index) {
+        return to[index];
+    }
+
+    @Override
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    /**
+     * Layouts are equal if they have the same granularity, and their boundaries are equal at that granularity
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        ExplicitDoubleBinLayout that = (ExplicitDoubleBinLayout) o;
+        return hashCode() == that.hashCode() && granularity.equals(that.granularity) &&
+                Arrays.equals(fromKeys, that.fromKeys) && Arrays.equals(toKeys, that.toKeys);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hashCode;
+        if (result == 0) {
+            result = 31 * (31 * Arrays.hashCode(fromKeys) + Arrays.hashCode(toKeys)) + granularity.hashCode();
+            hashCode = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ExplicitDoubleBinLayout{" +
+                "numberOfBins=" + from.length +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import java.util.List;
+
+/**
+ * An immutable copy of the bins of a histogram of any implementation, for answering many quantile and cumulative
+ * count queries about it. The copy has its own boundary index, which is not interned, and its cumulative counts index
+ * is built on the first query and kept, since the counts never change.
+ */
+final class FrozenRangeHistogram<T extends Comparable<T>> extends AbstractRangeHistogram<T> {
+    private final BinIndex<T> index;
+    private final long[] counts;
+
+    /**
+     * @param bins the bins of a histogram, sorted and non-overlapping as getBins() returns them
+     */
+    FrozenRangeHistogram(List<Bin<T>> bins) {
+        index = new BinIndex<>(bins);
+        counts = new long[bins.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = bins.get(i).getCount();
+        }
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return counts.length;
+    }
+
+    @Override
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    @Override
+    T getBinFrom(int index) {
+        return this.index.fromAt(index);
+    }
+
+    @Override
+    T getBinTo(int index) {
+        return this.index.toAt(index);
+    }
+
+    @Override
+    int indexOf(T value) {
+        return index.indexOf(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return 0; // the counts never change
+    }
+
+    @Override
+    public Granularity getGranularity() {
+        return index.getGranularity();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+/**
+ * The granularity at which real (double and float) bin boundaries and values are compared.
+ * <p>
+ * A granularity divides the real line into grains, and values in the same grain are considered equal: a value that
+ * lands next to a boundary after rounding is in the same grain as the boundary, and so is found in the bin the
+ * boundary belongs to. Bins use the granularity for lookups, for validating that they do not overlap, and for
+ * equality and hashing, so all of these agree with each other.
+ * <ul>
+ *     <li>{@link #EXACT} compares values as they are. The only values it considers equal are 0.0 and -0.0.</li>
+ *     <li>{@link #absolute(double)} uses grains of a fixed width, centered on the multiples of epsilon.</li>
+ *     <li>{@link #ulps(long)} rounds away the lowest bits of the significand, so grains are relative to the
+ *     magnitude of the values.</li>
+ * </ul>
+ * As grains have edges, two values closer than a grain may still be in different grains. The grains should be much
+ * smaller than the bins. NaN is in no grain and equals nothing, and the infinities are only equal to themselves.
+ * Instances are immutable.
+ */
+public final class Granularity {
+    private static final int EXACT_KIND = 0;
+    private static final int ABSOLUTE_KIND = 1;
+    private static final int ULPS_KIND = 2;
+    private static final double INTEGRAL = 0x1p52; // doubles of this magnitude and above are all whole numbers
+    private static final long INFINITY_BITS = 0x7ff0000000000000L;
+
+    /**
+     * Compares values exactly (except that 0.0 and -0.0 are equal, as they are for the comparison operators)
+     */
+    public static final Granularity EXACT = new Granularity(EXACT_KIND, 0.0, 1);
+
+    private final int kind;
+    private final double epsilon;
+    private final double scale; // 1 / epsilon
+    private final long ulps;
+
+    private Granularity(int kind, double epsilon, long ulps) {
+        this.kind = kind;
+        this.epsilon = epsilon;
+        this.scale = kind == ABSOLUTE_KIND ? 1.0 / epsilon : 0.0;
+        this.ulps = ulps;
+    }
+
+    /**
+     * Creates a granularity of grains with a fixed width: values that round to the same multiple of epsilon are equal
+     * @param epsilon the width of a grain
+     * @return the granularity
+     * @throws InvalidArgumentException if epsilon is not a positive, finite number (or so small that its inverse
+     * overflows)
+     */
+    public static Granularity absolute(double epsilon) throws InvalidArgumentException {
+        if (!(epsilon > 0.0) || Double.isInfinite(epsilon) || Double.isInfinite(1.0 / epsilon)) {
+            throw new InvalidArgumentException("epsilon must be a positive, finite number: " + epsilon);
+        }
+        return new Granularity(ABSOLUTE_KIND, epsilon, 1);
+    }
+
+    /**
+     * Creates a granularity relative to the magnitude of the values: values whose significands round to the same
+     * multiple of the given number of units in the last place are equal
+     * @param ulps the width of a grain in units in the last place of a double. A power of two, at most 2^52. One
+     *             unit is the same as EXACT.
+     * @return the granularity
+     * @throws InvalidArgumentException if ulps is not a power of two between 1 and 2^52
+     */
+    public static Granularity ulps(long ulps) throws InvalidArgumentException {
+        if (ulps < 1 || ulps > (1L << 52) || Long.bitCount(ulps) != 1) {
+            throw new InvalidArgumentException("ulps must be a power of two between 1 and 2^52: " + ulps);
+        }
+        return ulps == 1 ? EXACT : new Granularity(ULPS_KIND, 0.0, ulps);
+    }
+
+    public boolean isExact() {
+        return kind == EXACT_KIND;
+    }
+
+    /**
+     * @return the width of a grain of an absolute granularity, 0 for other granularities
+     */
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * @return the width of a grain in units in the last place, 1 for other granularities
+     */
+    public long getUlps() {
+        return ulps;
+    }
+
+    /**
+     * Compares two values at this granularity
+     * @return a negative integer, zero, or a positive integer as the grain of a is below, the same as, or above the
+     * grain of b. NaN is above all other values, as in Double.compare().
+     */
+    public int compare(double a, double b) {
+        return Double.compare(key(a), key(b));
+    }
+
+    /**
+     * @return true if the values are in the same grain. Never true for NaN.
+     */
+    public boolean equal(double a, double b) {
+        return key(a) == key(b);
+    }
+
+    /**
+     * @return a hash code of the grain of the value, the same for all values that are equal at this granularity
+     */
+    public int hash(double value) {
+        return Double.hashCode(key(value));
+    }
+
+    /**
+     * Maps a value to a key identifying its grain. Keys are ordered like the values (never reversing the order of two
+     * values), values in the same grain have equal keys and -0.0 is mapped to 0.0, so keys can be compared with the
+     * primitive operators. Keys are only good for comparing with other keys of the same granularity.
+     * NaN is mapped to NaN.
+     */
+    double key(double value) {
+        switch (kind) {
+            case ABSOLUTE_KIND: {
+                double scaled = value * scale;
+                if (Math.abs(scaled) < INTEGRAL) {
+                    return Math.rint(scaled) + 0.0;
+                }
+                if (Double.isInfinite(scaled) && !Double.isInfinite(value)) {
+                    return Math.copySign(Double.MAX_VALUE, value); // keep finite values apart from the infinities
+                }
+                return scaled; // already a whole number, an infinity or NaN
+            }
+            case ULPS_KIND: {
+                if (value != value || Double.isInfinite(value)) {
+                    return value;
+                }
+                long rounded = (Double.doubleToRawLongBits(Math.abs(value)) + (ulps >>> 1)) & -ulps;
+                if (rounded >= INFINITY_BITS) {
+                    rounded = INFINITY_BITS - ulps; // the largest finite grain, rather than rounding up to infinity
+                }
+                double magnitude = Double.longBitsToDouble(rounded);
+                return (value < 0.0 ? -magnitude : magnitude) + 0.0;
+            }
+            default:
+                return value + 0.0;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Granularity that = (Granularity) o;
+        return kind == that.kind && Double.compare(epsilon, that.epsilon) == 0 && ulps == that.ulps;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = kind;
+        result = 31 * result + Double.hashCode(epsilon);
+        result = 31 * result + (int) (ulps ^ (ulps >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case ABSOLUTE_KIND:
+                return "Granularity{epsilon=" + epsilon + '}';
+            case ULPS_KIND:
+                return "Granularity{ulps=" + ulps + '}';
+            default:
+                return "Granularity{exact}";
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A compact, versioned binary format for DoubleRangeHistogram and LongRangeHistogram.
+ * <p>
+ * The format is a version byte and a layout type byte, followed by the layout and then the counts:
+ * <ul>
+ *     <li>Arithmetic double layouts are written as their parameters.</li>
+ *     <li>Explicit double layouts with a granularity other than exact are written as their epsilon (a double) and
+ *     ulps (a varint), followed by the layout as for any other explicit layout.</li>
+ *     <li>Explicit layouts are written as the number of bins followed by the boundaries in order
+ *     (from0, to0, from1, to1...), each as an unsigned varint of its difference from the previous boundary. Doubles are
+ *     first mapped to longs that sort in the same order as the doubles, so the differences are never negative
+ *     (except between boundaries within a grain of a granularity, which take the full ten bytes).</li>
+ *     <li>Counts are written as varints: underflow, gap and overflow, then the bin counts with runs of zeros written
+ *     as a zero followed by the length of the run.</li>
+ *     <li>If the layout type byte has its high bit (WITH_SUMMARY) set, the counts are followed by the summary
+ *     statistics: the count as a varint, then the mean, the sum of squared deviations from the mean, the sum, the
+ *     minimum and the maximum as doubles. Histograms with no summarized values are written without the flag, exactly
+ *     as before summaries were added, so older encodings still decode.</li>
+ * </ul>
+ * Encoding writes at the buffer's position and decoding reads from the buffer's position, advancing it, so many
+ * histograms can be written to or read from one buffer. Decoding reads directly into the primitive arrays of the
+ * histogram, without intermediate objects. The format does not depend on the byte order of the buffer.
+ */
+public class HistogramCodec {
+    public static final int VERSION = 1;
+
+    private static final int EXPLICIT_DOUBLE = 1;
+    private static final int LINEAR_DOUBLE = 2;
+    private static final int LOG_DOUBLE = 3;
+    private static final int LOG_LINEAR_DOUBLE = 4;
+    private static final int EXPLICIT_LONG = 5;
+    private static final int GRANULAR_EXPLICIT_DOUBLE = 6;
+    private static final int WITH_SUMMARY = 0x80; // a flag on the layout type
+
+    private HistogramCodec() {
+    }
+
+    /**
+     * Writes a histogram to a buffer
+     * @param histogram the histogram to write
+     * @param buffer the buffer to write to. Must have at least encodedSize() bytes remaining.
+     * @throws java.nio.BufferOverflowException if there is not enough room in the buffer
+     */
+    public static void encode(DoubleRangeHistogram histogram, ByteBuffer buffer) {
+        encode(histogram, new Output(buffer));
+    }
+
+    /**
+     * Writes a histogram to a buffer
+     * @param histogram the histogram to write
+     * @param buffer the buffer to write to. Must have at least encodedSize() bytes remaining.
+     * @throws java.nio.BufferOverflowException if there is not enough room in the buffer
+     */
+    public static void encode(LongRangeHistogram histogram, ByteBuffer buffer) {
+        encode(histogram, new Output(buffer));
+    }
+
+    /**
+     * @return the exact number of bytes encode() would write for the histogram
+     */
+    public static int encodedSize(DoubleRangeHistogram histogram) {
+        Output output = new Output(null);
+        encode(histogram, output);
+        return output.size;
+    }
+
+    /**
+     * @return the exact number of bytes encode() would write for the histogram
+     */
+    public static int encodedSize(LongRangeHistogram histogram) {
+        Output output = new Output(null);
+        encode(histogram, output);
+        return output.size;
+    }
+
+    /**
+     * Reads a histogram written by encode(DoubleRangeHistogram, ByteBuffer)
+     * @param buffer the buffer to read from
+     * @return the histogram
+     * @throws InvalidArgumentException if the buffer does not contain a valid encoding of a DoubleRangeHistogram
+     */
+    public static DoubleRangeHistogram decodeDouble(ByteBuffer buffer) throws InvalidArgumentException {
+        try {
+            int header = readHeader(buffer);
+            int type = header & ~WITH_SUMMARY;
+            DoubleBinLayout layout;
+            switch (type) {
+                case LINEAR_DOUBLE:
+                    layout = new LinearDoubleBinLayout(readDouble(buffer), readDouble(buffer), readInt(buffer));
+                    break;
+                case LOG_DOUBLE:
+                    layout = new LogDoubleBinLayout(readDouble(buffer), readDouble(buffer), readInt(buffer));
+                    break;
+                case LOG_LINEAR_DOUBLE:
+                    layout = new LogLinearDoubleBinLayout(readDouble(buffer), readDouble(buffer), readInt(buffer));
+                    break;
+                case EXPLICIT_DOUBLE:
+                case GRANULAR_EXPLICIT_DOUBLE:
+                    Granularity granularity = type == EXPLICIT_DOUBLE ? Granularity.EXACT : readGranularity(buffer);
+                    int size = readNumberOfBins(buffer);
+                    double[] from = new double[size];
+                    double[] to = new double[size];
+                    long previous = 0;
+                    for (int i = 0; i < size; i++) {
+                        previous += readVarLong(buffer);
+                        from[i] = fromSortable(previous);
+                        previous += readVarLong(buffer);
+                        to[i] = fromSortable(previous);
+                    }
+                    // decoded histograms share their layouts
+                    layout = ExplicitDoubleBinLayout.ofSorted(from, to, granularity).intern();
+                    break;
+                default:
+                    throw new InvalidArgumentException("not a DoubleRangeHistogram encoding (type " + type + ")");
+            }
+            DoubleRangeHistogram histogram = new DoubleRangeHistogram(layout);
+            readCounts(buffer, histogram.getCounts());
+            if ((header & WITH_SUMMARY) != 0) {
+                histogram.getSummary().merge(readSummary(buffer));
+            }
+            return histogram;
+        }
+        catch (BufferUnderflowException | InvalidStateException e) {
+            throw new InvalidArgumentException("corrupt histogram encoding", e);
+        }
+    }
+
+    /**
+     * Reads a histogram written by encode(LongRangeHistogram, ByteBuffer)
+     * @param buffer the buffer to read from
+     * @return the histogram
+     * @throws InvalidArgumentException if the buffer does not contain a valid encoding of a LongRangeHistogram
+     */
+    public static LongRangeHistogram decodeLong(ByteBuffer buffer) throws InvalidArgumentException {
+        try {
+            int header = readHeader(buffer);
+            int type = header & ~WITH_SUMMARY;
+            if (type != EXPLICIT_LONG) {
+                throw new InvalidArgumentException("not a LongRangeHistogram encoding (type " + type + ")");
+            }
+            int size = readNumberOfBins(buffer);
+            long[] from = new long[size];
+            long[] to = new long[size];
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                previous = i == 0 ? zigZagDecode(readVarLong(buffer)) : previous + readVarLong(buffer);
+                from[i] = previous;
+                previous += readVarLong(buffer);
+                to[i] = previous;
+            }
+            LongRangeHistogram histogram = LongRangeHistogram.ofSorted(from, to);
+            readCounts(buffer, histogram.getCounts());
+            if ((header & WITH_SUMMARY) != 0) {
+                histogram.getSummary().merge(readSummary(buffer));
+            }
+            return histogram;
+        }
+        catch (BufferUnderflowException | InvalidStateException e) {
+            throw new InvalidArgumentException("corrupt histogram encoding", e);
+        }
+    }
+
+    private static void encode(DoubleRangeHistogram histogram, Output output) {
+        output.writeByte(VERSION);
+        int flags = summaryFlag(histogram.getSummary());
+        DoubleBinLayout layout = histogram.getLayout();
+        if (layout instanceof LinearDoubleBinLayout) {
+            LinearDoubleBinLayout linear = (LinearDoubleBinLayout) layout;
+            output.writeByte(LINEAR_DOUBLE | flags);
+            output.writeDouble(linear.getFrom());
+            output.writeDouble(linear.getTo());
+            output.writeVarLong(linear.getNumberOfBins());
+        }
+        else if (layout instanceof LogDoubleBinLayout) {
+            LogDoubleBinLayout log = (LogDoubleBinLayout) layout;
+            output.writeByte(LOG_DOUBLE | flags);
+            output.writeDouble(log.getLowest());
+            output.writeDouble(log.getBase());
+            output.writeVarLong(log.getNumberOfBins());
+        }
+        else if (layout instanceof LogLinearDoubleBinLayout) {
+            LogLinearDoubleBinLayout logLinear = (LogLinearDoubleBinLayout) layout;
+            output.writeByte(LOG_LINEAR_DOUBLE | flags);
+            output.writeDouble(logLinear.getUnit());
+            output.writeDouble(logLinear.getHighest());
+            output.writeVarLong(logLinear.getSignificantDigits());
+        }
+        else {
+            // any other layout is written by its boundaries
+            int size = layout.getNumberOfBins();
+            Granularity granularity = layout.getGranularity();
+            if (granularity.isExact()) {
+                output.writeByte(EXPLICIT_DOUBLE | flags);
+            }
+            else {
+                output.writeByte(GRANULAR_EXPLICIT_DOUBLE | flags);
+                output.writeDouble(granularity.getEpsilon());
+                output.writeVarLong(granularity.getUlps());
+            }
+            output.writeVarLong(size);
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long from = toSortable(layout.getLowerBound(i));
+                long to = toSortable(layout.getUpperBound(i));
+                output.writeVarLong(from - previous);
+                output.writeVarLong(to - from);
+                previous = to;
+            }
+        }
+        writeCounts(output, histogram.getCounts());
+        writeSummary(output, histogram.getSummary());
+    }
+
+    private static void encode(LongRangeHistogram histogram, Output output) {
+        output.writeByte(VERSION);
+        output.writeByte(EXPLICIT_LONG | summaryFlag(histogram.getSummary()));
+        int size = histogram.getNumberOfBins();
+        output.writeVarLong(size);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            long from = histogram.getLowerBound(i);
+            long to = histogram.getUpperBound(i);
+            output.writeVarLong(i == 0 ? zigZagEncode(from) : from - previous);
+            output.writeVarLong(to - from);
+            previous = to;
+        }
+        writeCounts(output, histogram.getCounts());
+        writeSummary(output, histogram.getSummary());
+    }
+
+    private static int summaryFlag(SummaryStatistics summary) {
+        return summary.getCount() > 0 ? WITH_SUMMARY : 0;
+    }
+
+    private static void writeSummary(Output output, SummaryStatistics summary) {
+        if (summary.getCount() == 0) {
+            return;
+        }
+        output.writeVarLong(summary.getCount());
+        output.writeDouble(summary.getMean());
+        output.writeDouble(summary.getSquaredDeviations());
+        output.writeDouble(summary.getSum());
+        output.writeDouble(summary.getMin());
+        output.writeDouble(summary.getMax());
+    }
+
+    private static SummaryStatistics readSummary(ByteBuffer buffer) throws InvalidArgumentException {
+        long count = readVarLong(buffer);
+        if (count < 1) {
+            throw new InvalidArgumentException("corrupt histogram encoding: bad summary count " + count);
+        }
+        return SummaryStatistics.of(count, readDouble(buffer), readDouble(buffer), readDouble(buffer),
+                readDouble(buffer), readDouble(buffer));
+    }
+
+    private static void writeCounts(Output output, BinCounts counts) {
+        output.writeVarLong(counts.getUnderflow());
+        output.writeVarLong(counts.getGap());
+        output.writeVarLong(counts.getOverflow());
+        int size = counts.size();
+        int i = 0;
+        while (i < size) {
+            long count = counts.get(i);
+            if (count != 0) {
+                output.writeVarLong(count);
+                i++;
+            }
+            else {
+                int runStart = i;
+                while (i < size && counts.get(i) == 0) {
+                    i++;
+                }
+                output.writeVarLong(0);
+                output.writeVarLong(i - runStart);
+            }
+        }
+    }
+
+    private static void readCounts(ByteBuffer buffer, BinCounts counts) throws InvalidArgumentException {
+        counts.setOutOfRange(readCount(buffer), readCount(buffer), readCount(buffer));
+        int size = counts.size();
+        int i = 0;
+        while (i < size) {
+            long count = readCount(buffer);
+            if (count != 0) {
+                counts.set(i++, count);
+            }
+            else {
+                long run = readVarLong(buffer);
+                if (run < 1 || run > size - i) {
+                    throw new InvalidArgumentException("corrupt histogram encoding: bad run of zero counts");
+                }
+                i += (int) run; // the counts are already zero
+            }
+        }
+    }
+
+    private static Granularity readGranularity(ByteBuffer buffer) throws InvalidArgumentException {
+        double epsilon = readDouble(buffer);
+        long ulps = readVarLong(buffer);
+        return epsilon > 0.0 ? Granularity.absolute(epsilon) : Granularity.ulps(ulps);
+    }
+
+    private static int readHeader(ByteBuffer buffer) throws InvalidArgumentException {
+        int version = buffer.get() & 0xff;
+        if (version != VERSION) {
+            throw new InvalidArgumentException("unsupported histogram encoding version " + version);
+        }
+        return buffer.get() & 0xff;
+    }
+
+    private static int readInt(ByteBuffer buffer) throws InvalidArgumentException {
+        long value = readVarLong(buffer);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new InvalidArgumentException("corrupt histogram encoding: bad size " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads the number of bins of an explicit layout, before allocating its boundaries. Each bin takes at least two
+     * bytes, so a corrupt size cannot make the decoder allocate more than the buffer could describe.
+     */
+    private static int readNumberOfBins(ByteBuffer buffer) throws InvalidArgumentException {
+        int size = readInt(buffer);
+        if (size > buffer.remaining() / 2) {
+            throw new InvalidArgumentException("corrupt histogram encoding: " + size + " bins in " +
+                    buffer.remaining() + " bytes");
+        }
+        return size;
+    }
+
+    private static long readCount(ByteBuffer buffer) throws InvalidArgumentException {
+        long count = readVarLong(buffer);
+        if (count < 0) {
+            throw new InvalidArgumentException("corrupt histogram encoding: negative count " + count);
+        }
+        return count;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws InvalidArgumentException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new InvalidArgumentException("corrupt histogram encoding: varint too long");
+    }
+
+    private static double readDouble(ByteBuffer buffer) {
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (buffer.get() & 0xff);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * Maps a double to a long such that the longs sort (as signed values) in the same order as the doubles
+     */
+    private static long toSortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static double fromSortable(long sortable) {
+        return Double.longBitsToDouble(sortable ^ ((sortable >> 63) & Long.MAX_VALUE));
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes to a buffer, or only counts the bytes when there is no buffer
+     */
+    private static class Output {
+        private final ByteBuffer buffer;
+        private int size = 0;
+
+        Output(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void writeByte(int value) {
+            if (buffer != null) {
+                buffer.put((byte) value);
+            }
+            size++;
+        }
+
+        /**
+         * Writes the value as an unsigned varint: 7 bits per byte, least significant first
+         */
+        void writeVarLong(long value) {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+        }
+    }
+}
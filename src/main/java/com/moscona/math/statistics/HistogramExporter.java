@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes histograms as text to an Appendable (a Writer, a StringBuilder...), one line per bin, either as CSV or in
+ * the Prometheus text exposition format.
+ * <p>
+ * Labels and boundaries are rendered once per bin layout and shared by all histograms with that layout (see
+ * AbstractRangeHistogram.getBinLabel()), and counts are formatted into a reused character buffer that is written to
+ * Writers in one call, so exporting the same histograms again and again does not create strings per bin.
+ * The exception is histograms whose bins may change, such as AdaptiveDoubleRangeHistogram, whose labels and real
+ * boundaries are rendered on every export. Their integral boundaries go through the character buffer too.
+ * Not thread safe.
+ */
+public class HistogramExporter {
+    /**
+     * The separator between the boundaries in the bin labels written to CSV files
+     */
+    public static final String LABEL_SEPARATOR = " - ";
+
+    private final Appendable out;
+    private final char[] digits = new char[20]; // reused for formatting numbers, long enough for Long.MIN_VALUE
+
+    /**
+     * @param out where the text is written to. Writes are not buffered here, so wrap writers with a BufferedWriter.
+     */
+    public HistogramExporter(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes the header line of the CSV format written by writeCsv()
+     * @return this exporter
+     * @throws IOException if writing fails
+     */
+    public HistogramExporter writeCsvHeader() throws IOException {
+        out.append("histogram,bin,from,to,count\n");
+        return this;
+    }
+
+    /**
+     * Writes a line per bin: the name of the histogram, the label of the bin (as Bin.getBinLabel(LABEL_SEPARATOR)
+     * renders it, quoted), its boundaries and its count. Counts outside of all bins are not written.
+     * @param name the name of the histogram. Written as is, so it should not need quoting.
+     * @param histogram the histogram to write
+     * @return this exporter
+     * @throws IOException if writing fails
+     */
+    public HistogramExporter writeCsv(String name, ImmutableRangeHistogram<?> histogram) throws IOException {
+        AbstractRangeHistogram<?> bins = asAbstract(histogram);
+        BinLabels labels = bins.getLabels();
+        int size = bins.getNumberOfBins();
+        for (int i = 0; i < size; i++) {
+            out.append(name).append(",\"");
+            appendQuoted(bins.getBinLabel(i, LABEL_SEPARATOR));
+            out.append("\",");
+            if (labels != null) {
+                out.append(labels.from(i, bins)).append(',').append(labels.to(i, bins));
+            }
+            else {
+                appendBoundary(bins.getBinFrom(i));
+                out.append(',');
+                appendBoundary(bins.getBinTo(i));
+            }
+            out.append(',');
+            appendCount(bins.getCount(i));
+            out.append('\n');
+        }
+        return this;
+    }
+
+    /**
+     * Writes a histogram in the Prometheus text exposition format: a TYPE line, a cumulative bucket per bin with the
+     * upper boundary of the bin as its "le" label, a "+Inf" bucket and the total count.
+     * Values below all bins are counted in every bucket. Values that fell in gaps between bins or above all bins are
+     * only counted in the "+Inf" bucket and the total, as the histogram does not know where in the gaps they were.
+     * Histograms that keep summary statistics also get a _sum line, with the sum of all their values other than NaN.
+     * @param name the metric name
+     * @param histogram a histogram with numeric bins
+     * @return this exporter
+     * @throws IOException if writing fails
+     * @throws InvalidArgumentException if the name is not a valid metric name or the bins are not numeric
+     */
+    public HistogramExporter writePrometheus(String name, ImmutableRangeHistogram<?> histogram)
+            throws IOException, InvalidArgumentException {
+        if (!isValidMetricName(name)) {
+            throw new InvalidArgumentException("not a valid metric name: " + name);
+        }
+        AbstractRangeHistogram<?> bins = asAbstract(histogram);
+        int size = bins.getNumberOfBins();
+        if (size > 0 && !(bins.getBinFrom(0) instanceof Number)) {
+            throw new InvalidArgumentException("only histograms with numeric bins can be written as Prometheus metrics");
+        }
+        BinLabels labels = bins.getLabels();
+
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = bins.getUnderflowCount();
+        for (int i = 0; i < size; i++) {
+            cumulative += bins.getCount(i);
+            Object to = bins.getBinTo(i);
+            boolean infinite = to instanceof Double && ((Double) to).isInfinite() ||
+                    to instanceof Float && ((Float) to).isInfinite();
+            if (infinite && ((Number) to).doubleValue() > 0) {
+                continue; // counted in the +Inf bucket below, which may not be written twice
+            }
+            out.append(name).append("_bucket{le=\"");
+            if (infinite) {
+                out.append("-Inf");
+            }
+            else {
+                if (labels != null) {
+                    out.append(labels.to(i, bins));
+                }
+                else {
+                    appendBoundary(to);
+                }
+            }
+            out.append("\"} ");
+            appendCount(cumulative);
+            out.append('\n');
+        }
+        cumulative += bins.getGapCount() + bins.getOverflowCount();
+        out.append(name).append("_bucket{le=\"+Inf\"} ");
+        appendCount(cumulative);
+        out.append('\n');
+        SummaryStatistics summary = histogram.getSummaryStatistics();
+        if (summary != null) {
+            out.append(name).append("_sum ").append(prometheusValue(summary.getSum())).append('\n');
+        }
+        out.append(name).append("_count ");
+        appendCount(cumulative);
+        out.append('\n');
+        return this;
+    }
+
+    /**
+     * @return the histogram as an AbstractRangeHistogram, copying other implementations
+     */
+    private static AbstractRangeHistogram<?> asAbstract(ImmutableRangeHistogram<?> histogram) {
+        if (histogram instanceof AbstractRangeHistogram) {
+            return (AbstractRangeHistogram<?>) histogram;
+        }
+        return copyOf(histogram);
+    }
+
+    private static <T extends Comparable<T>> RangeHistogram<T> copyOf(ImmutableRangeHistogram<T> histogram) {
+        return new RangeHistogram<>(histogram.getBins(), 0, 0, 0);
+    }
+
+    private void appendCount(long count) throws IOException {
+        appendLong(count);
+    }
+
+    /**
+     * Appends a boundary as its toString() renders it, without creating a string if it is integral
+     */
+    private void appendBoundary(Object boundary) throws IOException {
+        if (boundary instanceof Long || boundary instanceof Integer || boundary instanceof Short ||
+                boundary instanceof Byte) {
+            appendLong(((Number) boundary).longValue());
+        }
+        else {
+            out.append(boundary.toString());
+        }
+    }
+
+    /**
+     * Appends a number as Long.toString() renders it, formatting it into the reused buffer
+     */
+    private void appendLong(long value) throws IOException {
+        int start = digits.length;
+        long rest = value < 0 ? value : -value; // negative, so that Long.MIN_VALUE works too
+        do {
+            digits[--start] = (char) ('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+        if (value < 0) {
+            digits[--start] = '-';
+        }
+        if (out instanceof Writer) {
+            ((Writer) out).write(digits, start, digits.length - start);
+        }
+        else {
+            for (int i = start; i < digits.length; i++) {
+                out.append(digits[i]);
+            }
+        }
+    }
+
+    /**
+     * Appends text that goes between double quotes in a CSV file, doubling any quotes in it
+     */
+    private void appendQuoted(String text) throws IOException {
+        if (text.indexOf('"') < 0) {
+            out.append(text);
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+    }
+
+    private static String prometheusValue(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    private static boolean isValidMetricName(String name) {
+        if (name == null || name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c == ':' ||
+                    (i > 0 && c >= '0' && c <= '9');
+            if (!valid) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * A thread safe registry of histograms by key, for example by (endpoint, customer, region), with a cap on the number
+ * of histograms. All histograms share one layout, so they all take the same memory (about 40 bytes per bin when
+ * uncontended) and the cap bounds the memory of the registry.
+ * <p>
+ * Histograms are created on first use. Finding the histogram of an existing key is a lock free map lookup, plus a
+ * write to its entry at most once per histogram creation, to track recency.
+ * <p>
+ * When a new histogram takes the registry over the cap, the creating thread evicts histograms, chosen by the eviction
+ * policy, least recently used or with the lowest total count. Eviction works in batches: it brings the registry down
+ * to 7/8 of the cap in one scan, so its cost is amortized over many creations. Evicted histograms are either dropped
+ * or folded into a single "other" histogram, so that their counts still show in totals. While one thread evicts,
+ * others keep recording and creating, so the registry may go a little over the cap for a short while. Only once it
+ * is a quarter over the cap do creating threads wait for the eviction.
+ * <p>
+ * Do not hold on to histograms returned by histogram(): once a histogram is evicted, values recorded into it are
+ * lost. For the same reason, a value recorded at the moment its histogram is being folded may be lost.
+ */
+public class HistogramRegistry<K, T extends Comparable<T>> {
+    /**
+     * How histograms are chosen for eviction, and what happens to their counts
+     */
+    public enum EvictionPolicy {
+        /** Drops the least recently used histograms */
+        EVICT_LEAST_RECENTLY_USED(false, false),
+        /** Drops the histograms with the lowest total counts */
+        EVICT_LOWEST_COUNT(true, false),
+        /** Adds the least recently used histograms to the "other" histogram */
+        FOLD_LEAST_RECENTLY_USED(false, true),
+        /** Adds the histograms with the lowest total counts to the "other" histogram */
+        FOLD_LOWEST_COUNT(true, true);
+
+        private final boolean byCount;
+        private final boolean folds;
+
+        EvictionPolicy(boolean byCount, boolean folds) {
+            this.byCount = byCount;
+            this.folds = folds;
+        }
+    }
+
+    private final BinLayout<T> layout;
+    private final int maxHistograms;
+    private final EvictionPolicy policy;
+    private final ConcurrentHashMap<K, Entry<T>> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentRangeHistogram<T> other;
+    private final AtomicLong clock = new AtomicLong(); // ticks on every histogram creation
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final LongAdder evictions = new LongAdder();
+
+    private static final class Entry<T extends Comparable<T>> {
+        final ConcurrentRangeHistogram<T> histogram;
+        volatile long lastUsed; // the clock when the histogram was last used
+
+        Entry(ConcurrentRangeHistogram<T> histogram, long lastUsed) {
+            this.histogram = histogram;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * @param layout the bins of all histograms
+     * @param maxHistograms the maximum number of histograms, not counting the "other" histogram
+     * @param policy how to choose histograms to evict, and what to do with their counts
+     * @throws InvalidArgumentException if the maximum number of histograms is not positive
+     */
+    public HistogramRegistry(BinLayout<T> layout, int maxHistograms, EvictionPolicy policy) throws InvalidArgumentException {
+        if (maxHistograms < 1) {
+            throw new InvalidArgumentException("the registry must have room for at least one histogram");
+        }
+        this.layout = layout;
+        this.maxHistograms = maxHistograms;
+        this.policy = policy;
+        other = new ConcurrentRangeHistogram<>(layout);
+    }
+
+    /**
+     * @param layout a histogram defining the bins of all histograms. Its counts are not copied.
+     * @param maxHistograms the maximum number of histograms, not counting the "other" histogram
+     * @param policy how to choose histograms to evict, and what to do with their counts
+     * @throws InvalidArgumentException if the maximum number of histograms is not positive
+     */
+    public HistogramRegistry(ImmutableRangeHistogram<T> layout, int maxHistograms, EvictionPolicy policy) throws InvalidArgumentException {
+        this(BinLayout.of(layout), maxHistograms, policy);
+    }
+
+    /**
+     * Gets the histogram of a key, creating it on first use. Creating a histogram may evict others.
+     * @param key the key
+     * @return the histogram of the key
+     */
+    public ConcurrentRangeHistogram<T> histogram(K key) {
+        Entry<T> entry = histograms.get(key);
+        if (entry == null) {
+            entry = create(key);
+        }
+        long now = clock.get();
+        if (entry.lastUsed != now) { // only write when the clock moved, so recorders of a hot key rarely write here
+            entry.lastUsed = now;
+        }
+        return entry.histogram;
+    }
+
+    /**
+     * Records a value in the histogram of a key, creating it on first use
+     * @param key the key
+     * @param value the value to record
+     */
+    public void record(K key, T value) {
+        histogram(key).record(value);
+    }
+
+    /**
+     * Records a weighted value in the histogram of a key, creating it on first use
+     * @param key the key
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(K key, T value, long weight) throws InvalidArgumentException {
+        histogram(key).record(value, weight);
+    }
+
+    private Entry<T> create(K key) {
+        Entry<T> entry = histograms.computeIfAbsent(key,
+                k -> new Entry<>(new ConcurrentRangeHistogram<>(layout), clock.incrementAndGet()));
+        if (histograms.size() > maxHistograms) {
+            evict(key);
+        }
+        return entry;
+    }
+
+    /**
+     * Evicts a batch of histograms, other than the one of the given key, unless another thread is already evicting
+     * and the registry is not too far over the cap
+     */
+    private void evict(K keep) {
+        if (!evictionLock.tryLock()) {
+            if (histograms.size() <= maxHistograms + maxHistograms / 4) {
+                return;
+            }
+            evictionLock.lock();
+        }
+        try {
+            int excess = histograms.size() - maxHistograms;
+            if (excess <= 0) {
+                return;
+            }
+            List<Candidate<K, T>> candidates = new ArrayList<>(histograms.size());
+            for (Map.Entry<K, Entry<T>> mapEntry: histograms.entrySet()) {
+                if (!mapEntry.getKey().equals(keep)) {
+                    Entry<T> entry = mapEntry.getValue();
+                    long score = policy.byCount ? totalCount(entry.histogram) : entry.lastUsed;
+                    candidates.add(new Candidate<>(mapEntry.getKey(), entry, score));
+                }
+            }
+            candidates.sort(Comparator.comparingLong((Candidate<K, T> candidate) -> candidate.score)
+                    .thenComparingLong(candidate -> candidate.lastUsed));
+            int batch = Math.min(candidates.size(), excess + maxHistograms / 8);
+            for (int i = 0; i < batch; i++) {
+                Candidate<K, T> candidate = candidates.get(i);
+                if (histograms.remove(candidate.key, candidate.entry)) {
+                    evictions.increment();
+                    if (policy.folds) {
+                        other.addAll(candidate.entry.histogram);
+                    }
+                }
+            }
+        }
+        finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Candidate<K, T extends Comparable<T>> {
+        final K key;
+        final Entry<T> entry;
+        final long score;
+        final long lastUsed;
+
+        Candidate(K key, Entry<T> entry, long score) {
+            this.key = key;
+            this.entry = entry;
+            this.score = score;
+            lastUsed = entry.lastUsed;
+        }
+    }
+
+    private static long totalCount(ConcurrentRangeHistogram<?> histogram) {
+        return histogram.getTotalCount() + histogram.getUnderflowCount() + histogram.getGapCount() +
+                histogram.getOverflowCount();
+    }
+
+    /**
+     * Gets the histogram of a key if it exists, without creating it or marking it as used
+     * @param key the key
+     * @return the histogram of the key, or null if it does not exist (or was evicted)
+     */
+    public ConcurrentRangeHistogram<T> get(K key) {
+        Entry<T> entry = histograms.get(key);
+        return entry == null ? null : entry.histogram;
+    }
+
+    /**
+     * Calls the action with each key and its histogram, for example to export them. Does not block recorders or the
+     * creation of histograms: histograms created or evicted during the iteration may or may not be seen. The
+     * histograms are live, so an exporter that needs stable counts should take a snapshot() of each.
+     * The "other" histogram is not included, see getOther().
+     * @param action the action to call
+     */
+    public void forEach(BiConsumer<? super K, ? super ConcurrentRangeHistogram<T>> action) {
+        histograms.forEach((key, entry) -> action.accept(key, entry.histogram));
+    }
+
+    /**
+     * @return the histogram that the counts of evicted histograms are folded into. Always empty unless the eviction
+     * policy folds.
+     */
+    public ConcurrentRangeHistogram<T> getOther() {
+        return other;
+    }
+
+    /**
+     * @return the current number of histograms, not counting the "other" histogram
+     */
+    public int size() {
+        return histograms.size();
+    }
+
+    public int getMaxHistograms() {
+        return maxHistograms;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of histograms evicted so far
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+}
@@ -17,19 +17,91 @@
 
 package com.moscona.math.statistics;
 
+import com.moscona.exceptions.InvalidArgumentException;
+
 import java.util.List;
 
 /**
  * Immutable representation of a RangeHistogram
  * Created by Arnon Moscona on 11/21/2014.
+ * <p>
+ * Histograms are equal when they have equal bins with equal counts, that is when their getBins() lists are equal,
+ * regardless of the implementation; and their hash code is the hash code of that list. Counts of values outside of
+ * all bins are not part of the comparison.
  */
 public interface ImmutableRangeHistogram<T extends Comparable<T>> {
+    /**
+     * Copies the bins and counts of a histogram into an immutable histogram that answers quantile and cumulative count
+     * queries in O(log n), after building an index of cumulative counts on the first query.
+     * The default query methods of this interface take a pass over getBins() on every call, so implementations should
+     * override them (all the histograms of this package do). To run many queries on a histogram of an implementation
+     * that does not, run them on a snapshot.
+     * @param histogram the histogram to copy
+     * @return an immutable copy of the histogram
+     */
+    static <T extends Comparable<T>> ImmutableRangeHistogram<T> snapshotOf(ImmutableRangeHistogram<T> histogram) {
+        return new FrozenRangeHistogram<>(histogram.getBins());
+    }
+
     List<Bin<T>> getBins();
 
     Bin<T> findBin(T value);
 
     boolean contains(T value);
 
-    // FIXME equals
-    // FIXME hash
+    /**
+     * Estimates the value at a quantile of the counts in the bins (values outside of all bins are not included).
+     * Within a numeric bin the counts are assumed to be uniformly distributed, so the result is interpolated between
+     * the boundaries of the bin (and rounded to a whole value for integral bins). For non-numeric bins the upper
+     * boundary of the bin is returned.
+     * @param quantile the quantile, between 0 and 1. For example 0.99 for the 99th percentile.
+     * @return the estimated value, or null if all bins are empty
+     * @throws InvalidArgumentException if the quantile is not between 0 and 1
+     */
+    default T valueAtQuantile(double quantile) throws InvalidArgumentException {
+        return snapshotOf(this).valueAtQuantile(quantile);
+    }
+
+    /**
+     * Estimates the number of values in the bins that are smaller than the given value.
+     * Bins entirely below the value are counted in full. A numeric bin containing the value is counted in proportion
+     * to the part of it below the value, and a non-numeric bin containing it is not counted.
+     * @param value the value to compare to
+     * @return the estimated count, rounded to the nearest whole number
+     */
+    default long countBelow(T value) {
+        return snapshotOf(this).countBelow(value);
+    }
+
+    /**
+     * Estimates the number of values in the bins that are at least low and smaller than high, with the same
+     * estimation rules as countBelow()
+     * @param low the lower end of the range, inclusive
+     * @param high the upper end of the range, exclusive
+     * @return the estimated count, rounded to the nearest whole number, or 0 if high is not larger than low
+     */
+    default long countBetween(T low, T high) {
+        return snapshotOf(this).countBetween(low, high);
+    }
+
+    /**
+     * Estimates the quantile of a value: the fraction of the counts in the bins that are below it, with the same
+     * estimation rules as countBelow()
+     * @param value the value
+     * @return the quantile, between 0 and 1, or NaN if all bins are empty
+     */
+    default double quantileOf(T value) {
+        return snapshotOf(this).quantileOf(value);
+    }
+
+    /**
+     * Gets the exact summary statistics of the numeric values recorded into the histogram, kept as they are recorded,
+     * so getting them does not take a pass over the data. All recorded values are included, also those outside of
+     * all bins, except NaN. Values that got into the histogram without being recorded, such as counts copied from
+     * the bins of another histogram, are not.
+     * @return a copy of the summary, or null if the histogram does not keep one
+     */
+    default SummaryStatistics getSummaryStatistics() {
+        return null;
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+/**
+ * A layout of equal width adjacent bins covering a range
+ */
+public class LinearDoubleBinLayout extends ArithmeticDoubleBinLayout {
+    private final double from;
+    private final double to;
+    private final double width;
+
+    /**
+     * @param from the lower bound of the first bin
+     * @param to the upper bound of the last bin
+     * @param numberOfBins the number of bins to divide the range to
+     * @throws InvalidArgumentException if the range is empty or not finite, or the number of bins is not positive
+     */
+    public LinearDoubleBinLayout(double from, double to, int numberOfBins) throws InvalidArgumentException {
+        super(numberOfBins);
+        if (Double.isNaN(from) || Double.isInfinite(from) || Double.isNaN(to) || Double.isInfinite(to)) {
+            throw new InvalidArgumentException("the range must be finite");
+        }
+        if (from >= to) {
+            throw new InvalidArgumentException("from must be smaller than to");
+        }
+        if (numberOfBins < 1) {
+            throw new InvalidArgumentException("there must be at least one bin");
+        }
+        this.from = from;
+        this.to = to;
+        this.width = (to - from) / numberOfBins;
+    }
+
+    public double getFrom() {
+        return from;
+    }
+
+    public double getTo() {
+        return to;
+    }
+
+    @Override
+    double boundary(int k) {
+        return k == getNumberOfBins() ? to : from + k * width;
+    }
+
+    @Override
+    int estimateIndex(double value) {
+        return (int) ((value - from) / width);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        LinearDoubleBinLayout that = (LinearDoubleBinLayout) o;
+        return Double.compare(from, that.from) == 0 && Double.compare(to, that.to) == 0 &&
+                getNumberOfBins() == that.getNumberOfBins();
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(from);
+        result = 31 * result + Double.hashCode(to);
+        result = 31 * result + getNumberOfBins();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LinearDoubleBinLayout{" +
+                "from=" + from +
+                ", to=" + to +
+                ", numberOfBins=" + getNumberOfBins() +
+                '}';
+    }
+}
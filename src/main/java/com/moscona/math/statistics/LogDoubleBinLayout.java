@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+/**
+ * A layout of adjacent bins whose widths grow exponentially: [lowest, lowest * base], [lowest * base, lowest * base^2],
+ * and so on.
+ */
+public class LogDoubleBinLayout extends ArithmeticDoubleBinLayout {
+    private final double lowest;
+    private final double base;
+    private final double logBase;
+
+    /**
+     * @param lowest the lower bound of the first bin. Must be positive.
+     * @param base the ratio between the bounds of each bin. Must be larger than 1.
+     * @param numberOfBins the number of bins
+     * @throws InvalidArgumentException if any of the arguments is out of range
+     */
+    public LogDoubleBinLayout(double lowest, double base, int numberOfBins) throws InvalidArgumentException {
+        super(numberOfBins);
+        if (!(lowest > 0) || Double.isInfinite(lowest)) {
+            throw new InvalidArgumentException("lowest must be positive and finite");
+        }
+        if (!(base > 1) || Double.isInfinite(base)) {
+            throw new InvalidArgumentException("base must be larger than 1 and finite");
+        }
+        if (numberOfBins < 1) {
+            throw new InvalidArgumentException("there must be at least one bin");
+        }
+        if (Double.isInfinite(lowest * Math.pow(base, numberOfBins))) {
+            throw new InvalidArgumentException("too many bins: the upper bound of the last bin is not finite");
+        }
+        this.lowest = lowest;
+        this.base = base;
+        this.logBase = Math.log(base);
+    }
+
+    public double getLowest() {
+        return lowest;
+    }
+
+    public double getBase() {
+        return base;
+    }
+
+    @Override
+    double boundary(int k) {
+        return k == 0 ? lowest : lowest * Math.pow(base, k);
+    }
+
+    @Override
+    int estimateIndex(double value) {
+        return (int) (Math.log(value / lowest) / logBase);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        LogDoubleBinLayout that = (LogDoubleBinLayout) o;
+        return Double.compare(lowest, that.lowest) == 0 && Double.compare(base, that.base) == 0 &&
+                getNumberOfBins() == that.getNumberOfBins();
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(lowest);
+        result = 31 * result + Double.hashCode(base);
+        result = 31 * result + getNumberOfBins();
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LogDoubleBinLayout{" +
+                "lowest=" + lowest +
+                ", base=" + base +
+                ", numberOfBins=" + getNumberOfBins() +
+                '}';
+    }
+}
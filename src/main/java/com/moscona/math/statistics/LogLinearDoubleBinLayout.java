@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+/**
+ * A log-linear layout in the style of HdrHistogram, with bins that keep a fixed number of significant digits.
+ * The range [0, unit] is divided into equal width sub-bins. Above it, every power of two magnitude
+ * [unit * 2^q, unit * 2^(q+1)] is divided into the same number of equal width sub-bins, so above unit the width of a
+ * bin relative to the values in it never exceeds 10^-significantDigits.
+ * The index computation uses only the binary exponent of the value and a multiplication, with no logarithms.
+ */
+public class LogLinearDoubleBinLayout extends ArithmeticDoubleBinLayout {
+    private final double unit;
+    private final double highest;
+    private final int significantDigits;
+    private final int subBins; // a power of two, so the boundaries are exact
+
+    /**
+     * @param unit the upper bound of the linear range starting at zero. Must be positive.
+     * @param highest the highest value the layout must cover
+     * @param significantDigits the number of significant decimal digits to maintain, between 1 and 5
+     * @throws InvalidArgumentException if any of the arguments is out of range
+     */
+    public LogLinearDoubleBinLayout(double unit, double highest, int significantDigits) throws InvalidArgumentException {
+        super(numberOfBins(unit, highest, significantDigits));
+        this.unit = unit;
+        this.highest = highest;
+        this.significantDigits = significantDigits;
+        this.subBins = subBins(significantDigits);
+    }
+
+    private static int subBins(int significantDigits) {
+        int tenToTheDigits = (int) Math.pow(10, significantDigits);
+        return Integer.highestOneBit(tenToTheDigits - 1) << 1;
+    }
+
+    private static int numberOfBins(double unit, double highest, int significantDigits) throws InvalidArgumentException {
+        if (!(unit > 0) || Double.isInfinite(unit)) {
+            throw new InvalidArgumentException("unit must be positive and finite");
+        }
+        if (!(highest > unit) || Double.isInfinite(highest)) {
+            throw new InvalidArgumentException("highest must be larger than unit and finite");
+        }
+        if (significantDigits < 1 || significantDigits > 5) {
+            throw new InvalidArgumentException("significantDigits must be between 1 and 5");
+        }
+        int magnitudes = 0;
+        while (Math.scalb(unit, magnitudes) < highest) {
+            magnitudes++;
+        }
+        return (magnitudes + 1) * subBins(significantDigits);
+    }
+
+    public double getUnit() {
+        return unit;
+    }
+
+    public double getHighest() {
+        return highest;
+    }
+
+    public int getSignificantDigits() {
+        return significantDigits;
+    }
+
+    @Override
+    double boundary(int k) {
+        if (k < subBins) {
+            return unit * k / subBins;
+        }
+        int magnitude = k / subBins - 1;
+        int subBin = k % subBins;
+        return Math.scalb(unit, magnitude) * (1.0 + (double) subBin / subBins);
+    }
+
+    @Override
+    int estimateIndex(double value) {
+        double scaled = value / unit;
+        if (scaled < 1.0) {
+            return (int) (scaled * subBins);
+        }
+        int magnitude = Math.getExponent(scaled);
+        return (magnitude + 1) * subBins + (int) ((Math.scalb(scaled, -magnitude) - 1.0) * subBins);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        LogLinearDoubleBinLayout that = (LogLinearDoubleBinLayout) o;
+        return Double.compare(unit, that.unit) == 0 && Double.compare(highest, that.highest) == 0 &&
+                significantDigits == that.significantDigits;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(unit);
+        result = 31 * result + Double.hashCode(highest);
+        result = 31 * result + significantDigits;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LogLinearDoubleBinLayout{" +
+                "unit=" + unit +
+                ", highest=" + highest +
+                ", significantDigits=" + significantDigits +
+                '}';
+    }
+}
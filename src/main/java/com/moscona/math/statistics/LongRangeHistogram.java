@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collector;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A range histogram over long values, with primitive boundaries and counts.
+ * Bins follow the same rules as discreet bins in RangeHistogram: they are inclusive at both ends and mutually
+ * exclusive.
+ * Lookups and recording do not allocate. Not thread safe.
+ */
+public class LongRangeHistogram extends AbstractRangeHistogram<Long> {
+    private final long[] from;
+    private final long[] to;
+    private final BinCounts counts;
+    private final SummaryStatistics summary;
+
+    /**
+     * Creates an empty histogram with the given bins
+     * @param from the lower boundaries of the bins
+     * @param to the upper boundaries of the bins
+     * @throws InvalidArgumentException if the arrays are of different lengths, or a bin's from is larger than its to
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public LongRangeHistogram(long[] from, long[] to) throws InvalidArgumentException, InvalidStateException {
+        if (from.length != to.length) {
+            throw new InvalidArgumentException("from and to must be of the same length");
+        }
+        int size = from.length;
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            if (from[i] > to[i]) {
+                throw new InvalidArgumentException("from may not be larger than to.");
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> from[i]));
+
+        this.from = new long[size];
+        this.to = new long[size];
+        for (int i = 0; i < size; i++) {
+            this.from[i] = from[order[i]];
+            this.to[i] = to[order[i]];
+            if (i > 0 && this.from[i] <= this.to[i - 1]) {
+                throw new InvalidStateException("The bin '" + this.from[i] + "-" + this.to[i] +
+                        "' overlaps with the bin '" + this.from[i - 1] + "-" + this.to[i - 1] + "'");
+            }
+        }
+        counts = new BinCounts(size);
+        summary = new SummaryStatistics();
+    }
+
+    /**
+     * Creates a histogram directly from boundary arrays that are already sorted, checking them in a single pass.
+     * The arrays are used as they are, not copied.
+     */
+    static LongRangeHistogram ofSorted(long[] from, long[] to) throws InvalidArgumentException, InvalidStateException {
+        for (int i = 0; i < from.length; i++) {
+            if (from[i] > to[i]) {
+                throw new InvalidArgumentException("from may not be larger than to.");
+            }
+            if (i > 0 && from[i] <= to[i - 1]) {
+                throw new InvalidStateException("The bin '" + from[i] + "-" + to[i] +
+                        "' overlaps with the bin '" + from[i - 1] + "-" + to[i - 1] + "'");
+            }
+        }
+        return new LongRangeHistogram(from, to, from.length);
+    }
+
+    /**
+     * Creates an empty histogram sharing already validated boundaries
+     */
+    private LongRangeHistogram(long[] from, long[] to, int size) {
+        this(from, to, new BinCounts(size), new SummaryStatistics());
+    }
+
+    /**
+     * Creates a histogram sharing already validated boundaries, with counts and a summary that are used as they are
+     */
+    private LongRangeHistogram(long[] from, long[] to, BinCounts counts, SummaryStatistics summary) {
+        this.from = from;
+        this.to = to;
+        this.counts = counts;
+        this.summary = summary;
+    }
+
+    /**
+     * Creates an empty histogram of adjacent bins: [b0, b1 - 1], [b1, b2 - 1], ... [bn-1, bn - 1]
+     * @param boundaries the bin boundaries, in strictly ascending order
+     * @return a new histogram
+     * @throws InvalidArgumentException if the boundaries are not in ascending order
+     */
+    public static LongRangeHistogram contiguous(long... boundaries) throws InvalidArgumentException {
+        if (boundaries.length < 2) {
+            throw new InvalidArgumentException("at least two boundaries are required");
+        }
+        long[] to = new long[boundaries.length - 1];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = boundaries[i + 1] - 1;
+        }
+        try {
+            return new LongRangeHistogram(Arrays.copyOfRange(boundaries, 0, boundaries.length - 1), to);
+        }
+        catch (InvalidStateException e) {
+            throw new InvalidArgumentException("boundaries must be in ascending order", e);
+        }
+    }
+
+    /**
+     * Creates an empty histogram with the same bins as this one. The boundaries are shared, not copied, so the new
+     * histogram only takes memory for its counts.
+     * @return a new histogram
+     */
+    public LongRangeHistogram newEmptyHistogram() {
+        return new LongRangeHistogram(from, to, from.length);
+    }
+
+    /**
+     * Creates a primitive copy of a histogram of longs, including its counts and summary statistics, if it keeps them
+     * @param histogram the histogram to copy
+     * @return a new histogram
+     * @throws InvalidArgumentException if the histogram has invalid bins
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public static LongRangeHistogram copyOf(ImmutableRangeHistogram<Long> histogram) throws InvalidArgumentException, InvalidStateException {
+        List<Bin<Long>> bins = histogram.getBins();
+        long[] from = new long[bins.size()];
+        long[] to = new long[bins.size()];
+        for (int i = 0; i < from.length; i++) {
+            from[i] = bins.get(i).getFrom();
+            to[i] = bins.get(i).getTo();
+        }
+        LongRangeHistogram copy = new LongRangeHistogram(from, to);
+        for (int i = 0; i < from.length; i++) {
+            copy.counts.set(i, bins.get(i).getCount()); // the sort is stable, so the bins keep their order
+        }
+        SummaryStatistics summary = histogram.getSummaryStatistics();
+        if (summary != null) {
+            copy.summary.merge(summary);
+        }
+        return copy;
+    }
+
+    /**
+     * Finds the index of the bin containing the value.
+     * @param value the value to look up
+     * @return the index of the bin containing the value, or (-(insertion point) - 1) if no bin contains it, as in
+     * {@link Arrays#binarySearch(long[], long)}. An insertion point of 0 means the value is below all bins, an
+     * insertion point of getNumberOfBins() means it is above all bins, and anything else means it fell in a gap.
+     */
+    public int findBinIndex(long value) {
+        // find the last bin whose from is <= value
+        int low = 0;
+        int high = from.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (value < from[mid]) {
+                high = mid - 1;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        int index = high;
+        if (index < 0) {
+            return -1;
+        }
+        return value <= to[index] ? index : -(index + 1) - 1;
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value
+     * @param value the value to record
+     */
+    public void record(long value) {
+        counts.add(findBinIndex(value), 1);
+        summary.add(value, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(long value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        counts.add(findBinIndex(value), weight);
+        summary.add(value, weight);
+    }
+
+    /**
+     * Records each of the values with a weight of one
+     * @param values the values to record
+     */
+    public void recordAll(long[] values) {
+        for (long value: values) {
+            counts.add(findBinIndex(value), 1);
+            summary.add(value, 1);
+        }
+    }
+
+    /**
+     * Records each of the values in the stream with a weight of one.
+     * If the stream is parallel, the values are counted in parallel, each fork/join task into its own count array
+     * and summary, and these are merged when the stream is exhausted. The result is the same as recording the values
+     * one by one (up to rounding in the summary). This histogram is only updated once the stream is exhausted, on the
+     * calling thread.
+     * @param values the values to record
+     */
+    public void recordAll(LongStream values) {
+        addAccumulator(accumulate(values));
+    }
+
+    /**
+     * Records the values in parallel in a given fork/join pool
+     * @param values the values to record
+     * @param pool the pool to use for counting
+     * @see #recordAll(LongStream)
+     */
+    public void recordAll(long[] values, ForkJoinPool pool) {
+        recordAll(Spliterators.spliterator(values, Spliterator.IMMUTABLE), pool);
+    }
+
+    /**
+     * Records the values in parallel in a given fork/join pool. The values are split as far as the spliterator
+     * allows.
+     * @param values the values to record
+     * @param pool the pool to use for counting
+     * @see #recordAll(LongStream)
+     */
+    public void recordAll(Spliterator.OfLong values, ForkJoinPool pool) {
+        // a parallel stream started from within a fork/join task runs its tasks in that task's pool
+        addAccumulator(pool.submit(() -> accumulate(StreamSupport.longStream(values, true))).join());
+    }
+
+    private BinCounts.Accumulator accumulate(LongStream values) {
+        return values.collect(() -> new BinCounts.Accumulator(counts),
+                (accumulator, value) -> accumulator.accumulate(findBinIndex(value), value),
+                BinCounts.Accumulator::combine);
+    }
+
+    private void addAccumulator(BinCounts.Accumulator accumulator) {
+        counts.addAccumulator(accumulator.counts);
+        summary.merge(accumulator.summary);
+    }
+
+    /**
+     * Copies the counts and summary statistics in a single pass, sharing the bins
+     * @return an independent copy of this histogram
+     */
+    public LongRangeHistogram snapshot() {
+        return new LongRangeHistogram(from, to, counts.copy(), new SummaryStatistics(summary));
+    }
+
+    /**
+     * Takes the counts and summary statistics recorded so far and starts this histogram over, empty. The counts are
+     * moved to the returned histogram, not copied, so taking an interval's histogram this way costs about as much as
+     * creating an empty one.
+     * @return a histogram with the counts and summary statistics this one had, sharing its bins
+     */
+    public LongRangeHistogram snapshotAndReset() {
+        LongRangeHistogram taken = new LongRangeHistogram(from, to, counts.takeAll(), new SummaryStatistics(summary));
+        summary.clear();
+        return taken;
+    }
+
+    /**
+     * Computes what was recorded between an earlier snapshot of this histogram and now, in a single pass over the
+     * counts. The summary statistics of the difference are computed as SummaryStatistics.minus() does.
+     * @param earlier an earlier snapshot of this histogram (or of a histogram with the same bins)
+     * @return a new histogram with the differences of the counts, sharing the bins of this one
+     * @throws InvalidArgumentException if the bins are not the same, or any count of the earlier histogram is larger
+     * than the count here, so it cannot be an earlier snapshot
+     */
+    public LongRangeHistogram minus(LongRangeHistogram earlier) throws InvalidArgumentException {
+        if (!hasSameBins(earlier)) {
+            throw new InvalidArgumentException("cannot subtract a histogram with different bins");
+        }
+        BinCounts delta = counts.minus(earlier.counts);
+        if (delta == null) {
+            throw new InvalidArgumentException("not an earlier snapshot: some of its counts are larger");
+        }
+        return new LongRangeHistogram(from, to, delta, summary.minus(earlier.summary));
+    }
+
+    /**
+     * Adds the counts of another histogram with the same bins, in a single pass over the counts
+     * @param other the histogram to add
+     * @return this histogram
+     * @throws InvalidArgumentException if the bins are not the same
+     */
+    public LongRangeHistogram add(LongRangeHistogram other) throws InvalidArgumentException {
+        if (!hasSameBins(other)) {
+            throw new InvalidArgumentException("cannot add a histogram with different bins");
+        }
+        counts.addAll(other.counts);
+        summary.merge(other.summary);
+        return this;
+    }
+
+    /**
+     * Adds the counts of a histogram with any bins. The count of each of its bins is spread over the bins of this
+     * histogram in proportion to how many of its values they contain, as if the values in the bin were uniformly
+     * distributed. Values that fall outside of all the bins of this histogram are counted as underflow, gap or
+     * overflow. Out of range counts of the other histogram are added as they are.
+     * With the same bins this is the same as add().
+     * @param other the histogram to add
+     * @return this histogram
+     */
+    public LongRangeHistogram addRedistributed(LongRangeHistogram other) {
+        if (hasSameBins(other)) {
+            counts.addAll(other.counts);
+            summary.merge(other.summary);
+            return this;
+        }
+        // a discreet bin [a, b] holds the same values as the continuous extent [a, b + 1)
+        int size = getNumberOfBins();
+        double[] lower = new double[size];
+        double[] upper = new double[size];
+        for (int i = 0; i < size; i++) {
+            lower[i] = from[i];
+            upper[i] = to[i] + 1.0;
+        }
+        Redistribution redistribution = new Redistribution(lower, upper);
+        for (int i = 0; i < other.getNumberOfBins(); i++) {
+            long count = other.getCount(i);
+            if (count == 0) {
+                continue;
+            }
+            if (other.from[i] == other.to[i]) {
+                counts.add(findBinIndex(other.from[i]), count);
+            }
+            else {
+                redistribution.distribute(count, other.from[i], other.to[i] + 1.0, counts);
+            }
+        }
+        counts.addOutOfRange(other.counts);
+        summary.merge(other.summary);
+        return this;
+    }
+
+    /**
+     * A collector that merges histograms into a new histogram with the given bins, using addRedistributed().
+     * Histograms with the same bins are merged exactly, in a single pass over their counts. Can be used to reduce
+     * many histograms with a parallel stream.
+     * @param layout a histogram with the bins of the merged histogram
+     * @return a collector of histograms
+     */
+    public static Collector<LongRangeHistogram, ?, LongRangeHistogram> merging(LongRangeHistogram layout) {
+        return Collector.of(layout::newEmptyHistogram,
+                LongRangeHistogram::addRedistributed,
+                LongRangeHistogram::addRedistributed,
+                Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    private boolean hasSameBins(LongRangeHistogram other) {
+        return (from == other.from && to == other.to) || (Arrays.equals(from, other.from) && Arrays.equals(to, other.to));
+    }
+
+    @Override
+    boolean hasSameBins(AbstractRangeHistogram<?> other) {
+        if (other instanceof LongRangeHistogram) {
+            return hasSameBins((LongRangeHistogram) other);
+        }
+        return super.hasSameBins(other);
+    }
+
+    BinCounts getCounts() {
+        return counts;
+    }
+
+    SummaryStatistics getSummary() {
+        return summary;
+    }
+
+    @Override
+    public SummaryStatistics getSummaryStatistics() {
+        return new SummaryStatistics(summary);
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return from.length;
+    }
+
+    @Override
+    public long getCount(int index) {
+        return counts.get(index);
+    }
+
+    public long getLowerBound(int index) {
+        return from[index];
+    }
+
+    public long getUpperBound(int index) {
+        return to[index];
+    }
+
+    /**
+     * @return the sum of the counts of all bins
+     */
+    public long getTotalCount() {
+        return counts.getTotal();
+    }
+
+    /**
+     * @return the total weight recorded for values below all bins
+     */
+    public long getUnderflowCount() {
+        return counts.getUnderflow();
+    }
+
+    /**
+     * @return the total weight recorded for values above all bins
+     */
+    public long getOverflowCount() {
+        return counts.getOverflow();
+    }
+
+    /**
+     * @return the total weight recorded for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        return counts.getGap();
+    }
+
+    @Override
+    Long getBinFrom(int index) {
+        return from[index];
+    }
+
+    @Override
+    Long getBinTo(int index) {
+        return to[index];
+    }
+
+    @Override
+    int indexOf(Long value) {
+        return findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return counts.getVersion();
+    }
+
+    @Override
+    Object getLayoutKey() {
+        return from;
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A histogram over double values whose boundaries and counts live outside of the Java heap, in a memory mapped file
+ * or a direct buffer.
+ * With a file, the counts survive process restarts and can be read by other processes mapping the same file.
+ * <p>
+ * The file starts with a header (magic number, format version and number of bins), followed by the underflow, gap
+ * and overflow counts, the lower and upper bounds of the bins and finally the bin counts. All values are big endian.
+ * <p>
+ * Only the boundaries of a layout are kept, so values are compared with them exactly, whatever the granularity of the
+ * layout.
+ * <p>
+ * Only counts are kept in the buffer, so there are no summary statistics: getSummaryStatistics() returns null.
+ * <p>
+ * Recording is thread safe. Each count is updated under one of a set of striped locks, so recorders of different
+ * bins rarely contend. Other processes may read the file at any time, but only one process may record into it.
+ */
+public class MappedDoubleRangeHistogram extends AbstractRangeHistogram<Double> {
+    private static final int MAGIC = 0x4d485354; // "MHST"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int UNDERFLOW = HEADER_SIZE;
+    private static final int GAP = HEADER_SIZE + 8;
+    private static final int OVERFLOW = HEADER_SIZE + 16;
+    private static final int BOUNDARIES = HEADER_SIZE + 24;
+    private static final int LOCK_STRIPES = 64; // a power of two
+
+    private final ByteBuffer buffer;
+    private final int numberOfBins;
+    private final int countsOffset;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final Object layoutKey = new Object(); // the bins of a buffer never change, but equals() follows the counts
+
+    private MappedDoubleRangeHistogram(ByteBuffer buffer) {
+        this.buffer = buffer;
+        numberOfBins = buffer.getInt(8);
+        countsOffset = BOUNDARIES + 16 * numberOfBins;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Creates a new histogram file with the bins of the layout and zero counts. An existing file is overwritten.
+     * @param file the file to create
+     * @param layout the bins of the histogram
+     * @return a histogram backed by the file
+     * @throws IOException if the file cannot be created or mapped
+     * @throws InvalidArgumentException if the layout has too many bins for one buffer
+     */
+    public static MappedDoubleRangeHistogram create(Path file, DoubleBinLayout layout) throws IOException, InvalidArgumentException {
+        int size = sizeOf(layout); // fail before the file is truncated
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            initialize(buffer, layout);
+            return new MappedDoubleRangeHistogram(buffer);
+        }
+    }
+
+    /**
+     * Opens an existing histogram file, with the counts accumulated so far
+     * @param file the file to open
+     * @return a histogram backed by the file
+     * @throws IOException if the file cannot be opened or mapped
+     * @throws InvalidArgumentException if the file is not a histogram file
+     */
+    public static MappedDoubleRangeHistogram open(Path file) throws IOException, InvalidArgumentException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < BOUNDARIES) {
+                throw new InvalidArgumentException("not a histogram file: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new InvalidArgumentException("not a histogram file, or an unsupported version: " + file);
+            }
+            int numberOfBins = buffer.getInt(8);
+            if (numberOfBins < 0 || size != BOUNDARIES + 24L * numberOfBins) {
+                throw new InvalidArgumentException("corrupt histogram file: " + file);
+            }
+            MappedDoubleRangeHistogram histogram = new MappedDoubleRangeHistogram(buffer);
+            for (int i = 0; i < numberOfBins; i++) {
+                double from = histogram.lowerBound(i);
+                if (!(from <= histogram.upperBound(i)) || (i > 0 && from < histogram.upperBound(i - 1))) {
+                    throw new InvalidArgumentException("corrupt histogram file: bad boundaries for bin " + i + " in " + file);
+                }
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Creates a histogram in a direct buffer, outside of the heap but not backed by a file
+     * @param layout the bins of the histogram
+     * @return a new histogram
+     * @throws InvalidArgumentException if the layout has too many bins for one buffer
+     */
+    public static MappedDoubleRangeHistogram allocateDirect(DoubleBinLayout layout) throws InvalidArgumentException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(sizeOf(layout));
+        initialize(buffer, layout);
+        return new MappedDoubleRangeHistogram(buffer);
+    }
+
+    private static int sizeOf(DoubleBinLayout layout) throws InvalidArgumentException {
+        long size = BOUNDARIES + 24L * layout.getNumberOfBins();
+        if (size > Integer.MAX_VALUE) {
+            throw new InvalidArgumentException("too many bins for one buffer: " + layout.getNumberOfBins());
+        }
+        return (int) size;
+    }
+
+    private static void initialize(ByteBuffer buffer, DoubleBinLayout layout) {
+        int numberOfBins = layout.getNumberOfBins();
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, numberOfBins);
+        buffer.putInt(12, 0);
+        for (int i = 0; i < numberOfBins; i++) {
+            buffer.putDouble(BOUNDARIES + 8 * i, layout.getLowerBound(i));
+            buffer.putDouble(BOUNDARIES + 8 * (numberOfBins + i), layout.getUpperBound(i));
+        }
+        for (int offset = UNDERFLOW; offset < GAP + 16; offset += 8) {
+            buffer.putLong(offset, 0);
+        }
+        for (int i = 0; i < numberOfBins; i++) {
+            buffer.putLong(BOUNDARIES + 16 * numberOfBins + 8 * i, 0);
+        }
+    }
+
+    /**
+     * Finds the index of the bin containing the value, with the same rules as ExplicitDoubleBinLayout
+     * @param value the value to look up
+     * @return the index of the bin containing the value, or a negative value if no bin contains it
+     * @see DoubleBinLayout#findBinIndex(double)
+     */
+    public int findBinIndex(double value) {
+        if (value != value) { // NaN
+            return -numberOfBins - 1;
+        }
+        int low = 0;
+        int high = numberOfBins - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (value < lowerBound(mid)) {
+                high = mid - 1;
+            }
+            else {
+                low = mid + 1;
+            }
+        }
+        int index = high;
+        if (index < 0) {
+            return -1;
+        }
+        while (index > 0 && value <= upperBound(index - 1)) {
+            index--;
+        }
+        return value <= upperBound(index) ? index : -(index + 1) - 1;
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value. Safe to call from any thread.
+     * @param value the value to record
+     */
+    public void record(double value) {
+        add(findBinIndex(value), 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value. Safe to call from any thread.
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(double value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        add(findBinIndex(value), weight);
+    }
+
+    private void add(int lookupResult, long weight) {
+        int offset = offsetOf(lookupResult);
+        synchronized (locks[(offset >>> 3) & (LOCK_STRIPES - 1)]) {
+            buffer.putLong(offset, buffer.getLong(offset) + weight);
+        }
+    }
+
+    private long read(int offset) {
+        synchronized (locks[(offset >>> 3) & (LOCK_STRIPES - 1)]) {
+            return buffer.getLong(offset);
+        }
+    }
+
+    private int offsetOf(int lookupResult) {
+        if (lookupResult >= 0) {
+            return countsOffset + 8 * lookupResult;
+        }
+        int insertionPoint = -lookupResult - 1;
+        if (insertionPoint == 0) {
+            return UNDERFLOW;
+        }
+        return insertionPoint >= numberOfBins ? OVERFLOW : GAP;
+    }
+
+    /**
+     * Writes any changes to the underlying file to the storage device. Does nothing for direct buffers.
+     */
+    public void force() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Copies the histogram to the heap
+     * @return a new histogram with the same bins and counts
+     */
+    public DoubleRangeHistogram toHeapHistogram() {
+        double[] from = new double[numberOfBins];
+        double[] to = new double[numberOfBins];
+        for (int i = 0; i < numberOfBins; i++) {
+            from[i] = lowerBound(i);
+            to[i] = upperBound(i);
+        }
+        DoubleRangeHistogram copy;
+        try {
+            copy = new DoubleRangeHistogram(ExplicitDoubleBinLayout.ofSorted(from, to));
+        }
+        catch (InvalidArgumentException | InvalidStateException e) {
+            // cannot happen: the boundaries were validated when the buffer was created or opened
+            throw new IllegalStateException("corrupt histogram boundaries", e);
+        }
+        BinCounts counts = copy.getCounts();
+        for (int i = 0; i < numberOfBins; i++) {
+            counts.set(i, getCount(i));
+        }
+        counts.setOutOfRange(getUnderflowCount(), getGapCount(), getOverflowCount());
+        return copy;
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return numberOfBins;
+    }
+
+    @Override
+    public long getCount(int index) {
+        if (index < 0 || index >= numberOfBins) {
+            throw new IndexOutOfBoundsException("no bin " + index);
+        }
+        return read(countsOffset + 8 * index);
+    }
+
+    public double getLowerBound(int index) {
+        return lowerBound(index);
+    }
+
+    public double getUpperBound(int index) {
+        return upperBound(index);
+    }
+
+    /**
+     * @return the sum of the counts of all bins
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < numberOfBins; i++) {
+            total += getCount(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the total weight recorded for values below all bins
+     */
+    public long getUnderflowCount() {
+        return read(UNDERFLOW);
+    }
+
+    /**
+     * @return the total weight recorded for values above all bins (including NaN)
+     */
+    public long getOverflowCount() {
+        return read(OVERFLOW);
+    }
+
+    /**
+     * @return the total weight recorded for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        return read(GAP);
+    }
+
+    private double lowerBound(int index) {
+        return buffer.getDouble(BOUNDARIES + 8 * index);
+    }
+
+    private double upperBound(int index) {
+        return buffer.getDouble(BOUNDARIES + 8 * (numberOfBins + index));
+    }
+
+    @Override
+    Double getBinFrom(int index) {
+        return lowerBound(index);
+    }
+
+    @Override
+    Double getBinTo(int index) {
+        return upperBound(index);
+    }
+
+    @Override
+    int indexOf(Double value) {
+        return findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return VOLATILE_COUNTS; // may be recorded into from other threads or processes
+    }
+
+    @Override
+    Object getLayoutKey() {
+        return layoutKey;
+    }
+}
@@ -21,69 +21,510 @@ import com.moscona.exceptions.InvalidArgumentException;
 import com.moscona.exceptions.InvalidStateException;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collector;
 
 /**
  * Created: 5/17/11 3:55 PM
  * By: Arnon Moscona
  * A simple representation of a histogram
+ * The bins are kept as a shared, interned BinLayout plus an array of counts, so histograms with the same bins only
+ * pay for their counts. Numeric values are also summarized as they are recorded (see getSummaryStatistics()).
  */
-public class RangeHistogram<T extends Comparable<T>> implements ImmutableRangeHistogram<T> {
-    private ArrayList<Bin<T>> bins;
+public class RangeHistogram<T extends Comparable<T>> extends AbstractRangeHistogram<T> {
+    private BinLayout<T> layout; // null while bins added by addBin() are pending
+    private ArrayList<Bin<T>> pendingBins = null; // the sorted bins, with zero counts, while the layout is pending
+    private Granularity pendingGranularity;
+    private long[] counts;
+    private long underflowCount = 0;
+    private long overflowCount = 0;
+    private long gapCount = 0;
+    private long countsVersion = 0; // incremented whenever the bins or their counts change
+    private final SummaryStatistics summary;
 
     public RangeHistogram() {
-        bins = new ArrayList<>();
+        this(Granularity.EXACT);
     }
 
-    @Override
-    public List<Bin<T>> getBins() {
-        return Collections.unmodifiableList(bins);
+    /**
+     * Creates an empty histogram whose real bins are compared at the given granularity
+     * @param granularity the granularity of real bins
+     */
+    public RangeHistogram(Granularity granularity) {
+        layout = BinLayout.empty(granularity);
+        counts = new long[0];
+        summary = new SummaryStatistics();
     }
 
-    @Override
-    public Bin<T> findBin(T value) {
-        for (Bin<T> bin: bins) {
-            if (bin.contains(value)) {
-                return bin;
-            }
+    /**
+     * Creates an empty histogram with the bins of a layout. The layout is shared, not copied.
+     * @param layout the bins of the histogram
+     */
+    public RangeHistogram(BinLayout<T> layout) {
+        this.layout = layout;
+        counts = new long[layout.getNumberOfBins()];
+        summary = new SummaryStatistics();
+    }
+
+    /**
+     * Creates a histogram from bins that are already sorted and validated, such as the bins of another histogram
+     */
+    RangeHistogram(List<Bin<T>> sortedBins, long underflowCount, long overflowCount, long gapCount) {
+        setBins(sortedBins, sortedBins.isEmpty() ? Granularity.EXACT : sortedBins.get(0).getGranularity());
+        this.underflowCount = underflowCount;
+        this.overflowCount = overflowCount;
+        this.gapCount = gapCount;
+        summary = new SummaryStatistics();
+    }
+
+    /**
+     * Creates a histogram with a layout, counts and summary, which are used as they are, not copied
+     */
+    RangeHistogram(BinLayout<T> layout, long[] counts, long underflowCount, long overflowCount, long gapCount,
+                   SummaryStatistics summary) {
+        this.layout = layout;
+        this.counts = counts;
+        this.underflowCount = underflowCount;
+        this.overflowCount = overflowCount;
+        this.gapCount = gapCount;
+        this.summary = summary;
+    }
+
+    private void setBins(List<Bin<T>> sortedBins, Granularity granularity) {
+        layout = BinLayout.ofSorted(sortedBins, granularity);
+        pendingBins = null;
+        counts = new long[sortedBins.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = sortedBins.get(i).getCount();
         }
-        return null;
+        countsVersion++;
     }
 
-    @Override
-    public boolean contains(T value) {
-        return findBin(value) != null;
+    /**
+     * @return the bins of this histogram, without counts
+     */
+    public BinLayout<T> getLayout() {
+        return layout();
     }
 
-    public RangeHistogram<T> addBin(T from, T to, int count) throws InvalidArgumentException, InvalidStateException {
-        bins.add(new Bin<T>(from,to,count));
-        Collections.sort(bins);
-        validate();
-        return this;
+    /**
+     * @return the layout, interning the bins added by addBin() the first time it is needed after adding them
+     */
+    private BinLayout<T> layout() {
+        BinLayout<T> current = layout;
+        if (current == null) {
+            current = BinLayout.ofSorted(pendingBins, pendingGranularity);
+            layout = current;
+            pendingBins = null;
+        }
+        return current;
+    }
+
+    /**
+     * Checks whether a value falls between two bins, as opposed to being below or above all of them.
+     * @param value the value to check
+     * @return true if no bin contains the value, but there are bins both below and above it
+     */
+    public boolean isInGap(T value) {
+        return layout().isInGap(value);
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value.
+     * Values that are not in any bin are counted as underflow, overflow or gap counts.
+     * @param value the value to record
+     */
+    public void record(T value) {
+        add(layout().findBinIndex(value), 1);
+        summarize(value, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value.
+     * Values that are not in any bin are counted as underflow, overflow or gap counts.
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(T value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        add(layout().findBinIndex(value), weight);
+        summarize(value, weight);
+    }
+
+    /**
+     * Records each of the values with a weight of one
+     * @param values the values to record
+     */
+    public void recordAll(Iterable<? extends T> values) {
+        for (T value: values) {
+            add(layout().findBinIndex(value), 1);
+            summarize(value, 1);
+        }
+    }
+
+    /**
+     * Records each of the values with a weight of one
+     * @param values the values to record
+     */
+    public void recordAll(T[] values) {
+        for (T value: values) {
+            add(layout().findBinIndex(value), 1);
+            summarize(value, 1);
+        }
+    }
+
+    private void summarize(T value, long weight) {
+        if (value instanceof Number) {
+            summary.add(((Number) value).doubleValue(), weight);
+        }
+    }
+
+    private void add(int lookupResult, long weight) {
+        countsVersion++;
+        if (lookupResult >= 0) {
+            counts[lookupResult] += weight;
+            return;
+        }
+        int insertionPoint = -lookupResult - 1;
+        if (insertionPoint == 0) {
+            underflowCount += weight;
+        }
+        else if (insertionPoint >= counts.length) {
+            overflowCount += weight;
+        }
+        else {
+            gapCount += weight;
+        }
+    }
+
+    /**
+     * Copies the counts and summary statistics in a single pass, sharing the bins
+     * @return an independent copy of this histogram
+     */
+    public RangeHistogram<T> snapshot() {
+        return new RangeHistogram<>(layout(), counts.clone(), underflowCount, overflowCount, gapCount,
+                new SummaryStatistics(summary));
+    }
+
+    /**
+     * Takes the counts and summary statistics recorded so far and starts this histogram over, with the same bins and
+     * zero counts. The counts are moved to the returned histogram, not copied.
+     * @return a histogram with the counts and summary statistics this one had, sharing its bins
+     */
+    public RangeHistogram<T> snapshotAndReset() {
+        RangeHistogram<T> taken = new RangeHistogram<>(layout(), counts, underflowCount, overflowCount, gapCount,
+                new SummaryStatistics(summary));
+        counts = new long[counts.length];
+        underflowCount = 0;
+        overflowCount = 0;
+        gapCount = 0;
+        summary.clear();
+        countsVersion++;
+        return taken;
     }
 
-    private void validate() throws InvalidStateException {
-        Bin<T> previous = null;
-        for (Bin<T> bin: bins) {
-            if (previous != null) {
-                String separator = "-";
-                if (bin.isReal()) {
-                    // allow equality at the boundaries
-                    if (bin.getFrom().compareTo(previous.getTo()) < 0) {
-                        // this comparison is sufficient as the bins are already sorted at this point
-                        throw new InvalidStateException("The bin '"+bin.getBinLabel(separator)+" overlaps with the bin "+previous.getBinLabel(separator));
+    /**
+     * Computes what was recorded between an earlier snapshot of this histogram and now, in a single pass over the
+     * counts. The summary statistics of the difference are computed as SummaryStatistics.minus() does.
+     * @param earlier an earlier snapshot of this histogram (or of a histogram with the same bins)
+     * @return a new histogram with the differences of the counts, sharing the bins of this one
+     * @throws InvalidArgumentException if the bins are not the same, or any count of the earlier histogram is larger
+     * than the count here, so it cannot be an earlier snapshot
+     */
+    public RangeHistogram<T> minus(RangeHistogram<T> earlier) throws InvalidArgumentException {
+        if (earlier.layout() != layout() && !earlier.layout().equals(layout())) {
+            throw new InvalidArgumentException("cannot subtract a histogram with different bins");
+        }
+        long[] delta = new long[counts.length];
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = counts[i] - earlier.counts[i];
+            if (delta[i] < 0) {
+                throw new InvalidArgumentException("not an earlier snapshot: the count of bin " + i + " is larger");
+            }
+        }
+        if (earlier.underflowCount > underflowCount || earlier.overflowCount > overflowCount ||
+                earlier.gapCount > gapCount) {
+            throw new InvalidArgumentException("not an earlier snapshot: its out of range counts are larger");
+        }
+        return new RangeHistogram<>(layout(), delta, underflowCount - earlier.underflowCount,
+                overflowCount - earlier.overflowCount, gapCount - earlier.gapCount, summary.minus(earlier.summary));
+    }
+
+    /**
+     * Adds the counts of another histogram to this one.
+     * If the other histogram has the same bins the counts are added bin by bin (for another RangeHistogram with the
+     * same layout without comparing any bins). Otherwise every non-empty bin of the other histogram must be contained
+     * in a single bin of this one (for example when this histogram has coarser bins), and its count is added to that
+     * bin. The out of range counts of another RangeHistogram are added as well, and so is the summary of the other
+     * histogram, if it keeps one.
+     * @param other the histogram to add
+     * @return this histogram
+     * @throws InvalidStateException if a non-empty bin of the other histogram is not contained in a single bin of this
+     * histogram. In this case this histogram is left unchanged.
+     */
+    public RangeHistogram<T> add(ImmutableRangeHistogram<T> other) throws InvalidStateException {
+        if (other instanceof RangeHistogram && ((RangeHistogram<T>) other).layout() == layout()) {
+            long[] otherCounts = ((RangeHistogram<T>) other).counts;
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += otherCounts[i];
+            }
+        }
+        else {
+            List<Bin<T>> otherBins = other.getBins();
+            if (hasSameBoundaries(otherBins)) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += otherBins.get(i).getCount();
+                }
+            }
+            else {
+                // the bin containing the upper boundary, as touching real bins resolve a shared boundary to the lower one
+                Granularity granularity = getGranularity();
+                int[] targets = new int[otherBins.size()];
+                for (int i = 0; i < targets.length; i++) {
+                    Bin<T> bin = otherBins.get(i);
+                    targets[i] = layout().findBinIndex(bin.getTo());
+                    if (bin.getCount() != 0 && (targets[i] < 0 ||
+                            Bin.compare(bin.getFrom(), layout().getFrom(targets[i]), granularity) < 0)) {
+                        throw new InvalidStateException("The bin '" + bin.getBinLabel("-") + "' is not contained in a single bin");
                     }
                 }
-                else {
-                    // discreet - must be mutually exclusive
-                    if (previous.overlaps(bin)) {
-                        throw new InvalidStateException("The bin '"+bin.getBinLabel(separator)+" overlaps with the bin "+previous.getBinLabel(separator));
+                for (int i = 0; i < targets.length; i++) {
+                    if (otherBins.get(i).getCount() != 0) {
+                        counts[targets[i]] += otherBins.get(i).getCount();
                     }
                 }
             }
-            previous = bin;
         }
+        countsVersion++;
+        if (other instanceof RangeHistogram) {
+            RangeHistogram<T> histogram = (RangeHistogram<T>) other;
+            underflowCount += histogram.underflowCount;
+            overflowCount += histogram.overflowCount;
+            gapCount += histogram.gapCount;
+            summary.merge(histogram.summary);
+        }
+        else {
+            SummaryStatistics otherSummary = other.getSummaryStatistics();
+            if (otherSummary != null) {
+                summary.merge(otherSummary);
+            }
+        }
+        return this;
     }
 
+    private boolean hasSameBoundaries(List<Bin<T>> otherBins) {
+        if (otherBins.size() != counts.length) {
+            return false;
+        }
+        Granularity granularity = getGranularity();
+        for (int i = 0; i < counts.length; i++) {
+            Bin<T> otherBin = otherBins.get(i);
+            if (!Bin.sameBoundary(layout().getFrom(i), otherBin.getFrom(), granularity) ||
+                    !Bin.sameBoundary(layout().getTo(i), otherBin.getTo(), granularity)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A collector that merges histograms into a new histogram with the bins of the layout histogram, using add().
+     * Can be used to reduce many histograms with a parallel stream.
+     * As collectors cannot throw checked exceptions, a histogram that cannot be added causes an
+     * IllegalArgumentException wrapping the InvalidStateException thrown by add().
+     * @param layout a histogram with the bins of the merged histogram. Its counts are not included.
+     * @return a collector of histograms
+     */
+    public static <T extends Comparable<T>> Collector<ImmutableRangeHistogram<T>, ?, RangeHistogram<T>> merging(ImmutableRangeHistogram<T> layout) {
+        BinLayout<T> bins = BinLayout.of(layout);
+        return Collector.of(() -> new RangeHistogram<>(bins),
+                RangeHistogram::addUnchecked,
+                RangeHistogram::addUnchecked,
+                Collector.Characteristics.UNORDERED, Collector.Characteristics.IDENTITY_FINISH);
+    }
+
+    private RangeHistogram<T> addUnchecked(ImmutableRangeHistogram<T> other) {
+        try {
+            return add(other);
+        }
+        catch (InvalidStateException e) {
+            throw new IllegalArgumentException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the sum of the counts of all bins
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (long count: counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return the total weight recorded for values below all bins
+     */
+    public long getUnderflowCount() {
+        return underflowCount;
+    }
+
+    /**
+     * @return the total weight recorded for values above all bins
+     */
+    public long getOverflowCount() {
+        return overflowCount;
+    }
+
+    /**
+     * @return the total weight recorded for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        return gapCount;
+    }
+
+    @Override
+    public SummaryStatistics getSummaryStatistics() {
+        return new SummaryStatistics(summary);
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return counts.length;
+    }
+
+    @Override
+    public long getCount(int index) {
+        return counts[index];
+    }
+
+    @Override
+    T getBinFrom(int index) {
+        return layout != null ? layout.getFrom(index) : pendingBins.get(index).getFrom();
+    }
+
+    @Override
+    T getBinTo(int index) {
+        return layout != null ? layout.getTo(index) : pendingBins.get(index).getTo();
+    }
+
+    @Override
+    int indexOf(T value) {
+        return layout().findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return countsVersion;
+    }
+
+    @Override
+    boolean hasSameBins(AbstractRangeHistogram<?> other) {
+        if (other instanceof RangeHistogram) {
+            // layouts are interned. Empty layouts with different granularities still have the same (no) bins.
+            return ((RangeHistogram<?>) other).layout() == layout() || counts.length == 0;
+        }
+        return super.hasSameBins(other);
+    }
+
+    @Override
+    public Granularity getGranularity() {
+        return layout != null ? layout.getGranularity() : pendingGranularity;
+    }
+
+    /**
+     * Adds a bin. The histogram moves to the layout with the new bin; other histograms sharing its current layout are
+     * not affected.
+     * The bin is inserted in place, after checking only its neighbors. The new layout is interned when it is first
+     * needed, so building a histogram with many addBin() calls interns a single layout.
+     * If the bin overlaps with a bin already in the histogram the histogram is left unchanged.
+     * @return this histogram
+     * @throws InvalidArgumentException if from is larger than to, or either is null or NaN
+     * @throws InvalidStateException if the bin overlaps with another bin
+     */
+    public RangeHistogram<T> addBin(T from, T to, long count) throws InvalidArgumentException, InvalidStateException {
+        Granularity granularity = getGranularity();
+        Bin<T> bin = new Bin<>(from, to, 0, granularity);
+        if (pendingBins == null) {
+            pendingBins = new ArrayList<>(layout.getBins());
+            pendingGranularity = granularity;
+        }
+        // the first bin that starts above the new one
+        int low = 0;
+        int high = pendingBins.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Bin.compare(pendingBins.get(mid).getFrom(), from, granularity) <= 0) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        if (low > 0) {
+            checkOrder(pendingBins.get(low - 1), bin);
+        }
+        if (low < pendingBins.size()) {
+            checkOrder(bin, pendingBins.get(low));
+        }
+        pendingBins.add(low, bin);
+        layout = null;
+        long[] grown = new long[counts.length + 1];
+        System.arraycopy(counts, 0, grown, 0, low);
+        grown[low] = count;
+        System.arraycopy(counts, low, grown, low + 1, counts.length - low);
+        counts = grown;
+        countsVersion++;
+        return this;
+    }
+
+    /**
+     * @throws InvalidStateException if the second bin does not start after the first one ends, as in
+     * BinLayout.validate()
+     */
+    private static <T extends Comparable<T>> void checkOrder(Bin<T> previous, Bin<T> bin) throws InvalidStateException {
+        int comparison = Bin.compare(bin.getFrom(), previous.getTo(), bin.getGranularity());
+        if (comparison < 0 || (comparison == 0 && !bin.isReal())) {
+            String separator = "-";
+            throw new InvalidStateException("The bin '"+bin.getBinLabel(separator)+"' overlaps with the bin '"+previous.getBinLabel(separator)+"'");
+        }
+    }
+
+    /**
+     * Adds many bins at once. The bins are sorted and validated once for the whole batch, which makes this much
+     * cheaper than calling addBin() repeatedly when building large histograms.
+     * If any of the bins overlap (with each other or with bins already in the histogram) the histogram is left
+     * unchanged. Real bins are compared at the granularity of the histogram, regardless of their own granularity.
+     * @param newBins the bins to add
+     * @return this histogram
+     * @throws InvalidArgumentException if any of the bins is null, or its from is larger than its to at the
+     * granularity of the histogram
+     * @throws InvalidStateException if any two bins overlap
+     */
+    public RangeHistogram<T> addBins(Collection<Bin<T>> newBins) throws InvalidArgumentException, InvalidStateException {
+        Granularity granularity = getGranularity();
+        ArrayList<Bin<T>> combined = new ArrayList<>(counts.length + newBins.size());
+        combined.addAll(getBins());
+        for (Bin<T> bin: newBins) {
+            if (bin == null) {
+                throw new InvalidArgumentException("bins may not be null");
+            }
+            combined.add(BinLayout.withGranularity(bin, granularity));
+        }
+        Collections.sort(combined);
+        BinLayout.validate(combined);
+        setBins(combined, granularity);
+        return this;
+    }
+
+    @Override
+    Object getLayoutKey() {
+        return layout();
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import java.util.Arrays;
+
+/**
+ * Spreads counts of source bins over the bins of a different target layout, in proportion to how much of each source
+ * bin every target bin covers. This assumes the values are uniformly distributed within each source bin.
+ * Parts of a source bin that no target bin covers go to the underflow, gap or overflow counts.
+ * Each source bin's count is split with the largest remainder method, so counts are never lost or invented.
+ * Target bins are given as continuous, sorted and non-overlapping extents [lower, upper]. Not thread safe.
+ */
+class Redistribution {
+    private final double[] lower;
+    private final double[] upper;
+
+    // pieces of the current source bin: lookup results (as used by BinCounts) and their overlap lengths
+    private int[] pieceBins = new int[8];
+    private double[] pieceLengths = new double[8];
+    private long[] pieceShares = new long[8];
+    private int pieces;
+
+    Redistribution(double[] lower, double[] upper) {
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * Spreads a count that is uniformly distributed over [from, to] into the target counts
+     * @param count the count to spread
+     * @param from the start of the source extent
+     * @param to the end of the source extent. Must be larger than from.
+     * @param target the counts of the target bins
+     */
+    void distribute(long count, double from, double to, BinCounts target) {
+        int size = lower.length;
+        double width = to - from;
+        pieces = 0;
+
+        double covered = 0.0;
+        for (int t = firstEndingAfter(from); t < size && lower[t] < to; t++) {
+            double overlap = Math.min(to, upper[t]) - Math.max(from, lower[t]);
+            if (overlap > 0) {
+                addPiece(t, overlap);
+                covered += overlap;
+            }
+        }
+        double underflow = size == 0 ? width : Math.max(0.0, Math.min(to, lower[0]) - from);
+        double overflow = size == 0 ? 0.0 : Math.max(0.0, to - Math.max(from, upper[size - 1]));
+        double gap = size < 2 ? 0.0 : Math.max(0.0, width - covered - underflow - overflow);
+        addPiece(-1, underflow);
+        addPiece(-size - 1, overflow);
+        addPiece(-2, gap);
+
+        long distributed = 0;
+        double total = covered + underflow + overflow + gap;
+        for (int i = 0; i < pieces; i++) {
+            pieceShares[i] = (long) Math.floor(count * (pieceLengths[i] / total));
+            distributed += pieceShares[i];
+        }
+        // hand out what the rounding down left over to the pieces with the largest fractional parts
+        for (long remainder = count - distributed; remainder > 0; remainder--) {
+            int best = -1;
+            double bestFraction = -1.0;
+            for (int i = 0; i < pieces; i++) {
+                double fraction = count * (pieceLengths[i] / total) - pieceShares[i];
+                if (fraction > bestFraction) {
+                    best = i;
+                    bestFraction = fraction;
+                }
+            }
+            pieceShares[best]++;
+        }
+        for (int i = 0; i < pieces; i++) {
+            if (pieceShares[i] != 0) {
+                target.add(pieceBins[i], pieceShares[i]);
+            }
+        }
+    }
+
+    private int firstEndingAfter(double value) {
+        int low = 0;
+        int high = upper.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (upper[mid] <= value) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void addPiece(int bin, double length) {
+        if (length <= 0) {
+            return;
+        }
+        if (pieces == pieceBins.length) {
+            pieceBins = Arrays.copyOf(pieceBins, pieces * 2);
+            pieceLengths = Arrays.copyOf(pieceLengths, pieces * 2);
+            pieceShares = Arrays.copyOf(pieceShares, pieces * 2);
+        }
+        pieceBins[pieces] = bin;
+        pieceLengths[pieces] = length;
+        pieces++;
+    }
+}
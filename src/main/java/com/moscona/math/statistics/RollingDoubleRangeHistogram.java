@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * A histogram over double values that only counts values recorded within a sliding time window, such as the last 60
+ * seconds.
+ * The window is divided into equal intervals, each with its own counts over one shared layout. The histogram also
+ * keeps running totals for the whole window: recording adds to both the current interval and the totals, and when an
+ * interval expires its counts are subtracted from the totals. Reading the window is therefore as cheap as reading a
+ * single interval, no matter how many intervals there are.
+ * Intervals are rotated lazily, by whichever thread records or reads after the clock moves to a new interval.
+ * The window covers the current (partial) interval and the intervals before it, so it spans between
+ * (intervals - 1) and (intervals) interval lengths.
+ * <p>
+ * Each interval also keeps summary statistics of its values. They cannot be subtracted, so getSummaryStatistics()
+ * merges the intervals of the window instead. An expiring interval gets a fresh summary.
+ * <p>
+ * Thread safe. Recording and reading, including the summary statistics, do not lock. Rotating intervals does.
+ */
+public class RollingDoubleRangeHistogram extends AbstractRangeHistogram<Double> {
+    private final DoubleBinLayout layout;
+    private final long intervalLength;
+    private final LongSupplier clock;
+    private final AtomicLongArray[] intervals; // ring of per interval counts: bins, then underflow, gap and overflow
+    private final AtomicLongArray window; // the sum of all intervals
+    private final AtomicReferenceArray<ConcurrentSummaryStatistics> summaries; // per interval
+    private volatile long currentInterval;
+
+    /**
+     * @param layout the bins of the histogram
+     * @param numberOfIntervals the number of intervals in the window
+     * @param intervalLength the length of an interval, in the units of the clock
+     * @param clock the time source, for example System::currentTimeMillis
+     * @throws InvalidArgumentException if the number of intervals or the interval length is not positive
+     */
+    public RollingDoubleRangeHistogram(DoubleBinLayout layout, int numberOfIntervals, long intervalLength, LongSupplier clock) throws InvalidArgumentException {
+        if (numberOfIntervals < 1) {
+            throw new InvalidArgumentException("there must be at least one interval");
+        }
+        if (intervalLength < 1) {
+            throw new InvalidArgumentException("the interval length must be positive");
+        }
+        this.layout = layout;
+        this.intervalLength = intervalLength;
+        this.clock = clock;
+        int slots = layout.getNumberOfBins() + 3;
+        intervals = new AtomicLongArray[numberOfIntervals];
+        for (int i = 0; i < numberOfIntervals; i++) {
+            intervals[i] = new AtomicLongArray(slots);
+        }
+        window = new AtomicLongArray(slots);
+        summaries = new AtomicReferenceArray<>(numberOfIntervals);
+        for (int i = 0; i < numberOfIntervals; i++) {
+            summaries.set(i, new ConcurrentSummaryStatistics());
+        }
+        currentInterval = clock.getAsLong() / intervalLength;
+    }
+
+    /**
+     * Creates a histogram over the last windowMillis milliseconds of wall clock time
+     * @param layout the bins of the histogram
+     * @param numberOfIntervals the number of intervals in the window
+     * @param windowMillis the length of the window, in milliseconds
+     * @throws InvalidArgumentException if the number of intervals is not positive or larger than the window
+     */
+    public RollingDoubleRangeHistogram(DoubleBinLayout layout, int numberOfIntervals, long windowMillis) throws InvalidArgumentException {
+        this(layout, numberOfIntervals, intervalLength(numberOfIntervals, windowMillis), System::currentTimeMillis);
+    }
+
+    private static long intervalLength(int numberOfIntervals, long windowMillis) throws InvalidArgumentException {
+        if (numberOfIntervals < 1) {
+            throw new InvalidArgumentException("there must be at least one interval");
+        }
+        if (windowMillis < numberOfIntervals) {
+            throw new InvalidArgumentException("a window of " + windowMillis + " ms cannot be divided into " +
+                    numberOfIntervals + " intervals of at least 1 ms");
+        }
+        return windowMillis / numberOfIntervals;
+    }
+
+    public DoubleBinLayout getLayout() {
+        return layout;
+    }
+
+    public int findBinIndex(double value) {
+        return layout.findBinIndex(value);
+    }
+
+    /**
+     * Adds one to the count of the bin containing the value in the current interval
+     * @param value the value to record
+     */
+    public void record(double value) {
+        long interval = add(slotOf(layout.findBinIndex(value)), 1);
+        summarize(interval, value, 1);
+    }
+
+    /**
+     * Adds a weight to the count of the bin containing the value in the current interval
+     * @param value the value to record
+     * @param weight the weight to add
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(double value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        long interval = add(slotOf(layout.findBinIndex(value)), weight);
+        summarize(interval, value, weight);
+    }
+
+    /**
+     * @return the interval the weight was added to
+     */
+    private long add(int slot, long weight) {
+        long interval = advance();
+        intervals[(int) (interval % intervals.length)].addAndGet(slot, weight);
+        window.addAndGet(slot, weight);
+        return interval;
+    }
+
+    private void summarize(long interval, double value, long weight) {
+        summaries.get((int) (interval % intervals.length)).add(value, weight);
+    }
+
+    private int slotOf(int lookupResult) {
+        if (lookupResult >= 0) {
+            return lookupResult;
+        }
+        int numberOfBins = layout.getNumberOfBins();
+        int insertionPoint = -lookupResult - 1;
+        if (insertionPoint == 0) {
+            return numberOfBins;
+        }
+        return insertionPoint >= numberOfBins ? numberOfBins + 2 : numberOfBins + 1;
+    }
+
+    /**
+     * Rotates the intervals up to the current time
+     * @return the current interval number
+     */
+    private long advance() {
+        long now = clock.getAsLong() / intervalLength;
+        if (now <= currentInterval) {
+            return currentInterval; // also ignores a clock going backwards
+        }
+        synchronized (this) {
+            long interval = currentInterval;
+            // intervals older than the window are already empty, so at most a full ring needs to be expired
+            long first = Math.max(interval + 1, now - intervals.length + 1);
+            for (long expiring = first; expiring <= now; expiring++) {
+                expire((int) (expiring % intervals.length));
+            }
+            if (now > interval) {
+                currentInterval = now;
+            }
+            return currentInterval;
+        }
+    }
+
+    private void expire(int index) {
+        AtomicLongArray counts = intervals[index];
+        for (int slot = 0; slot < counts.length(); slot++) {
+            long count = counts.getAndSet(slot, 0);
+            if (count != 0) {
+                // subtract exactly what was taken out, so concurrent recorders never make the window inconsistent
+                window.addAndGet(slot, -count);
+            }
+        }
+        // a summary cannot give back exactly what was taken out, so a recorder that is late for the expiring
+        // interval records into the discarded summary instead
+        summaries.set(index, new ConcurrentSummaryStatistics());
+    }
+
+    /**
+     * Copies the counts and summary statistics of the current window
+     * @return a new histogram with the counts of the window
+     */
+    public DoubleRangeHistogram snapshot() {
+        advance();
+        DoubleRangeHistogram copy = new DoubleRangeHistogram(layout);
+        BinCounts counts = copy.getCounts();
+        int numberOfBins = layout.getNumberOfBins();
+        for (int i = 0; i < numberOfBins; i++) {
+            counts.set(i, window.get(i));
+        }
+        counts.setOutOfRange(window.get(numberOfBins), window.get(numberOfBins + 1), window.get(numberOfBins + 2));
+        mergeSummaries(copy.getSummary());
+        return copy;
+    }
+
+    /**
+     * @return the summary statistics of the values recorded within the current window
+     */
+    @Override
+    public SummaryStatistics getSummaryStatistics() {
+        advance();
+        return mergeSummaries(new SummaryStatistics());
+    }
+
+    private SummaryStatistics mergeSummaries(SummaryStatistics into) {
+        for (int i = 0; i < intervals.length; i++) {
+            into.merge(summaries.get(i).get());
+        }
+        return into;
+    }
+
+    @Override
+    public int getNumberOfBins() {
+        return layout.getNumberOfBins();
+    }
+
+    /**
+     * @return the count of the bin within the current window
+     */
+    @Override
+    public long getCount(int index) {
+        if (index < 0 || index >= layout.getNumberOfBins()) {
+            throw new IndexOutOfBoundsException("no bin " + index);
+        }
+        advance();
+        return window.get(index);
+    }
+
+    /**
+     * @return the sum of the counts of all bins within the current window
+     */
+    public long getTotalCount() {
+        advance();
+        long total = 0;
+        for (int i = 0; i < layout.getNumberOfBins(); i++) {
+            total += window.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the total weight recorded within the current window for values below all bins
+     */
+    public long getUnderflowCount() {
+        advance();
+        return window.get(layout.getNumberOfBins());
+    }
+
+    /**
+     * @return the total weight recorded within the current window for values that fell in gaps between bins
+     */
+    public long getGapCount() {
+        advance();
+        return window.get(layout.getNumberOfBins() + 1);
+    }
+
+    /**
+     * @return the total weight recorded within the current window for values above all bins (including NaN)
+     */
+    public long getOverflowCount() {
+        advance();
+        return window.get(layout.getNumberOfBins() + 2);
+    }
+
+    @Override
+    Double getBinFrom(int index) {
+        return layout.getLowerBound(index);
+    }
+
+    @Override
+    Double getBinTo(int index) {
+        return layout.getUpperBound(index);
+    }
+
+    @Override
+    int indexOf(Double value) {
+        return layout.findBinIndex(value);
+    }
+
+    @Override
+    long getCountsVersion() {
+        return VOLATILE_COUNTS; // changes as the window moves
+    }
+
+    @Override
+    public Granularity getGranularity() {
+        return layout.getGranularity();
+    }
+
+    @Override
+    Object getLayoutKey() {
+        return layout;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+
+/**
+ * Running summary statistics of recorded values: count, sum, mean, variance, minimum and maximum, computed exactly in
+ * a single pass.
+ * The mean and variance are updated with Welford's method, and two summaries are combined with the pairwise update of
+ * Chan, Golub and LeVeque, so summaries kept separately (per thread, per histogram or per time interval) can be merged
+ * without the loss of precision of summing squares. The sum uses Kahan summation.
+ * <p>
+ * A weight counts as that many repeats of the value. NaN values are ignored. Infinite values make the sum, mean and
+ * variance infinite or NaN, as they would any sum.
+ * Not thread safe.
+ */
+public class SummaryStatistics {
+    private long count = 0;
+    private double mean = 0.0;
+    private double squaredDeviations = 0.0; // the sum of squared differences from the mean
+    private double sum = 0.0;
+    private double sumCompensation = 0.0; // the low order bits lost from sum, for Kahan summation
+    private double simpleSum = 0.0; // an uncompensated sum, which gets infinities right
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public SummaryStatistics() {
+    }
+
+    /**
+     * Creates a copy of another summary
+     * @param other the summary to copy
+     */
+    public SummaryStatistics(SummaryStatistics other) {
+        merge(other);
+    }
+
+    /**
+     * Creates a summary from its parts, as written by the histogram codec
+     */
+    static SummaryStatistics of(long count, double mean, double squaredDeviations, double sum, double min, double max) {
+        SummaryStatistics summary = new SummaryStatistics();
+        if (count > 0) {
+            summary.count = count;
+            summary.mean = mean;
+            summary.squaredDeviations = squaredDeviations;
+            summary.sum = sum;
+            summary.simpleSum = sum;
+            summary.min = min;
+            summary.max = max;
+        }
+        return summary;
+    }
+
+    /**
+     * Records a value with a weight of one
+     * @param value the value to record. NaN is ignored.
+     */
+    public void record(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Records a value with a weight
+     * @param value the value to record. NaN is ignored.
+     * @param weight the number of times to count the value
+     * @throws InvalidArgumentException if the weight is negative
+     */
+    public void record(double value, long weight) throws InvalidArgumentException {
+        if (weight < 0) {
+            throw new InvalidArgumentException("weight may not be negative");
+        }
+        add(value, weight);
+    }
+
+    /**
+     * Records a value with a weight that is known not to be negative
+     */
+    void add(double value, long weight) {
+        if (weight == 0 || value != value) {
+            return;
+        }
+        long newCount = count + weight;
+        double delta = value - mean;
+        mean += delta * ((double) weight / newCount);
+        squaredDeviations += weight * delta * (value - mean);
+        count = newCount;
+        addToSum(value * weight);
+        simpleSum += value * weight;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    private void addToSum(double value) {
+        double corrected = value - sumCompensation;
+        double total = sum + corrected;
+        sumCompensation = (total - sum) - corrected;
+        sum = total;
+    }
+
+    /**
+     * Adds the values summarized by another summary to this one, as if they had been recorded here
+     * @param other the summary to add
+     * @return this summary
+     */
+    public SummaryStatistics merge(SummaryStatistics other) {
+        // read the other summary first, as it may be this one
+        long otherCount = other.count;
+        if (otherCount == 0) {
+            return this;
+        }
+        double otherMean = other.mean;
+        double otherSquaredDeviations = other.squaredDeviations;
+        double otherSum = other.sum;
+        double otherSumCompensation = other.sumCompensation;
+        double otherSimpleSum = other.simpleSum;
+        double otherMin = other.min;
+        double otherMax = other.max;
+
+        if (count == 0) {
+            mean = otherMean;
+            squaredDeviations = otherSquaredDeviations;
+        }
+        else {
+            long newCount = count + otherCount;
+            double delta = otherMean - mean;
+            mean += delta * ((double) otherCount / newCount);
+            squaredDeviations += otherSquaredDeviations + delta * delta * ((double) count * otherCount / newCount);
+        }
+        count += otherCount;
+        addToSum(otherSum);
+        addToSum(-otherSumCompensation);
+        simpleSum += otherSimpleSum;
+        min = Math.min(min, otherMin);
+        max = Math.max(max, otherMax);
+        return this;
+    }
+
+    /**
+     * Computes the summary of the values recorded since an earlier copy of this summary was taken, by reversing
+     * merge(). The count, sum, mean and variance are exact up to rounding. The minimum and the maximum of the later
+     * values are only known where they went past those of the earlier summary, and are NaN otherwise.
+     * @param earlier an earlier copy of this summary
+     * @return a new summary of the values recorded after the earlier copy was taken
+     * @throws InvalidArgumentException if the earlier summary has more values than this one
+     */
+    public SummaryStatistics minus(SummaryStatistics earlier) throws InvalidArgumentException {
+        long earlierCount = earlier.count;
+        if (earlierCount > count) {
+            throw new InvalidArgumentException("the earlier summary has more values than this one");
+        }
+        SummaryStatistics delta = new SummaryStatistics();
+        if (earlierCount == 0) {
+            return delta.merge(this);
+        }
+        long deltaCount = count - earlierCount;
+        if (deltaCount == 0) {
+            return delta;
+        }
+        delta.count = deltaCount;
+        delta.mean = mean + (mean - earlier.mean) * ((double) earlierCount / deltaCount);
+        double difference = delta.mean - earlier.mean;
+        delta.squaredDeviations = Math.max(0.0, squaredDeviations - earlier.squaredDeviations
+                - difference * difference * ((double) earlierCount * deltaCount / count));
+        delta.sum = sum;
+        delta.sumCompensation = sumCompensation;
+        delta.addToSum(-earlier.sum);
+        delta.addToSum(earlier.sumCompensation);
+        delta.simpleSum = simpleSum - earlier.simpleSum;
+        delta.min = min < earlier.min ? min : Double.NaN; // NaN stays NaN through add() and merge()
+        delta.max = max > earlier.max ? max : Double.NaN;
+        return delta;
+    }
+
+    /**
+     * Forgets all recorded values
+     */
+    void clear() {
+        count = 0;
+        mean = 0.0;
+        squaredDeviations = 0.0;
+        sum = 0.0;
+        sumCompensation = 0.0;
+        simpleSum = 0.0;
+        min = Double.POSITIVE_INFINITY;
+        max = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the total weight of the recorded values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the weighted sum of the recorded values, 0 if there are none
+     */
+    public double getSum() {
+        double result = sum - sumCompensation;
+        if (Double.isNaN(result) && Double.isInfinite(simpleSum)) {
+            return simpleSum; // the compensation of an infinite sum is NaN
+        }
+        return result;
+    }
+
+    /**
+     * @return the weighted mean of the recorded values, or NaN if there are none
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return the population variance of the recorded values, or NaN if there are none
+     */
+    public double getVariance() {
+        return count == 0 ? Double.NaN : Math.max(0.0, squaredDeviations / count);
+    }
+
+    /**
+     * @return the sample variance of the recorded values (with Bessel's correction), or NaN if there are fewer than two
+     */
+    public double getSampleVariance() {
+        return count < 2 ? Double.NaN : Math.max(0.0, squaredDeviations / (count - 1));
+    }
+
+    /**
+     * @return the population standard deviation of the recorded values, or NaN if there are none
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return the smallest recorded value, or NaN if there are none or it is not known (see minus())
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return the largest recorded value, or NaN if there are none or it is not known (see minus())
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * @return the sum of squared differences from the mean, as written by the histogram codec
+     */
+    double getSquaredDeviations() {
+        return squaredDeviations;
+    }
+
+    @Override
+    public String toString() {
+        return "SummaryStatistics{" +
+                "count=" + count +
+                ", mean=" + getMean() +
+                ", standardDeviation=" + getStandardDeviation() +
+                ", min=" + getMin() +
+                ", max=" + getMax() +
+                ", sum=" + getSum() +
+                '}';
+    }
+}
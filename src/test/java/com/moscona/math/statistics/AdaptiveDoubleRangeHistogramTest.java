@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * AdaptiveDoubleRangeHistogram Tester.
+ */
+public class AdaptiveDoubleRangeHistogramTest {
+    private AdaptiveDoubleRangeHistogram histogram;
+
+    @Before
+    public void before() throws Exception {
+        histogram = new AdaptiveDoubleRangeHistogram(64);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testTooFewBins() throws Exception {
+        new AdaptiveDoubleRangeHistogram(1);
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertEquals(0, histogram.getNumberOfBins());
+        assertTrue(histogram.getBins().isEmpty());
+        assertFalse(histogram.contains(1.0));
+    }
+
+    @Test
+    public void testFirstValues() throws Exception {
+        histogram.record(5.0);
+        assertEquals(1, histogram.getNumberOfBins());
+        assertEquals(new Bin<>(5.0, 5.0, 1), histogram.findBin(5.0));
+        histogram.record(3.0);
+        histogram.record(9.0);
+        assertEquals(3.0, histogram.getLowerBound(0), 0.0);
+        assertEquals(9.0, histogram.getUpperBound(histogram.getNumberOfBins() - 1), 0.0);
+        assertEquals(3, histogram.getTotalCount());
+    }
+
+    @Test
+    public void testEqualValuesStayInOneBin() throws Exception {
+        for (int i = 0; i < 10000; i++) {
+            histogram.record(7.0);
+        }
+        assertEquals(1, histogram.getNumberOfBins());
+        assertEquals(10000, histogram.getCount(0));
+    }
+
+    @Test
+    public void testNaNIsOverflow() throws Exception {
+        histogram.record(1.0);
+        histogram.record(Double.NaN, 3);
+        assertEquals(3, histogram.getOverflowCount());
+        assertEquals(1, histogram.getTotalCount());
+    }
+
+    @Test
+    public void testSkewedDataIsSpreadOverTheBins() throws Exception {
+        Random random = new Random(1);
+        double[] values = new double[200000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 3.0);
+            histogram.record(values[i]);
+        }
+        assertEquals(64, histogram.getNumberOfBins());
+        assertEquals(values.length, histogram.getTotalCount());
+        assertValidBins(histogram.getBins());
+        long largest = 0;
+        for (int i = 0; i < histogram.getNumberOfBins(); i++) {
+            largest = Math.max(largest, histogram.getCount(i));
+        }
+        assertTrue("largest bin " + largest, largest <= values.length / 10);
+
+        Arrays.sort(values);
+        for (double q: new double[] {0.1, 0.5, 0.9, 0.99}) {
+            double estimate = histogram.valueAtQuantile(q);
+            double estimatedRank = (double) (-Arrays.binarySearch(values, estimate) - 1) / values.length;
+            assertEquals("rank of the estimated quantile " + q, q, estimatedRank, 0.05);
+        }
+    }
+
+    @Test
+    public void testBinsFollowAShiftingDistribution() throws Exception {
+        Random random = new Random(2);
+        for (int i = 0; i < 50000; i++) {
+            histogram.record(random.nextDouble());
+        }
+        for (int i = 0; i < 500000; i++) {
+            histogram.record(1000.0 + random.nextDouble());
+        }
+        assertValidBins(histogram.getBins());
+        int binsInNewRange = 0;
+        for (int i = 0; i < histogram.getNumberOfBins(); i++) {
+            if (histogram.getLowerBound(i) >= 999.0) {
+                binsInNewRange++;
+            }
+        }
+        assertTrue("bins in the new range: " + binsInNewRange, binsInNewRange > 32);
+    }
+
+    @Test
+    public void testLookupMatchesBins() throws Exception {
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            histogram.record(random.nextGaussian());
+        }
+        List<Bin<Double>> bins = histogram.getBins();
+        for (int i = 0; i < 1000; i++) {
+            double value = random.nextGaussian();
+            Bin<Double> expected = null;
+            for (Bin<Double> bin: bins) {
+                if (bin.contains(value)) {
+                    expected = bin;
+                    break;
+                }
+            }
+            assertEquals("bin of " + value, expected, histogram.findBin(value));
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        Random random = new Random(4);
+        for (int i = 0; i < 10000; i++) {
+            histogram.record(random.nextDouble());
+        }
+        histogram.record(Double.NaN);
+        DoubleRangeHistogram snapshot = histogram.snapshot();
+        assertEquals(histogram.getBins(), snapshot.getBins());
+        assertEquals(1, snapshot.getOverflowCount());
+        histogram.record(0.5);
+        assertEquals(10000, snapshot.getTotalCount());
+        assertEquals("NaN is not summarized", 10000, snapshot.getSummaryStatistics().getCount());
+        assertEquals(10001, histogram.getSummaryStatistics().getCount());
+        assertEquals(0.5, snapshot.getSummaryStatistics().getMean(), 0.01);
+    }
+
+    private void assertValidBins(List<Bin<Double>> bins) {
+        for (int i = 1; i < bins.size(); i++) {
+            assertEquals("bins should be contiguous", bins.get(i - 1).getTo(), bins.get(i).getFrom());
+            assertTrue(bins.get(i).getFrom() < bins.get(i).getTo());
+        }
+    }
+
+    @Test
+    public void testNegativeZeroTopBoundary() throws Exception {
+        AdaptiveDoubleRangeHistogram zeros = new AdaptiveDoubleRangeHistogram(4);
+        zeros.record(-0.0);
+        zeros.record(0.0);
+        zeros.record(0.0);
+        assertEquals(0, zeros.findBinIndex(0.0));
+        assertEquals(0, zeros.findBinIndex(-0.0));
+        assertEquals(3, zeros.getCount(0));
+        assertEquals(3, zeros.snapshot().getTotalCount());
+    }
+
+    @Test
+    public void testNegativeZeroTopBoundaryWhenFull() throws Exception {
+        AdaptiveDoubleRangeHistogram zeros = new AdaptiveDoubleRangeHistogram(2);
+        zeros.record(-1.0);
+        for (int i = 0; i < 20; i++) {
+            zeros.record(-0.0);
+        }
+        zeros.record(0.0);
+        assertEquals(zeros.getNumberOfBins() - 1, zeros.findBinIndex(0.0));
+        assertEquals(22, zeros.snapshot().getTotalCount());
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * AsyncDoubleRecorder Tester.
+ */
+public class AsyncDoubleRecorderTest {
+    private DoubleBinLayout layout;
+    private AsyncDoubleRecorder recorder = null;
+
+    @Before
+    public void before() throws Exception {
+        layout = new LinearDoubleBinLayout(0.0, 100.0, 10);
+    }
+
+    @After
+    public void after() throws Exception {
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    private List<DoubleRangeHistogram> histograms(int n) {
+        List<DoubleRangeHistogram> histograms = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            histograms.add(new DoubleRangeHistogram(layout));
+        }
+        return histograms;
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNoHistograms() throws Exception {
+        new AsyncDoubleRecorder(Collections.<DoubleRangeHistogram>emptyList(), 16, AsyncDoubleRecorder.OverflowPolicy.DROP);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNoCapacity() throws Exception {
+        new AsyncDoubleRecorder(histograms(1), 0, AsyncDoubleRecorder.OverflowPolicy.DROP);
+    }
+
+    @Test
+    public void testFlushAppliesPendingUpdates() throws Exception {
+        recorder = new AsyncDoubleRecorder(histograms(3), 64, 8, AsyncDoubleRecorder.OverflowPolicy.BLOCK, 2, null);
+        for (int i = 0; i < 1000; i++) {
+            recorder.record(i % 3, i % 100);
+        }
+        recorder.flush();
+        assertEquals(1000, recorder.getAppliedCount());
+        assertEquals(0, recorder.getQueueDepth());
+        assertEquals(0, recorder.getDroppedCount());
+
+        DoubleRangeHistogram expected = new DoubleRangeHistogram(layout);
+        for (int i = 0; i < 1000; i += 3) {
+            expected.record(i % 100);
+        }
+        DoubleRangeHistogram first = recorder.snapshot(0);
+        assertEquals(expected, first);
+        // batches are applied in sorted order, so the summary may differ in the last bits
+        assertEquals(expected.getSummaryStatistics().getMean(), first.getSummaryStatistics().getMean(), 1e-9);
+        assertEquals(expected.getSummaryStatistics().getSum(), first.getSummaryStatistics().getSum(), 1e-9);
+        assertEquals(333, recorder.snapshot(1).getTotalCount());
+        assertEquals(333, recorder.snapshotAndReset(2).getTotalCount());
+        assertEquals(0, recorder.snapshot(2).getTotalCount());
+    }
+
+    @Test
+    public void testDropsWhenFull() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        recorder = new AsyncDoubleRecorder(histograms(1), 4, 4, AsyncDoubleRecorder.OverflowPolicy.DROP, 1,
+                runnable -> new Thread(() -> {
+                    try {
+                        started.await(); // hold the drainer back until the ring is full
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    runnable.run();
+                }));
+        for (int i = 0; i < 10; i++) {
+            recorder.record(0, 5.0);
+        }
+        assertEquals(4, recorder.getQueueDepth());
+        assertEquals(6, recorder.getDroppedCount());
+
+        started.countDown();
+        recorder.flush();
+        assertEquals(4, recorder.snapshot(0).getCount(0));
+        assertEquals(0, recorder.getQueueDepth());
+    }
+
+    @Test
+    public void testBlocksWhenFull() throws Exception {
+        recorder = new AsyncDoubleRecorder(histograms(4), 8, 4, AsyncDoubleRecorder.OverflowPolicy.BLOCK, 2, null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        recorder.record(i & 3, i % 100);
+                    }
+                }));
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+        assertEquals(40000, recorder.getAppliedCount());
+        for (int h = 0; h < 4; h++) {
+            assertEquals(10000, recorder.snapshot(h).getTotalCount());
+        }
+    }
+
+    @Test
+    public void testCloseAppliesPendingAndDropsLater() throws Exception {
+        recorder = new AsyncDoubleRecorder(histograms(2), 1024, AsyncDoubleRecorder.OverflowPolicy.BLOCK);
+        double[] values = new double[500];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i / 5.0;
+            recorder.record(1, values[i]);
+        }
+        recorder.close();
+        assertTrue(recorder.isClosed());
+        recorder.record(1, 1.0);
+        recorder.close(); // does nothing the second time
+
+        assertEquals(1, recorder.getDroppedCount());
+        DoubleRangeHistogram expected = new DoubleRangeHistogram(layout);
+        expected.recordAll(values);
+        assertEquals(expected, recorder.snapshot(1));
+        assertEquals(0, recorder.snapshot(0).getTotalCount());
+    }
+
+    @Test
+    public void testCloseWhileRecordingLosesNothing() throws Exception {
+        recorder = new AsyncDoubleRecorder(histograms(2), 64, 8, AsyncDoubleRecorder.OverflowPolicy.BLOCK, 2, null);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        CountDownLatch started = new CountDownLatch(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    started.countDown();
+                    for (int i = 0; i < 20000; i++) {
+                        recorder.record(i & 1, i % 100);
+                    }
+                }));
+            }
+            started.await();
+            recorder.close();
+            for (Future<?> future: futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        // every update is either applied or counted as dropped, even those racing with close()
+        assertEquals(80000, recorder.getAppliedCount() + recorder.getDroppedCount());
+        assertEquals(recorder.getAppliedCount(), recorder.snapshot(0).getTotalCount() + recorder.snapshot(1).getTotalCount());
+    }
+
+    @Test
+    public void testCloseWhenInterrupted() throws Exception {
+        recorder = new AsyncDoubleRecorder(histograms(1), 1024, AsyncDoubleRecorder.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 500; i++) {
+            recorder.record(0, i / 5.0);
+        }
+        Thread.currentThread().interrupt();
+        try {
+            recorder.close();
+            assertTrue("the interrupt is kept", Thread.currentThread().isInterrupted());
+        }
+        finally {
+            Thread.interrupted();
+        }
+        assertEquals(500, recorder.getAppliedCount());
+        assertEquals(500, recorder.snapshot(0).getTotalCount());
+    }
+
+    @Test
+    public void testStoppedDrainer() throws Exception {
+        Thread[] drainer = new Thread[1];
+        // the drainer thread exits without draining anything
+        recorder = new AsyncDoubleRecorder(histograms(1), 4, 4, AsyncDoubleRecorder.OverflowPolicy.BLOCK, 1,
+                runnable -> drainer[0] = new Thread(() -> { }));
+        drainer[0].join();
+        for (int i = 0; i < 10; i++) {
+            recorder.record(0, 5.0); // blocking for room would wait forever
+        }
+        assertEquals(4, recorder.getQueueDepth());
+        assertEquals(6, recorder.getDroppedCount());
+        try {
+            recorder.flush();
+            fail("flush() returned with updates not applied");
+        }
+        catch (IllegalStateException expected) {
+            assertEquals(0, recorder.snapshot(0).getTotalCount());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testNoSuchHistogram() throws Exception {
+        recorder = new AsyncDoubleRecorder(histograms(2), 16, AsyncDoubleRecorder.OverflowPolicy.DROP);
+        recorder.record(2, 1.0);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BinCounts Tester.
+ * Checks the sparse storage against plain arrays of counts.
+ */
+public class BinCountsTest {
+    private static final int BINS = 10000;
+
+    @Test
+    public void testSmallLayoutsAreDense() throws Exception {
+        assertFalse(new BinCounts(BinCounts.MIN_SPARSE_BINS - 1).isSparse());
+        assertTrue(new BinCounts(BinCounts.MIN_SPARSE_BINS).isSparse());
+    }
+
+    @Test
+    public void testMapNeverOutgrowsArray() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        // 2048 entries fit 4096 slots of 12 bytes, less than 8 bytes for each of the bins. The next one would double it.
+        for (int bin = 0; bin < 2048; bin++) {
+            counts.add(bin * 4, 1);
+        }
+        assertTrue(counts.isSparse());
+        counts.add(1, 1);
+        assertFalse(counts.isSparse());
+        assertEquals(2049, counts.getTotal());
+        assertEquals(1, counts.get(4 * 2047));
+    }
+
+    @Test
+    public void testSparseCountsMatchArray() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        long[] expected = new long[BINS];
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            int bin = random.nextInt(300) * 31; // a few hundred bins spread over the layout
+            long weight = random.nextInt(5);
+            counts.add(bin, weight);
+            expected[bin] += weight;
+        }
+        assertTrue("a few hundred bins should stay sparse", counts.isSparse());
+        assertSameCounts(expected, counts);
+    }
+
+    @Test
+    public void testSwitchToDense() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        long[] expected = new long[BINS];
+        for (int bin = 0; bin < BINS; bin += 2) {
+            counts.add(bin, bin + 1);
+            expected[bin] += bin + 1;
+        }
+        assertFalse("half of the bins should be dense", counts.isSparse());
+        assertSameCounts(expected, counts);
+    }
+
+    @Test
+    public void testSet() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        counts.set(17, 0);
+        counts.set(42, 5);
+        counts.set(42, 7);
+        assertEquals(0, counts.get(17));
+        assertEquals(7, counts.get(42));
+        assertEquals(7, counts.getTotal());
+    }
+
+    @Test
+    public void testAddAllAcrossRepresentations() throws Exception {
+        BinCounts sparse = new BinCounts(BINS);
+        BinCounts dense = new BinCounts(BINS);
+        long[] expected = new long[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            dense.add(bin, 1);
+            expected[bin] += 2;
+        }
+        sparse.add(5, 1);
+        sparse.add(-1, 3);
+        expected[5] += 1;
+        BinCounts target = new BinCounts(BINS);
+        target.addAll(dense);
+        target.addAll(sparse);
+        target.addAll(dense);
+        assertSameCounts(expected, target);
+        assertEquals(3, target.getUnderflow());
+
+        BinCounts sparseTarget = new BinCounts(BINS);
+        sparseTarget.addAll(sparse);
+        assertTrue(sparseTarget.isSparse());
+        assertEquals(1, sparseTarget.get(5));
+    }
+
+    @Test
+    public void testAddAccumulator() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        long[] accumulator = counts.newAccumulator();
+        BinCounts.accumulate(accumulator, 3);
+        BinCounts.accumulate(accumulator, 3);
+        BinCounts.accumulate(accumulator, -BINS - 1);
+        counts.addAccumulator(accumulator);
+        assertTrue(counts.isSparse());
+        assertEquals(2, counts.get(3));
+        assertEquals(1, counts.getOverflow());
+    }
+
+    @Test
+    public void testCopyAndTakeAll() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        counts.add(5, 2);
+        counts.add(-1, 1);
+        BinCounts copy = counts.copy();
+        counts.add(5, 1);
+        assertEquals(2, copy.get(5));
+        long version = counts.getVersion();
+        BinCounts taken = counts.takeAll();
+        assertEquals(3, taken.get(5));
+        assertEquals(1, taken.getUnderflow());
+        assertEquals(0, counts.get(5));
+        assertEquals(0, counts.getUnderflow());
+        assertTrue(counts.isSparse());
+        assertTrue("taking the counts is a change", counts.getVersion() != version);
+    }
+
+    @Test
+    public void testMinus() throws Exception {
+        Random random = new Random(5);
+        for (int bins: new int[] {10, BINS}) {
+            BinCounts counts = new BinCounts(bins);
+            for (int i = 0; i < 100; i++) {
+                counts.add(random.nextInt(bins), 1);
+            }
+            BinCounts earlier = counts.copy();
+            long[] expected = new long[bins];
+            for (int i = 0; i < bins * 2; i++) { // enough to switch a sparse instance to an array
+                int bin = random.nextInt(bins);
+                counts.add(bin, 1);
+                expected[bin]++;
+            }
+            counts.add(-bins - 1, 3);
+            BinCounts delta = counts.minus(earlier);
+            for (int i = 0; i < bins; i++) {
+                assertEquals(expected[i], delta.get(i));
+            }
+            assertEquals(3, delta.getOverflow());
+            assertEquals(0, delta.getUnderflow());
+            assertNull("the later instance is not an earlier copy", earlier.minus(counts));
+        }
+    }
+
+    @Test
+    public void testMinusCountsMissingHere() throws Exception {
+        BinCounts counts = new BinCounts(BINS);
+        counts.add(1, 1);
+        BinCounts other = new BinCounts(BINS);
+        other.add(2, 1);
+        assertNull(counts.minus(other));
+    }
+
+    @Test
+    public void testFineLayoutListsEveryBin() throws Exception {
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 1000.0, BINS));
+        histogram.record(1.05);
+        histogram.record(999.95);
+        assertTrue(histogram.getCounts().isSparse());
+        assertEquals(BINS, histogram.getBins().size());
+        assertEquals(2, histogram.getTotalCount());
+        assertEquals(1, histogram.getCount(10));
+        assertEquals(0, histogram.getBins().get(11).getCount());
+    }
+
+    private void assertSameCounts(long[] expected, BinCounts counts) {
+        long total = 0;
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("bin " + i, expected[i], counts.get(i));
+            total += expected[i];
+        }
+        assertEquals(total, counts.getTotal());
+    }
+}
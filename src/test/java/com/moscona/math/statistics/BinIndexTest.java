@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BinIndex Tester.
+ * Checks that the indexed lookup in RangeHistogram agrees with a plain linear scan of the bins.
+ */
+public class BinIndexTest {
+
+    @Test
+    public void testIntegerBinsMatchLinearScan() throws Exception {
+        RangeHistogram<Integer> histogram = new RangeHistogram<>();
+        histogram.addBin(-10, -5, 1).addBin(0, 0, 2).addBin(1, 10, 3).addBin(20, 30, 4).addBin(31, 31, 5);
+        List<Integer> probes = new ArrayList<>();
+        for (int i = -15; i <= 35; i++) {
+            probes.add(i);
+        }
+        Random random = new Random(17);
+        for (int i = 0; i < 1000; i++) {
+            probes.add(random.nextInt(100) - 50);
+        }
+        assertMatchesLinearScan(histogram, probes);
+    }
+
+    @Test
+    public void testRealBinsMatchLinearScan() throws Exception {
+        RangeHistogram<Double> histogram = new RangeHistogram<>();
+        histogram.addBin(0.0, 1.0, 1).addBin(1.0, 2.5, 2).addBin(2.5, 2.5, 3).addBin(2.5, 4.0, 4)
+                .addBin(5.0, 6.0, 5).addBin(7.25, 100.0, 6);
+        List<Double> probes = new ArrayList<>();
+        for (Bin<Double> bin: histogram.getBins()) {
+            probes.add(bin.getFrom());
+            probes.add(bin.getTo());
+            probes.add(Math.nextDown(bin.getFrom()));
+            probes.add(Math.nextUp(bin.getTo()));
+        }
+        probes.add(-1.0);
+        probes.add(4.5);
+        probes.add(1000.0);
+        Random random = new Random(17);
+        for (int i = 0; i < 1000; i++) {
+            probes.add(random.nextDouble() * 120.0 - 10.0);
+        }
+        assertMatchesLinearScan(histogram, probes);
+    }
+
+    @Test
+    public void testStringBinsMatchLinearScan() throws Exception {
+        RangeHistogram<String> histogram = new RangeHistogram<>();
+        histogram.addBin("apple", "banana", 1).addBin("cherry", "grape", 2).addBin("kiwi", "kiwi", 3)
+                .addBin("mango", "peach", 4);
+        String[] words = {"", "a", "apple", "apricot", "banana", "bananas", "blueberry", "cherry", "date", "grape",
+                "grapefruit", "kiwi", "kiwis", "lemon", "mango", "orange", "peach", "pear", "zucchini"};
+        List<String> probes = new ArrayList<>();
+        for (String word: words) {
+            probes.add(word);
+        }
+        assertMatchesLinearScan(histogram, probes);
+    }
+
+    @Test
+    public void testEmptyHistogram() throws Exception {
+        RangeHistogram<Integer> histogram = new RangeHistogram<>();
+        assertNull(histogram.findBin(1));
+        assertFalse(histogram.contains(1));
+        assertFalse(histogram.isInGap(1));
+    }
+
+    @Test
+    public void testIndexRebuiltAfterAddBin() throws Exception {
+        RangeHistogram<Integer> histogram = new RangeHistogram<>();
+        histogram.addBin(1, 10, 1);
+        assertFalse(histogram.contains(15));
+        histogram.addBin(11, 20, 2);
+        assertTrue("index should see bins added after a lookup", histogram.contains(15));
+    }
+
+    @Test
+    public void testIsInGap() throws Exception {
+        RangeHistogram<Integer> histogram = new RangeHistogram<>();
+        histogram.addBin(1, 10, 1).addBin(20, 30, 2);
+        assertTrue(histogram.isInGap(15));
+        assertFalse("below all bins is not a gap", histogram.isInGap(0));
+        assertFalse("above all bins is not a gap", histogram.isInGap(31));
+        assertFalse("contained values are not in a gap", histogram.isInGap(10));
+    }
+
+    private <T extends Comparable<T>> void assertMatchesLinearScan(RangeHistogram<T> histogram, List<T> probes) {
+        List<Bin<T>> bins = histogram.getBins();
+        for (T probe: probes) {
+            Bin<T> expected = null;
+            for (Bin<T> bin: bins) {
+                if (bin.contains(probe)) {
+                    expected = bin;
+                    break;
+                }
+            }
+            assertEquals("wrong bin for " + probe, expected, histogram.findBin(probe));
+            assertEquals("wrong contains() for " + probe, expected != null, histogram.contains(probe));
+
+            boolean below = bins.isEmpty() || probe.compareTo(bins.get(0).getFrom()) < 0;
+            boolean above = bins.isEmpty() || probe.compareTo(bins.get(bins.size() - 1).getTo()) > 0;
+            assertEquals("wrong gap classification for " + probe, expected == null && !below && !above,
+                    histogram.isInGap(probe));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidStateException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * BinLayout Tester.
+ * Also covers sharing layouts between histograms and the equality of histograms.
+ */
+public class BinLayoutTest {
+
+    @Test
+    public void testEqualLayoutsAreInterned() throws Exception {
+        BinLayout<Integer> layout = BinLayout.of(Arrays.asList(new Bin<>(11, 20, 5), new Bin<>(1, 10, 3)));
+        BinLayout<Integer> same = BinLayout.of(Arrays.asList(new Bin<>(1, 10, 0), new Bin<>(11, 20, 0)));
+        BinLayout<Integer> other = BinLayout.of(Arrays.asList(new Bin<>(1, 10, 0), new Bin<>(11, 21, 0)));
+        assertSame(layout, same);
+        assertNotEquals(layout, other);
+        assertEquals(2, layout.getNumberOfBins());
+        assertEquals(1, (int) layout.getFrom(0));
+        assertEquals(Arrays.asList(new Bin<>(1, 10, 0), new Bin<>(11, 20, 0)), layout.getBins());
+    }
+
+    @Test(expected = InvalidStateException.class)
+    public void testOverlappingBins() throws Exception {
+        BinLayout.of(Arrays.asList(new Bin<>(1, 10, 0), new Bin<>(10, 20, 0)));
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        BinLayout<Integer> layout = BinLayout.of(Arrays.asList(new Bin<>(1, 10, 0), new Bin<>(21, 30, 0)));
+        assertEquals(1, layout.findBinIndex(25));
+        assertEquals(-1, layout.findBinIndex(0));
+        assertTrue(layout.isInGap(15));
+        assertFalse(layout.isInGap(31));
+    }
+
+    @Test
+    public void testHistogramsShareLayouts() throws Exception {
+        RangeHistogram<Integer> first = new RangeHistogram<>();
+        first.addBin(1, 10, 0).addBin(11, 20, 0);
+        RangeHistogram<Integer> second = new RangeHistogram<>();
+        second.addBin(11, 20, 0).addBin(1, 10, 0);
+        assertSame(first.getLayout(), second.getLayout());
+
+        RangeHistogram<Integer> third = new RangeHistogram<>(first.getLayout());
+        third.record(5);
+        first.add(third);
+        assertEquals(1, first.findBin(5).getCount());
+
+        third.addBin(21, 30, 0);
+        assertEquals("adding a bin should not affect histograms sharing the old layout", 2,
+                first.getNumberOfBins());
+    }
+
+    @Test
+    public void testConcurrentSnapshotSharesLayout() throws Exception {
+        RangeHistogram<Integer> layout = new RangeHistogram<>();
+        layout.addBin(1, 10, 0).addBin(11, 20, 0);
+        ConcurrentRangeHistogram<Integer> concurrent = new ConcurrentRangeHistogram<>(layout);
+        concurrent.record(3);
+        RangeHistogram<Integer> snapshot = concurrent.snapshot();
+        assertSame(layout.getLayout(), snapshot.getLayout());
+        assertEquals(1, snapshot.getCount(0));
+    }
+
+    @Test
+    public void testHistogramEquality() throws Exception {
+        RangeHistogram<Double> generic = new RangeHistogram<>();
+        generic.addBin(0.0, 1.0, 0).addBin(1.0, 2.0, 0);
+        DoubleRangeHistogram primitive = DoubleRangeHistogram.contiguous(0.0, 1.0, 2.0);
+        assertEquals(generic, primitive);
+        assertEquals(primitive, generic);
+
+        generic.record(0.5);
+        assertNotEquals(generic, primitive);
+        primitive.record(0.25);
+        assertEquals("histograms with equal bins and counts should be equal", generic, primitive);
+        assertEquals(generic.hashCode(), primitive.hashCode());
+        assertEquals(generic.getBins().hashCode(), generic.hashCode());
+
+        primitive.record(5.0);
+        assertEquals("out of range counts are not compared", generic, primitive);
+
+        RangeHistogram<Double> finer = new RangeHistogram<>();
+        finer.addBin(0.0, 1.0, 1).addBin(1.0, 2.5, 0);
+        assertNotEquals(generic, finer);
+        assertNotEquals(generic, "not a histogram");
+    }
+
+    @Test
+    public void testEqualityAcrossLayoutClasses() throws Exception {
+        DoubleRangeHistogram linear = new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 4.0, 4));
+        DoubleRangeHistogram explicit = DoubleRangeHistogram.contiguous(0.0, 1.0, 2.0, 3.0, 4.0);
+        RangeHistogram<Double> generic = new RangeHistogram<>();
+        generic.addBins(explicit.getBins());
+        assertEquals(linear.getBins(), explicit.getBins());
+        assertEquals(generic, linear);
+        assertEquals(generic, explicit);
+        assertEquals("equality should be transitive", linear, explicit);
+        assertEquals(explicit, linear);
+        assertEquals(linear.hashCode(), explicit.hashCode());
+
+        linear.record(2.5);
+        assertNotEquals(linear, explicit);
+    }
+
+    @Test
+    public void testInternedDoubleLayouts() throws Exception {
+        ExplicitDoubleBinLayout layout = new ExplicitDoubleBinLayout(new double[] {0.0, 2.0}, new double[] {1.0, 3.0});
+        ExplicitDoubleBinLayout same = new ExplicitDoubleBinLayout(new double[] {2.0, 0.0}, new double[] {3.0, 1.0});
+        assertNotSame(layout, same);
+        assertSame(layout.intern(), same.intern());
+        assertSame(ExplicitDoubleBinLayout.contiguous(0.0, 1.0, 2.0), ExplicitDoubleBinLayout.contiguous(0.0, 1.0, 2.0));
+    }
+
+    @Test
+    public void testDecodedHistogramsShareLayouts() throws Exception {
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(new double[] {0.0, 5.0}, new double[] {1.0, 6.0});
+        histogram.record(0.5);
+        ByteBuffer buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(histogram));
+        HistogramCodec.encode(histogram, buffer);
+        buffer.flip();
+        DoubleRangeHistogram first = HistogramCodec.decodeDouble(buffer.duplicate());
+        DoubleRangeHistogram second = HistogramCodec.decodeDouble(buffer.duplicate());
+        assertSame(first.getLayout(), second.getLayout());
+        assertEquals(histogram, first);
+    }
+
+    @Test
+    public void testLongHistogramsShareBins() throws Exception {
+        LongRangeHistogram histogram = LongRangeHistogram.contiguous(0, 10, 20);
+        histogram.record(5);
+        LongRangeHistogram empty = histogram.newEmptyHistogram();
+        assertEquals(0, empty.getTotalCount());
+        empty.add(histogram);
+        assertEquals(histogram, empty);
+    }
+}
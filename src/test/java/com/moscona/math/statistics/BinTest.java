@@ -232,6 +232,44 @@ public class BinTest {
     }
 
 
+    @Test(expected = InvalidArgumentException.class)
+    public void testNaNBoundary() throws Exception {
+        new Bin<>(0.0, Double.NaN, 0);
+    }
+
+    @Test
+    public void testNegativeZero() throws Exception {
+        Bin<Double> negative = new Bin<>(-0.0, 1.0, 2);
+        Bin<Double> positive = new Bin<>(0.0, 1.0, 2);
+        assertEquals(positive, negative);
+        assertEquals(positive.hashCode(), negative.hashCode());
+        assertEquals(0, negative.compareTo(positive));
+        assertTrue(positive.contains(-0.0));
+    }
+
+    @Test
+    public void testInfiniteBoundaries() throws Exception {
+        Bin<Double> bin = new Bin<>(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0);
+        assertTrue(bin.contains(Double.POSITIVE_INFINITY));
+        assertTrue(bin.contains(-Double.MAX_VALUE));
+        assertFalse(bin.contains(Double.NaN));
+    }
+
+    @Test
+    public void testGranularity() throws Exception {
+        Granularity granularity = Granularity.absolute(1e-9);
+        Bin<Double> bin = new Bin<>(0.3, 0.6, 1, granularity);
+        assertTrue(bin.contains(0.6 + 1e-12));
+        assertFalse(new Bin<>(0.3, 0.6, 1).contains(0.6 + 1e-12));
+        Bin<Double> sloppy = new Bin<>(0.1 + 0.2, 0.6, 1, granularity);
+        assertEquals(bin, sloppy);
+        assertEquals(bin.hashCode(), sloppy.hashCode());
+        assertEquals(0, bin.compareTo(sloppy));
+        assertNotEquals("bins of different granularities are different", bin, new Bin<>(0.3, 0.6, 1));
+        assertSame(Granularity.EXACT, new Bin<>(1, 2, 0, granularity).getGranularity());
+        new Bin<>(1.0 + 1e-12, 1.0, 0, granularity); // from is not larger than to within the grain
+    }
+
     /**
      * Method: isNumeric()
      */
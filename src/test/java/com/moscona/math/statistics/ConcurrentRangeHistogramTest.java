@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConcurrentRangeHistogram Tester.
+ */
+public class ConcurrentRangeHistogramTest {
+    private static final int THREADS = 8;
+    private static final int RECORDS_PER_THREAD = 200000;
+
+    private ConcurrentRangeHistogram<Integer> histogram;
+
+    @Before
+    public void before() throws Exception {
+        RangeHistogram<Integer> layout = new RangeHistogram<>();
+        for (int i = 0; i < 10; i++) {
+            layout.addBin(i * 100, i * 100 + 89, 42); // gaps of 10 between bins
+        }
+        histogram = new ConcurrentRangeHistogram<>(layout);
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        histogram.record(5);
+        histogram.record(150, 3);
+        histogram.record(-1);
+        histogram.record(95);
+        histogram.record(1000, 2);
+        assertEquals("layout counts should not be copied", 1, histogram.getCount(0));
+        assertEquals(3, histogram.getCount(1));
+        assertEquals(4, histogram.getTotalCount());
+        assertEquals(1, histogram.getUnderflowCount());
+        assertEquals(1, histogram.getGapCount());
+        assertEquals(2, histogram.getOverflowCount());
+        assertEquals(new Bin<>(100, 189, 3), histogram.findBin(100));
+    }
+
+    @Test
+    public void testSnapshotIsIndependent() throws Exception {
+        histogram.record(5);
+        ImmutableRangeHistogram<Integer> snapshot = histogram.snapshot();
+        histogram.record(5);
+        assertEquals(1, snapshot.findBin(5).getCount());
+        assertEquals(2, histogram.findBin(5).getCount());
+        assertEquals(10, snapshot.getBins().size());
+    }
+
+    @Test
+    public void testSnapshotDelta() throws Exception {
+        histogram.record(5);
+        RangeHistogram<Integer> earlier = histogram.snapshot();
+        histogram.record(5, 2);
+        histogram.record(150);
+        RangeHistogram<Integer> delta = histogram.snapshot().minus(earlier);
+        assertEquals(2, delta.findBin(5).getCount());
+        assertEquals(1, delta.findBin(150).getCount());
+        assertEquals(3, delta.getSummaryStatistics().getCount());
+    }
+
+    @Test
+    public void testNoLostCountsUnderContention() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Future<?>> recorders = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            recorders.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    histogram.record(i % 1100 - 50); // covers underflow, gaps, all bins and overflow
+                }
+                return null;
+            }));
+        }
+        Future<?> reader = executor.submit(() -> {
+            start.await();
+            long previousTotal = 0;
+            while (!done.get()) {
+                ImmutableRangeHistogram<Integer> snapshot = histogram.snapshot();
+                long total = 0;
+                for (Bin<Integer> bin: snapshot.getBins()) {
+                    total += bin.getCount();
+                }
+                assertTrue("snapshot totals should never go backwards", total >= previousTotal);
+                previousTotal = total;
+            }
+            return null;
+        });
+
+        start.countDown();
+        for (Future<?> recorder: recorders) {
+            recorder.get(60, TimeUnit.SECONDS);
+        }
+        done.set(true);
+        reader.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // each thread records the same sequence, so the expected counts can be computed with a sequential histogram
+        RangeHistogram<Integer> expected = new RangeHistogram<>();
+        for (Bin<Integer> bin: histogram.getBins()) {
+            expected.addBin(bin.getFrom(), bin.getTo(), 0);
+        }
+        for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+            expected.record(i % 1100 - 50, THREADS);
+        }
+        assertEquals(expected.getBins(), histogram.snapshot().getBins());
+        assertEquals(expected.getUnderflowCount(), histogram.getUnderflowCount());
+        assertEquals(expected.getGapCount(), histogram.getGapCount());
+        assertEquals(expected.getOverflowCount(), histogram.getOverflowCount());
+        assertEquals((long) THREADS * RECORDS_PER_THREAD, histogram.getTotalCount() + histogram.getUnderflowCount()
+                + histogram.getGapCount() + histogram.getOverflowCount());
+        SummaryStatistics summary = histogram.getSummaryStatistics();
+        assertEquals((long) THREADS * RECORDS_PER_THREAD, summary.getCount());
+        assertEquals(expected.getSummaryStatistics().getMean(), summary.getMean(), 1e-9);
+        assertEquals(expected.getSummaryStatistics().getVariance(), summary.getVariance(), 1e-6);
+        assertEquals(-50.0, summary.getMin(), 0.0);
+        assertEquals(histogram.snapshot().getSummaryStatistics().getCount(), summary.getCount());
+    }
+}
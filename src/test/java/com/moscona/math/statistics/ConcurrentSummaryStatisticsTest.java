@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * ConcurrentSummaryStatistics Tester.
+ */
+public class ConcurrentSummaryStatisticsTest {
+    @Test
+    public void testEmpty() throws Exception {
+        SummaryStatistics summary = new ConcurrentSummaryStatistics().get();
+        assertEquals(0, summary.getCount());
+        assertTrue(Double.isNaN(summary.getMean()));
+        assertTrue(Double.isNaN(summary.getMin()));
+    }
+
+    @Test
+    public void testMatchesSummaryStatistics() throws Exception {
+        Random random = new Random(17);
+        ConcurrentSummaryStatistics concurrent = new ConcurrentSummaryStatistics();
+        SummaryStatistics expected = new SummaryStatistics();
+        for (int i = 0; i < 10000; i++) {
+            double value = 1e6 + random.nextGaussian(); // a large offset defeats the sum of squares formula
+            long weight = 1 + random.nextInt(3);
+            concurrent.add(value, weight);
+            expected.add(value, weight);
+        }
+        concurrent.add(Double.NaN, 1);
+        SummaryStatistics summary = concurrent.get();
+        assertEquals(expected.getCount(), summary.getCount());
+        assertEquals(expected.getMean(), summary.getMean(), 1e-6);
+        assertEquals(expected.getVariance(), summary.getVariance(), 1e-6);
+        assertEquals(expected.getSum(), summary.getSum(), 1e-3);
+        assertEquals(expected.getMin(), summary.getMin(), 0.0);
+        assertEquals(expected.getMax(), summary.getMax(), 0.0);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        SummaryStatistics other = new SummaryStatistics();
+        SummaryStatistics expected = new SummaryStatistics();
+        ConcurrentSummaryStatistics concurrent = new ConcurrentSummaryStatistics();
+        for (double value: new double[] {1.0, 2.0, 3.0}) {
+            concurrent.add(value, 1);
+            expected.record(value);
+        }
+        for (double value: new double[] {10.0, 20.0}) {
+            other.record(value);
+            expected.record(value);
+        }
+        concurrent.merge(other);
+        concurrent.merge(new SummaryStatistics());
+        SummaryStatistics summary = concurrent.get();
+        assertEquals(5, summary.getCount());
+        assertEquals(expected.getMean(), summary.getMean(), 1e-9);
+        assertEquals(expected.getVariance(), summary.getVariance(), 1e-9);
+        assertEquals(36.0, summary.getSum(), 1e-9);
+        assertEquals(20.0, summary.getMax(), 0.0);
+    }
+
+    @Test
+    public void testInfiniteFirstValue() throws Exception {
+        ConcurrentSummaryStatistics concurrent = new ConcurrentSummaryStatistics();
+        concurrent.add(Double.POSITIVE_INFINITY, 1);
+        concurrent.add(1.0, 1);
+        SummaryStatistics summary = concurrent.get();
+        assertEquals(Double.POSITIVE_INFINITY, summary.getSum(), 0.0);
+        assertEquals(1.0, summary.getMin(), 0.0);
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        ConcurrentSummaryStatistics concurrent = new ConcurrentSummaryStatistics();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 1; i <= 100000; i++) {
+                    concurrent.add(i, 1);
+                }
+            }));
+        }
+        for (Future<?> future: futures) {
+            future.get();
+        }
+        executor.shutdown();
+        SummaryStatistics summary = concurrent.get();
+        assertEquals(400000, summary.getCount());
+        assertEquals(50000.5, summary.getMean(), 1e-6);
+        assertEquals((100000.0 * 100000.0 - 1) / 12, summary.getVariance(), 1e-3);
+        assertEquals(1.0, summary.getMin(), 0.0);
+        assertEquals(100000.0, summary.getMax(), 0.0);
+    }
+}
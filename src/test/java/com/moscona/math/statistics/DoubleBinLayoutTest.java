@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the DoubleBinLayout implementations.
+ * The arithmetic layouts are checked against an explicit layout with the same boundaries, which uses a binary search.
+ */
+public class DoubleBinLayoutTest {
+
+    @Test
+    public void testLinearLayout() throws Exception {
+        LinearDoubleBinLayout layout = new LinearDoubleBinLayout(-1.0, 2.0, 30);
+        assertEquals(30, layout.getNumberOfBins());
+        assertEquals(-1.0, layout.getLowerBound(0), 0.0);
+        assertEquals(2.0, layout.getUpperBound(29), 0.0);
+        assertEquals(0.1, layout.getUpperBound(0) - layout.getLowerBound(0), 1e-12);
+        assertMatchesExplicitLayout(layout, -2.0, 3.0);
+    }
+
+    @Test
+    public void testLogLayout() throws Exception {
+        LogDoubleBinLayout layout = new LogDoubleBinLayout(0.001, 10.0, 9);
+        assertEquals(0.001, layout.getLowerBound(0), 0.0);
+        assertEquals(1e6, layout.getUpperBound(8), 1e-6);
+        assertEquals(3, layout.findBinIndex(5.0));
+        assertEquals("a power of the base belongs to the lower bin", 2, layout.findBinIndex(layout.getUpperBound(2)));
+        assertMatchesExplicitLayout(layout, 0.0, 2e6);
+        assertMatchesExplicitLayout(new LogDoubleBinLayout(1.0, 1.1, 300), 0.5, 1e13);
+    }
+
+    @Test
+    public void testLogLinearLayout() throws Exception {
+        LogLinearDoubleBinLayout layout = new LogLinearDoubleBinLayout(1.0, 3600000.0, 2);
+        assertEquals(0.0, layout.getLowerBound(0), 0.0);
+        assertTrue(layout.getUpperBound(layout.getNumberOfBins() - 1) >= 3600000.0);
+        for (int i = 0; i < layout.getNumberOfBins(); i++) {
+            double lower = layout.getLowerBound(i);
+            double upper = layout.getUpperBound(i);
+            assertTrue("bins should be contiguous", i == 0 || lower == layout.getUpperBound(i - 1));
+            if (lower >= 1.0) {
+                assertTrue("bin " + i + " is wider than 2 significant digits", (upper - lower) / lower <= 0.01);
+            }
+        }
+        assertMatchesExplicitLayout(layout, -1.0, 5000000.0);
+        assertMatchesExplicitLayout(new LogLinearDoubleBinLayout(0.001, 1000.0, 3), -1.0, 2000.0);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testLogLinearTooManyDigits() throws Exception {
+        new LogLinearDoubleBinLayout(1.0, 1000.0, 6);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testLogBaseTooSmall() throws Exception {
+        new LogDoubleBinLayout(1.0, 1.0, 10);
+    }
+
+    @Test
+    public void testHistogramView() throws Exception {
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 10.0, 10));
+        histogram.record(2.5);
+        histogram.record(3.0);
+        List<Bin<Double>> bins = histogram.getBins();
+        assertEquals(10, bins.size());
+        assertEquals(new Bin<>(2.0, 3.0, 2), histogram.findBin(2.2));
+        assertEquals(bins, DoubleRangeHistogram.copyOf(histogram).getBins());
+    }
+
+    @Test
+    public void testExplicitLayoutGranularity() throws Exception {
+        ExplicitDoubleBinLayout exact = ExplicitDoubleBinLayout.contiguous(0.0, 0.3, 0.6);
+        ExplicitDoubleBinLayout layout = exact.withGranularity(Granularity.absolute(1e-9));
+        assertEquals(-3, exact.findBinIndex(0.6 + 1e-12));
+        assertEquals(1, layout.findBinIndex(0.6 + 1e-12));
+        assertEquals(0, layout.findBinIndex(0.1 + 0.2));
+        assertEquals(0, layout.findBinIndex(-1e-12));
+        assertEquals(-1, layout.findBinIndex(-1e-6));
+        assertEquals(-3, layout.findBinIndex(Double.NaN));
+        assertEquals(-3, layout.findBinIndex(Double.POSITIVE_INFINITY));
+        assertEquals(-1, layout.findBinIndex(Double.NEGATIVE_INFINITY));
+        assertNotEquals(exact, layout);
+        assertSame(layout, layout.withGranularity(Granularity.absolute(1e-9)));
+
+        ExplicitDoubleBinLayout sloppy = new ExplicitDoubleBinLayout(new double[] {0.1 + 0.2, 0.0},
+                new double[] {0.6, 0.3}, Granularity.absolute(1e-9));
+        assertEquals(layout, sloppy);
+        assertEquals(layout.hashCode(), sloppy.hashCode());
+        assertEquals(0.1 + 0.2, sloppy.getLowerBound(1), 0.0);
+    }
+
+    @Test
+    public void testExplicitLayoutEdges() throws Exception {
+        ExplicitDoubleBinLayout layout = new ExplicitDoubleBinLayout(
+                new double[] {Double.NEGATIVE_INFINITY, 0.0}, new double[] {-0.0, Double.POSITIVE_INFINITY});
+        assertEquals(0, layout.findBinIndex(0.0));
+        assertEquals(0, layout.findBinIndex(-0.0));
+        assertEquals(1, layout.findBinIndex(Double.MIN_VALUE));
+        assertEquals(0, layout.findBinIndex(Double.NEGATIVE_INFINITY));
+        assertEquals(1, layout.findBinIndex(Double.POSITIVE_INFINITY));
+        assertEquals(-3, layout.findBinIndex(Double.NaN));
+        assertEquals("the sign of zero does not matter",
+                layout, new ExplicitDoubleBinLayout(new double[] {Double.NEGATIVE_INFINITY, -0.0},
+                        new double[] {0.0, Double.POSITIVE_INFINITY}));
+    }
+
+    @Test(expected = com.moscona.exceptions.InvalidStateException.class)
+    public void testExplicitLayoutOverlapBeyondGranularity() throws Exception {
+        new ExplicitDoubleBinLayout(new double[] {0.0, 0.29}, new double[] {0.3, 0.6}, Granularity.absolute(1e-9));
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        assertEquals(new LinearDoubleBinLayout(0.0, 1.0, 10), new LinearDoubleBinLayout(0.0, 1.0, 10));
+        assertNotEquals(new LinearDoubleBinLayout(0.0, 1.0, 10), new LinearDoubleBinLayout(0.0, 1.0, 11));
+        assertEquals(new LogDoubleBinLayout(1.0, 2.0, 10).hashCode(), new LogDoubleBinLayout(1.0, 2.0, 10).hashCode());
+        assertEquals(ExplicitDoubleBinLayout.contiguous(1.0, 2.0, 3.0), ExplicitDoubleBinLayout.contiguous(1.0, 2.0, 3.0));
+    }
+
+    private void assertMatchesExplicitLayout(DoubleBinLayout layout, double low, double high) throws Exception {
+        int size = layout.getNumberOfBins();
+        double[] boundaries = new double[size + 1];
+        for (int i = 0; i < size; i++) {
+            boundaries[i] = layout.getLowerBound(i);
+            assertEquals("bins should be contiguous", boundaries[i], i == 0 ? boundaries[i] : layout.getUpperBound(i - 1), 0.0);
+        }
+        boundaries[size] = layout.getUpperBound(size - 1);
+        ExplicitDoubleBinLayout explicit = ExplicitDoubleBinLayout.contiguous(boundaries);
+
+        for (double boundary: boundaries) {
+            assertSameBin(layout, explicit, boundary);
+            assertSameBin(layout, explicit, Math.nextUp(boundary));
+            assertSameBin(layout, explicit, Math.nextDown(boundary));
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            assertSameBin(layout, explicit, low + random.nextDouble() * (high - low));
+            assertSameBin(layout, explicit, Math.exp(random.nextDouble() * Math.log(high + 1.0)) - 1.0);
+        }
+        assertSameBin(layout, explicit, Double.NaN);
+        assertSameBin(layout, explicit, Double.POSITIVE_INFINITY);
+        assertSameBin(layout, explicit, Double.NEGATIVE_INFINITY);
+    }
+
+    private void assertSameBin(DoubleBinLayout layout, DoubleBinLayout explicit, double value) {
+        assertEquals("wrong bin for " + value, explicit.findBinIndex(value), layout.findBinIndex(value));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * DoubleQuantileSketch Tester.
+ * The error bound tests compare the estimates against the exact ranks of the full stream.
+ */
+public class DoubleQuantileSketchTest {
+    private static final int N = 200000;
+
+    @Test
+    public void testRankErrorOnLogNormal() throws Exception {
+        Random random = new Random(1);
+        assertWithinRankError(() -> Math.exp(random.nextGaussian() * 2.0), 1);
+    }
+
+    @Test
+    public void testRankErrorOnPareto() throws Exception {
+        Random random = new Random(2);
+        assertWithinRankError(() -> Math.pow(1.0 - random.nextDouble(), -1.0 / 1.1), 2);
+    }
+
+    @Test
+    public void testRankErrorOnHeavyTies() throws Exception {
+        Random random = new Random(3);
+        // mostly zeros, with a long exponential tail
+        assertWithinRankError(() -> random.nextDouble() < 0.9 ? 0.0 : -Math.log(random.nextDouble()) * 1000.0, 3);
+    }
+
+    @Test
+    public void testRankErrorOnSortedStream() throws Exception {
+        int[] next = {0};
+        assertWithinRankError(() -> next[0]++, 4);
+    }
+
+    @Test
+    public void testRankErrorAfterMerging() throws Exception {
+        Random random = new Random(5);
+        double[] values = new double[N];
+        DoubleQuantileSketch merged = new DoubleQuantileSketch(DoubleQuantileSketch.DEFAULT_K, 5);
+        for (int part = 0; part < 10; part++) {
+            DoubleQuantileSketch sketch = new DoubleQuantileSketch(DoubleQuantileSketch.DEFAULT_K, 50 + part);
+            for (int i = part * N / 10; i < (part + 1) * N / 10; i++) {
+                values[i] = Math.exp(random.nextGaussian() * 3.0);
+                sketch.update(values[i]);
+            }
+            merged.merge(sketch);
+        }
+        assertEquals(N, merged.getN());
+        assertWithinRankError(merged, values);
+    }
+
+    @Test
+    public void testMemoryIsBounded() throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch();
+        Random random = new Random(6);
+        int maxRetained = 0;
+        for (int i = 0; i < 2000000; i++) {
+            sketch.update(random.nextDouble());
+            maxRetained = Math.max(maxRetained, sketch.getNumberOfRetainedValues());
+        }
+        assertTrue("retained " + maxRetained, maxRetained < 4 * DoubleQuantileSketch.DEFAULT_K);
+    }
+
+    @Test
+    public void testMinMaxAndExtremeQuantiles() throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch(DoubleQuantileSketch.DEFAULT_K, 7);
+        for (int i = 1; i <= 100000; i++) {
+            sketch.update(i);
+        }
+        sketch.update(Double.NaN);
+        assertEquals(100000, sketch.getN());
+        assertEquals(1.0, sketch.getMin(), 0.0);
+        assertEquals(100000.0, sketch.getMax(), 0.0);
+        assertEquals(1.0, sketch.getQuantile(0.0), 0.0);
+        assertEquals(100000.0, sketch.getQuantile(1.0), 0.0);
+        assertEquals(0.0, sketch.getRank(1.0), 0.0);
+    }
+
+    @Test
+    public void testEmptySketch() throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch();
+        assertTrue(sketch.isEmpty());
+        assertTrue(Double.isNaN(sketch.getQuantile(0.5)));
+        assertTrue(Double.isNaN(sketch.getRank(0.5)));
+        assertEquals(0, sketch.toHistogram(0.0, 1.0).getTotalCount());
+    }
+
+    @Test(expected = InvalidStateException.class)
+    public void testEquiDepthHistogramOfEmptySketch() throws Exception {
+        new DoubleQuantileSketch().toHistogram(10);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testInvalidK() throws Exception {
+        new DoubleQuantileSketch(4);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMergeDifferentK() throws Exception {
+        new DoubleQuantileSketch(100).merge(new DoubleQuantileSketch(200));
+    }
+
+    @Test
+    public void testEquiDepthHistogram() throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch(DoubleQuantileSketch.DEFAULT_K, 8);
+        Random random = new Random(8);
+        for (int i = 0; i < N; i++) {
+            sketch.update(Math.exp(random.nextGaussian() * 2.0));
+        }
+        DoubleRangeHistogram histogram = sketch.toHistogram(10);
+        assertEquals(10, histogram.getNumberOfBins());
+        assertEquals(sketch.getMin(), histogram.getLowerBound(0), 0.0);
+        assertEquals(sketch.getMax(), histogram.getUpperBound(9), 0.0);
+        assertEquals(N, histogram.getTotalCount());
+        double tolerance = 2 * sketch.getNormalizedRankError() * N;
+        for (int i = 0; i < 10; i++) {
+            assertEquals("bin " + i, N / 10.0, histogram.getCount(i), tolerance);
+        }
+    }
+
+    @Test
+    public void testEquiDepthHistogramOfEqualValues() throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch();
+        for (int i = 0; i < 1000; i++) {
+            sketch.update(5.0);
+        }
+        DoubleRangeHistogram histogram = sketch.toHistogram(10);
+        assertEquals(1, histogram.getNumberOfBins());
+        assertEquals(1000, histogram.getCount(0));
+    }
+
+    @Test
+    public void testHistogramWithGivenBoundaries() throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch(DoubleQuantileSketch.DEFAULT_K, 9);
+        for (int i = 0; i < N; i++) {
+            sketch.update(i % 1000);
+        }
+        DoubleRangeHistogram histogram = sketch.toHistogram(100.0, 500.0, 900.0);
+        assertEquals(N, histogram.getTotalCount() + histogram.getUnderflowCount() + histogram.getOverflowCount());
+        double tolerance = sketch.getNormalizedRankError() * N;
+        assertEquals(N / 10.0, histogram.getUnderflowCount(), tolerance);
+        assertEquals(N * 0.4, histogram.getCount(0), 2 * tolerance);
+        assertEquals(N * 0.4, histogram.getCount(1), 2 * tolerance);
+    }
+
+    private void assertWithinRankError(DoubleSupplier source, long seed) throws Exception {
+        DoubleQuantileSketch sketch = new DoubleQuantileSketch(DoubleQuantileSketch.DEFAULT_K, seed);
+        double[] values = new double[N];
+        for (int i = 0; i < N; i++) {
+            values[i] = source.getAsDouble();
+            sketch.update(values[i]);
+        }
+        assertWithinRankError(sketch, values);
+    }
+
+    private void assertWithinRankError(DoubleQuantileSketch sketch, double[] values) throws Exception {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        double bound = sketch.getNormalizedRankError();
+        for (int i = 1; i < 100; i++) {
+            double q = i / 100.0;
+            // the estimate must be the true value at some rank within the bound
+            double estimate = sketch.getQuantile(q);
+            double lowestRank = (double) lowerBound(sorted, estimate) / sorted.length;
+            double highestRank = (double) upperBound(sorted, estimate) / sorted.length;
+            assertTrue("quantile " + q + " estimated as " + estimate + " with ranks " + lowestRank + " to " + highestRank,
+                    lowestRank - bound <= q && q <= highestRank + bound);
+
+            double probe = sorted[(int) (q * sorted.length)];
+            double trueRank = (double) lowerBound(sorted, probe) / sorted.length;
+            assertEquals("rank of " + probe, trueRank, sketch.getRank(probe), bound);
+        }
+    }
+
+    private static int lowerBound(double[] sorted, double value) {
+        int i = Arrays.binarySearch(sorted, value);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i > 0 && sorted[i - 1] == value) {
+            i--;
+        }
+        return i;
+    }
+
+    private static int upperBound(double[] sorted, double value) {
+        int i = Arrays.binarySearch(sorted, value);
+        if (i < 0) {
+            return -i - 1;
+        }
+        while (i < sorted.length && sorted[i] == value) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * DoubleRangeHistogram2D Tester.
+ */
+public class DoubleRangeHistogram2DTest {
+    private DoubleRangeHistogram2D histogram;
+
+    @Before
+    public void before() throws Exception {
+        // latency in ms by payload size in bytes
+        histogram = new DoubleRangeHistogram2D(new LinearDoubleBinLayout(0.0, 100.0, 10),
+                new ExplicitDoubleBinLayout(new double[] {0.0, 1000.0}, new double[] {500.0, 10000.0}));
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        histogram.record(5.0, 100.0);
+        histogram.record(5.0, 100.0, 2);
+        histogram.record(55.0, 5000.0);
+        histogram.record(55.0, 700.0); // in the gap on the y axis
+        histogram.record(500.0, 100.0); // above all x bins
+        histogram.record(Double.NaN, Double.NaN);
+        assertEquals(3, histogram.getCount(0, 0));
+        assertEquals(1, histogram.getCount(5, 1));
+        assertEquals(0, histogram.getCount(5, 0));
+        assertEquals(4, histogram.getTotalCount());
+        assertEquals(6, histogram.getXSummaryStatistics().getCount());
+        assertEquals(500.0, histogram.getXSummaryStatistics().getMax(), 0.0);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeWeight() throws Exception {
+        histogram.record(1.0, 1.0, -1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testNoSuchCell() throws Exception {
+        histogram.getCount(0, 2);
+    }
+
+    @Test
+    public void testMarginalsMatchOneDimensionalHistograms() throws Exception {
+        Random random = new Random(2);
+        double[] xs = new double[10000];
+        double[] ys = new double[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            xs[i] = random.nextDouble() * 120.0 - 10.0;
+            ys[i] = random.nextDouble() * 12000.0 - 1000.0;
+        }
+        histogram.recordAll(xs, ys);
+        DoubleRangeHistogram x = new DoubleRangeHistogram(histogram.getXLayout());
+        x.recordAll(xs);
+        DoubleRangeHistogram y = new DoubleRangeHistogram(histogram.getYLayout());
+        y.recordAll(ys);
+        assertSameCounts(x, histogram.getXMarginal());
+        assertSameCounts(y, histogram.getYMarginal());
+        assertEquals(x.getSummaryStatistics().getMean(), histogram.getXMarginal().getSummaryStatistics().getMean(), 0.0);
+
+        DoubleRangeHistogram smallPayloads = new DoubleRangeHistogram(histogram.getXLayout());
+        for (int i = 0; i < xs.length; i++) {
+            if (ys[i] >= 0.0 && ys[i] <= 500.0) {
+                smallPayloads.record(xs[i]);
+            }
+        }
+        DoubleRangeHistogram slice = histogram.getXHistogram(0);
+        assertEquals(smallPayloads.getBins(), slice.getBins());
+        assertEquals(smallPayloads.getOverflowCount(), slice.getOverflowCount());
+        assertEquals(histogram.getCount(3, 1), histogram.getYHistogram(3).getCount(1));
+    }
+
+    private void assertSameCounts(DoubleRangeHistogram expected, DoubleRangeHistogram actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getUnderflowCount(), actual.getUnderflowCount());
+        assertEquals(expected.getGapCount(), actual.getGapCount());
+        assertEquals(expected.getOverflowCount(), actual.getOverflowCount());
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        DoubleRangeHistogram2D other = new DoubleRangeHistogram2D(histogram.getXLayout(), histogram.getYLayout());
+        histogram.record(5.0, 100.0);
+        other.record(5.0, 100.0, 2);
+        other.record(-5.0, 100.0);
+        assertSame(histogram, histogram.add(other));
+        assertEquals(3, histogram.getCount(0, 0));
+        assertEquals(1, histogram.getXMarginal().getUnderflowCount());
+        assertEquals(4, histogram.getYSummaryStatistics().getCount());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testAddDifferentLayouts() throws Exception {
+        histogram.add(new DoubleRangeHistogram2D(histogram.getYLayout(), histogram.getXLayout()));
+    }
+
+    @Test
+    public void testMergingCollector() throws Exception {
+        DoubleRangeHistogram2D[] parts = new DoubleRangeHistogram2D[8];
+        DoubleRangeHistogram2D expected = new DoubleRangeHistogram2D(histogram.getXLayout(), histogram.getYLayout());
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = new DoubleRangeHistogram2D(histogram.getXLayout(), histogram.getYLayout());
+            parts[i].record(i * 10.0, i * 1000.0, i + 1);
+            expected.record(i * 10.0, i * 1000.0, i + 1);
+        }
+        DoubleRangeHistogram2D merged = Arrays.stream(parts).parallel()
+                .collect(DoubleRangeHistogram2D.merging(histogram.getXLayout(), histogram.getYLayout()));
+        assertEquals(expected, merged);
+        assertEquals(expected.hashCode(), merged.hashCode());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testTooManyBins() throws Exception {
+        LinearDoubleBinLayout huge = new LinearDoubleBinLayout(0.0, 1.0, 100000);
+        new DoubleRangeHistogram2D(huge, huge);
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.DoubleStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * DoubleRangeHistogram Tester.
+ */
+public class DoubleRangeHistogramTest {
+    private DoubleRangeHistogram histogram;
+
+    @Before
+    public void before() throws Exception {
+        histogram = new DoubleRangeHistogram(new double[] {5.0, 0.0, 1.0}, new double[] {6.0, 1.0, 2.5});
+    }
+
+    @Test(expected = InvalidStateException.class)
+    public void testOverlappingBins() throws Exception {
+        new DoubleRangeHistogram(new double[] {0.0, 1.0}, new double[] {1.5, 2.0});
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNaNBoundary() throws Exception {
+        new DoubleRangeHistogram(new double[] {Double.NaN}, new double[] {1.0});
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testContiguousOutOfOrder() throws Exception {
+        DoubleRangeHistogram.contiguous(1.0, 3.0, 2.0);
+    }
+
+    @Test
+    public void testFindBinIndex() throws Exception {
+        assertEquals(0, histogram.findBinIndex(0.0));
+        assertEquals("shared boundary belongs to the lower bin", 0, histogram.findBinIndex(1.0));
+        assertEquals(1, histogram.findBinIndex(2.5));
+        assertEquals(2, histogram.findBinIndex(5.5));
+        assertEquals("underflow", -1, histogram.findBinIndex(-0.5));
+        assertEquals("gap", -3, histogram.findBinIndex(3.0));
+        assertEquals("overflow", -4, histogram.findBinIndex(7.0));
+        assertEquals("NaN is treated as overflow", -4, histogram.findBinIndex(Double.NaN));
+    }
+
+    @Test
+    public void testMatchesRangeHistogram() throws Exception {
+        RangeHistogram<Double> reference = new RangeHistogram<>();
+        double[] boundaries = new double[50];
+        double boundary = 0.0;
+        Random random = new Random(5);
+        for (int i = 0; i < boundaries.length; i++) {
+            boundary += random.nextDouble();
+            boundaries[i] = boundary;
+        }
+        for (int i = 0; i < boundaries.length - 1; i += 2) {
+            reference.addBin(boundaries[i], boundaries[i + 1], 0);
+            if (i + 2 < boundaries.length) {
+                reference.addBin(boundaries[i + 1], boundaries[i + 1], 0); // zero width, touching both neighbours
+            }
+        }
+        DoubleRangeHistogram primitive = DoubleRangeHistogram.copyOf(reference);
+        assertEquals(reference.getBins(), primitive.getBins());
+        for (int i = 0; i < 10000; i++) {
+            double value = random.nextDouble() * (boundary + 2.0) - 1.0;
+            assertEquals("mismatch for " + value, reference.findBin(value), primitive.findBin(value));
+        }
+        for (double value: boundaries) {
+            assertEquals("mismatch for " + value, reference.findBin(value), primitive.findBin(value));
+        }
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        histogram.record(0.5);
+        histogram.record(1.0, 3);
+        histogram.record(2.0);
+        histogram.record(-1.0);
+        histogram.record(3.0, 2);
+        histogram.record(10.0);
+        histogram.record(Double.NaN);
+        assertEquals(4, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(0, histogram.getCount(2));
+        assertEquals(5, histogram.getTotalCount());
+        assertEquals(1, histogram.getUnderflowCount());
+        assertEquals(2, histogram.getGapCount());
+        assertEquals(2, histogram.getOverflowCount());
+        SummaryStatistics summary = histogram.getSummaryStatistics();
+        assertEquals("NaN is not summarized", 9, summary.getCount());
+        assertEquals(20.5, summary.getSum(), 0.0);
+        assertEquals(-1.0, summary.getMin(), 0.0);
+        assertEquals(10.0, summary.getMax(), 0.0);
+        summary.record(100.0);
+        assertEquals("the summary is a copy", 9, histogram.getSummaryStatistics().getCount());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeWeight() throws Exception {
+        histogram.record(1.0, -1);
+    }
+
+    @Test
+    public void testImmutableView() throws Exception {
+        histogram.record(5.5, 7);
+        ImmutableRangeHistogram<Double> view = histogram;
+        List<Bin<Double>> bins = view.getBins();
+        assertEquals(3, bins.size());
+        assertEquals(new Bin<>(0.0, 1.0, 0), bins.get(0));
+        assertEquals(new Bin<>(5.0, 6.0, 7), bins.get(2));
+        assertEquals(new Bin<>(5.0, 6.0, 7), view.findBin(5.0));
+        assertNull(view.findBin(4.0));
+        assertTrue(view.contains(2.5));
+        assertFalse(view.contains(2.6));
+    }
+
+    @Test
+    public void testContiguous() throws Exception {
+        DoubleRangeHistogram contiguous = DoubleRangeHistogram.contiguous(0.0, 1.0, 10.0, 100.0);
+        assertEquals(3, contiguous.getNumberOfBins());
+        assertEquals(10.0, contiguous.getLowerBound(2), 0.0);
+        assertEquals(100.0, contiguous.getUpperBound(2), 0.0);
+        assertEquals(1, contiguous.findBinIndex(10.0 - 1e-9));
+    }
+    @Test
+    public void testParallelRecordingMatchesSequential() throws Exception {
+        Random random = new Random(11);
+        double[] values = new double[1000000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 3.0 + 3.0; // spills into underflow, the gap and overflow
+        }
+        DoubleRangeHistogram sequential = new DoubleRangeHistogram(new double[] {5.0, 0.0, 1.0}, new double[] {6.0, 1.0, 2.5});
+        for (double value: values) {
+            sequential.record(value);
+        }
+
+        DoubleRangeHistogram bulk = new DoubleRangeHistogram(new double[] {5.0, 0.0, 1.0}, new double[] {6.0, 1.0, 2.5});
+        bulk.recordAll(values);
+        assertSameCounts(sequential, bulk);
+
+        DoubleRangeHistogram stream = new DoubleRangeHistogram(new double[] {5.0, 0.0, 1.0}, new double[] {6.0, 1.0, 2.5});
+        stream.recordAll(DoubleStream.of(values).parallel());
+        assertSameCounts(sequential, stream);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DoubleRangeHistogram pooled = new DoubleRangeHistogram(new double[] {5.0, 0.0, 1.0}, new double[] {6.0, 1.0, 2.5});
+            pooled.recordAll(values, pool);
+            assertSameCounts(sequential, pooled);
+
+            DoubleRangeHistogram split = new DoubleRangeHistogram(new double[] {5.0, 0.0, 1.0}, new double[] {6.0, 1.0, 2.5});
+            split.recordAll(Arrays.spliterator(values, 1000, values.length), pool);
+            split.recordAll(Arrays.copyOfRange(values, 0, 1000));
+            assertSameCounts(sequential, split);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        DoubleRangeHistogram other = new DoubleRangeHistogram(histogram.getLayout());
+        histogram.record(0.5);
+        other.record(0.5, 2);
+        other.record(2.0);
+        other.record(100.0);
+        histogram.add(other);
+        assertEquals(3, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(1, histogram.getOverflowCount());
+        assertEquals(5, histogram.getSummaryStatistics().getCount());
+        assertEquals(103.5, histogram.getSummaryStatistics().getSum(), 0.0);
+    }
+
+    @Test
+    public void testIntervalDelta() throws Exception {
+        histogram.recordAll(new double[] {0.5, 2.0, 10.0});
+        DoubleRangeHistogram earlier = histogram.snapshot();
+        histogram.recordAll(new double[] {0.5, 5.5, 20.0, -3.0});
+        assertEquals(1, earlier.getCount(0));
+        DoubleRangeHistogram delta = histogram.minus(earlier);
+        assertSame(histogram.getLayout(), delta.getLayout());
+        assertEquals(1, delta.getCount(0));
+        assertEquals(0, delta.getCount(1));
+        assertEquals(1, delta.getCount(2));
+        assertEquals(1, delta.getOverflowCount());
+        assertEquals(1, delta.getUnderflowCount());
+        assertEquals(4, delta.getSummaryStatistics().getCount());
+        assertEquals(23.0, delta.getSummaryStatistics().getSum(), 0.0);
+        assertEquals(-3.0, delta.getSummaryStatistics().getMin(), 0.0);
+        assertEquals(0, histogram.minus(histogram).getTotalCount());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMinusLaterSnapshot() throws Exception {
+        DoubleRangeHistogram earlier = histogram.snapshot();
+        histogram.record(0.5);
+        earlier.minus(histogram);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMinusDifferentLayout() throws Exception {
+        histogram.minus(DoubleRangeHistogram.contiguous(0.0, 1.0));
+    }
+
+    @Test
+    public void testSnapshotAndReset() throws Exception {
+        histogram.record(0.5, 2);
+        histogram.record(-1.0);
+        assertEquals(1.0, histogram.valueAtQuantile(1.0), 1e-9); // caches the cumulative counts
+        DoubleRangeHistogram interval = histogram.snapshotAndReset();
+        assertEquals(2, interval.getCount(0));
+        assertEquals(1, interval.getUnderflowCount());
+        assertEquals(3, interval.getSummaryStatistics().getCount());
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getUnderflowCount());
+        assertEquals(0, histogram.getSummaryStatistics().getCount());
+        histogram.record(2.0);
+        assertEquals(2.5, histogram.valueAtQuantile(1.0), 1e-9);
+        assertEquals(2, interval.getCount(0));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testAddDifferentLayout() throws Exception {
+        histogram.add(DoubleRangeHistogram.contiguous(0.0, 1.0));
+    }
+
+    @Test
+    public void testAddRedistributed() throws Exception {
+        DoubleRangeHistogram source = DoubleRangeHistogram.contiguous(0.0, 2.0, 4.0);
+        source.record(1.0, 10);
+        source.record(3.0, 3);
+        source.record(-5.0);
+
+        DoubleRangeHistogram finer = DoubleRangeHistogram.contiguous(0.0, 1.0, 2.0, 3.0, 4.0);
+        finer.addRedistributed(source);
+        assertEquals(5, finer.getCount(0));
+        assertEquals(5, finer.getCount(1));
+        assertEquals(2, finer.getCount(2));
+        assertEquals(1, finer.getCount(3));
+        assertEquals("out of range counts should be carried over", 1, finer.getUnderflowCount());
+
+        DoubleRangeHistogram shifted = DoubleRangeHistogram.contiguous(1.0, 3.0);
+        shifted.addRedistributed(source);
+        assertEquals(7, shifted.getCount(0));
+        assertEquals(6, shifted.getUnderflowCount());
+        assertEquals(1, shifted.getOverflowCount());
+
+        DoubleRangeHistogram withGap = new DoubleRangeHistogram(new double[] {0.0, 3.0}, new double[] {1.0, 4.0});
+        withGap.addRedistributed(source);
+        assertEquals(5, withGap.getCount(0));
+        assertEquals(2, withGap.getCount(1));
+        assertEquals(6, withGap.getGapCount());
+    }
+
+    @Test
+    public void testAddRedistributedPreservesTotals() throws Exception {
+        Random random = new Random(23);
+        DoubleRangeHistogram source = new DoubleRangeHistogram(new LogDoubleBinLayout(0.1, 1.3, 40));
+        for (int i = 0; i < 100000; i++) {
+            source.record(Math.exp(random.nextGaussian() * 2.0));
+        }
+        DoubleRangeHistogram target = new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 50.0, 37));
+        target.addRedistributed(source);
+        assertEquals(100000, target.getTotalCount() + target.getUnderflowCount() + target.getGapCount() +
+                target.getOverflowCount());
+    }
+
+    @Test
+    public void testMergingCollector() throws Exception {
+        DoubleBinLayout layout = new LinearDoubleBinLayout(0.0, 1.0, 20);
+        List<DoubleRangeHistogram> histograms = new ArrayList<>();
+        DoubleRangeHistogram expected = new DoubleRangeHistogram(layout);
+        Random random = new Random(29);
+        for (int i = 0; i < 200; i++) {
+            DoubleRangeHistogram histogram = new DoubleRangeHistogram(layout);
+            for (int j = 0; j < 100; j++) {
+                double value = random.nextDouble() * 1.2;
+                histogram.record(value);
+                expected.record(value);
+            }
+            histograms.add(histogram);
+        }
+        DoubleRangeHistogram merged = histograms.parallelStream().collect(DoubleRangeHistogram.merging(layout));
+        assertSameCounts(expected, merged);
+    }
+
+    private void assertSameCounts(DoubleRangeHistogram expected, DoubleRangeHistogram actual) {
+        assertEquals(expected.getBins(), actual.getBins());
+        assertEquals(expected.getUnderflowCount(), actual.getUnderflowCount());
+        assertEquals(expected.getGapCount(), actual.getGapCount());
+        assertEquals(expected.getOverflowCount(), actual.getOverflowCount());
+        SummaryStatistics expectedSummary = expected.getSummaryStatistics();
+        SummaryStatistics actualSummary = actual.getSummaryStatistics();
+        assertEquals(expectedSummary.getCount(), actualSummary.getCount());
+        assertEquals(expectedSummary.getMean(), actualSummary.getMean(), 1e-9);
+        assertEquals(expectedSummary.getVariance(), actualSummary.getVariance(), 1e-9);
+        assertEquals(expectedSummary.getMin(), actualSummary.getMin(), 0.0);
+        assertEquals(expectedSummary.getMax(), actualSummary.getMax(), 0.0);
+    }
+
+    @Test
+    public void testQuantiles() throws Exception {
+        DoubleRangeHistogram histogram = DoubleRangeHistogram.contiguous(0.0, 10.0, 20.0, 30.0, 40.0);
+        histogram.recordAll(new double[] {5.0, 15.0, 15.0, 25.0, -1.0});
+        assertEquals(15.0, histogram.valueAtQuantile(0.5), 1e-9);
+        assertEquals("empty bins are skipped", 30.0, histogram.valueAtQuantile(1.0), 1e-9);
+        assertEquals(2, histogram.countBelow(15.0));
+        assertEquals(3, histogram.countBetween(5.0, 25.0));
+        assertEquals(1.0, histogram.quantileOf(35.0), 1e-9);
+
+        histogram.record(35.0);
+        assertEquals("the cumulative counts should follow recording", 40.0, histogram.valueAtQuantile(1.0), 1e-9);
+        assertEquals(0.9, histogram.quantileOf(35.0), 1e-9);
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Granularity Tester.
+ */
+public class GranularityTest {
+    @Test
+    public void testExact() throws Exception {
+        Granularity exact = Granularity.EXACT;
+        assertTrue(exact.isExact());
+        assertTrue(exact.equal(0.0, -0.0));
+        assertEquals(exact.hash(0.0), exact.hash(-0.0));
+        assertFalse(exact.equal(1.0, Math.nextUp(1.0)));
+        assertFalse(exact.equal(Double.NaN, Double.NaN));
+        assertTrue(exact.equal(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY));
+        assertEquals(1, exact.compare(Double.NaN, Double.POSITIVE_INFINITY));
+        assertSame(exact, Granularity.ulps(1));
+    }
+
+    @Test
+    public void testAbsolute() throws Exception {
+        Granularity granularity = Granularity.absolute(1e-9);
+        assertTrue(granularity.equal(0.1 + 0.2, 0.3));
+        assertEquals(granularity.hash(0.1 + 0.2), granularity.hash(0.3));
+        assertTrue(granularity.equal(-1e-12, 0.0));
+        assertTrue(granularity.equal(-0.0, 1e-12));
+        assertFalse(granularity.equal(0.3, 0.3 + 1e-8));
+        assertTrue(granularity.compare(0.3, 0.3 + 1e-8) < 0);
+        assertFalse(granularity.equal(Double.NaN, Double.NaN));
+        assertTrue(granularity.equal(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY));
+        assertTrue("finite values stay below infinity",
+                granularity.compare(Double.MAX_VALUE, Double.POSITIVE_INFINITY) < 0);
+        assertTrue(granularity.compare(-Double.MAX_VALUE, Double.NEGATIVE_INFINITY) > 0);
+        assertTrue("large values are compared as they are", granularity.compare(1e20, Math.nextUp(1e20)) < 0);
+    }
+
+    @Test
+    public void testUlps() throws Exception {
+        Granularity granularity = Granularity.ulps(16);
+        assertTrue(granularity.equal(1.0, Math.nextDown(1.0)));
+        assertTrue(granularity.equal(1.0, Math.nextUp(Math.nextUp(1.0))));
+        assertTrue(granularity.equal(1e300 * 3.0 / 3.0, 1e300));
+        assertFalse(granularity.equal(1.0, 1.0 + 64 * Math.ulp(1.0)));
+        assertTrue(granularity.equal(-1.0, Math.nextUp(-1.0)));
+        assertTrue(granularity.equal(0.0, -0.0));
+        assertTrue(granularity.equal(Double.MIN_VALUE, -Double.MIN_VALUE));
+        assertTrue("finite values stay below infinity",
+                granularity.compare(Double.MAX_VALUE, Double.POSITIVE_INFINITY) < 0);
+        assertFalse(granularity.equal(Double.NaN, Double.NaN));
+    }
+
+    @Test
+    public void testKeysKeepTheOrderOfValues() throws Exception {
+        Granularity[] granularities = {Granularity.EXACT, Granularity.absolute(0.001), Granularity.absolute(1e-300),
+                Granularity.ulps(1024), Granularity.ulps(1L << 52)};
+        Random random = new Random(7);
+        for (Granularity granularity: granularities) {
+            for (int i = 0; i < 10000; i++) {
+                double a = Double.longBitsToDouble(random.nextLong());
+                double b = random.nextBoolean() ? Math.nextUp(a) : Double.longBitsToDouble(random.nextLong());
+                if (Double.isNaN(a) || Double.isNaN(b)) {
+                    continue;
+                }
+                if (a < b) {
+                    assertTrue(granularity + " reversed " + a + " and " + b, granularity.compare(a, b) <= 0);
+                }
+                else if (a > b) {
+                    assertTrue(granularity + " reversed " + a + " and " + b, granularity.compare(a, b) >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        assertEquals(Granularity.absolute(0.5), Granularity.absolute(0.5));
+        assertEquals(Granularity.absolute(0.5).hashCode(), Granularity.absolute(0.5).hashCode());
+        assertNotEquals(Granularity.absolute(0.5), Granularity.absolute(0.25));
+        assertNotEquals(Granularity.ulps(2), Granularity.EXACT);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeEpsilon() throws Exception {
+        Granularity.absolute(-1.0);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNaNEpsilon() throws Exception {
+        Granularity.absolute(Double.NaN);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testUlpsNotAPowerOfTwo() throws Exception {
+        Granularity.ulps(3);
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * HistogramCodec Tester.
+ */
+public class HistogramCodecTest {
+
+    @Test
+    public void testRoundTripArithmeticLayouts() throws Exception {
+        DoubleBinLayout[] layouts = {
+                new LinearDoubleBinLayout(-5.0, 5.0, 100),
+                new LogDoubleBinLayout(0.01, 2.0, 30),
+                new LogLinearDoubleBinLayout(1.0, 60000.0, 2)
+        };
+        for (DoubleBinLayout layout: layouts) {
+            DoubleRangeHistogram histogram = latencies(layout, 10000);
+            DoubleRangeHistogram decoded = roundTrip(histogram);
+            assertEquals("the layout should be preserved", layout, decoded.getLayout());
+            assertSameCounts(histogram, decoded);
+        }
+    }
+
+    @Test
+    public void testRoundTripExplicitLayout() throws Exception {
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(
+                new double[] {Double.NEGATIVE_INFINITY, -1.5, -0.0, 0.0, 1e-300, 7.0},
+                new double[] {-2.0, -0.5, -0.0, 1e-300, 3.25, Double.POSITIVE_INFINITY});
+        histogram.record(-100.0, 3);
+        histogram.record(-1.0);
+        histogram.record(2.0, Long.MAX_VALUE / 2);
+        histogram.record(1e10);
+        histogram.record(5.0, 2);
+        DoubleRangeHistogram decoded = roundTrip(histogram);
+        assertEquals(histogram.getLayout(), decoded.getLayout());
+        assertSameCounts(histogram, decoded);
+    }
+
+    @Test
+    public void testRoundTripGranularLayout() throws Exception {
+        ExplicitDoubleBinLayout layout = new ExplicitDoubleBinLayout(new double[] {0.0, 0.1 + 0.2},
+                new double[] {0.3, 1.0}, Granularity.ulps(64));
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(layout);
+        histogram.recordAll(new double[] {0.3, 0.5, 2.0});
+        ByteBuffer buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(histogram));
+        HistogramCodec.encode(histogram, buffer);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        DoubleRangeHistogram decoded = HistogramCodec.decodeDouble(buffer);
+        assertEquals(layout, decoded.getLayout());
+        assertEquals(Granularity.ulps(64), decoded.getGranularity());
+        assertEquals(histogram, decoded);
+        assertEquals(histogram.getOverflowCount(), decoded.getOverflowCount());
+    }
+
+    @Test
+    public void testRoundTripLong() throws Exception {
+        LongRangeHistogram histogram = new LongRangeHistogram(new long[] {Long.MIN_VALUE, -10, 0, 1000},
+                new long[] {-11, -1, 999, Long.MAX_VALUE});
+        histogram.record(-5, 4);
+        histogram.record(123456789);
+        ByteBuffer buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(histogram));
+        HistogramCodec.encode(histogram, buffer);
+        assertFalse("encodedSize() should be exact", buffer.hasRemaining());
+        buffer.flip();
+        LongRangeHistogram decoded = HistogramCodec.decodeLong(buffer);
+        assertEquals(histogram.getBins(), decoded.getBins());
+        assertSameSummary(histogram.getSummaryStatistics(), decoded.getSummaryStatistics());
+    }
+
+    @Test
+    public void testCountsWithoutSummary() throws Exception {
+        // counts set directly have no summary, and are written in the format used before summaries were added
+        DoubleRangeHistogram histogram = DoubleRangeHistogram.contiguous(0.0, 1.0, 2.0);
+        histogram.getCounts().set(1, 5);
+        ByteBuffer buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(histogram));
+        HistogramCodec.encode(histogram, buffer);
+        assertEquals(1, buffer.get(1));
+        buffer.flip();
+        DoubleRangeHistogram decoded = HistogramCodec.decodeDouble(buffer);
+        assertEquals(histogram, decoded);
+        assertEquals(0, decoded.getSummaryStatistics().getCount());
+
+        histogram.record(0.5);
+        DoubleRangeHistogram summarized = roundTrip(histogram);
+        assertEquals(1, summarized.getSummaryStatistics().getCount());
+        assertEquals(0.5, summarized.getSummaryStatistics().getMean(), 0.0);
+    }
+
+    @Test
+    public void testManyHistogramsInOneBuffer() throws Exception {
+        DoubleRangeHistogram first = latencies(new LinearDoubleBinLayout(0.0, 100.0, 10), 100);
+        DoubleRangeHistogram second = latencies(ExplicitDoubleBinLayout.contiguous(0.0, 10.0, 50.0, 1000.0), 100);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1024).order(ByteOrder.LITTLE_ENDIAN);
+        HistogramCodec.encode(first, buffer);
+        HistogramCodec.encode(second, buffer);
+        buffer.flip();
+        ByteBuffer reader = buffer.duplicate().order(ByteOrder.BIG_ENDIAN); // byte order does not matter
+        assertSameCounts(first, HistogramCodec.decodeDouble(reader));
+        assertSameCounts(second, HistogramCodec.decodeDouble(reader));
+        assertFalse(reader.hasRemaining());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testTruncatedBuffer() throws Exception {
+        DoubleRangeHistogram histogram = latencies(ExplicitDoubleBinLayout.contiguous(0.0, 10.0, 50.0), 100);
+        ByteBuffer buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(histogram));
+        HistogramCodec.encode(histogram, buffer);
+        buffer.flip();
+        buffer.limit(buffer.limit() - 1);
+        HistogramCodec.decodeDouble(buffer);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testWrongType() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        HistogramCodec.encode(LongRangeHistogram.contiguous(0, 10), buffer);
+        buffer.flip();
+        HistogramCodec.decodeDouble(buffer);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCorruptNumberOfBins() throws Exception {
+        // an explicit layout claiming Integer.MAX_VALUE bins
+        HistogramCodec.decodeDouble(ByteBuffer.wrap(new byte[] {1, 1, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 7}));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testCorruptNumberOfLongBins() throws Exception {
+        HistogramCodec.decodeLong(ByteBuffer.wrap(new byte[] {1, 5, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 7}));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeCount() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        HistogramCodec.encode(new DoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 1.0, 1)), buffer);
+        buffer.flip();
+        // the underflow count, the first after the layout, as a ten byte varint with the sign bit set
+        ByteBuffer corrupt = ByteBuffer.allocate(buffer.limit() + 9);
+        corrupt.put(buffer.array(), 0, 2 + 16 + 1);
+        corrupt.put(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 1});
+        corrupt.put(buffer.array(), 2 + 16 + 2, buffer.limit() - (2 + 16 + 2));
+        corrupt.flip();
+        HistogramCodec.decodeDouble(corrupt);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testUnknownVersion() throws Exception {
+        HistogramCodec.decodeDouble(ByteBuffer.wrap(new byte[] {99, 1, 0}));
+    }
+
+    /**
+     * Compares the size of the encoding of a typical latency histogram to writing each bin as two 8 byte boundaries
+     * and an 8 byte count.
+     */
+    @Test
+    public void testSizeOfTypicalLatencyHistograms() throws Exception {
+        DoubleRangeHistogram logLinear = latencies(new LogLinearDoubleBinLayout(1.0, 60000.0, 2), 100000);
+        int fixedWidthSize = logLinear.getNumberOfBins() * 24;
+        int encodedSize = HistogramCodec.encodedSize(logLinear);
+        assertTrue("log-linear layout with " + logLinear.getNumberOfBins() + " bins encoded to " + encodedSize +
+                " bytes, expected under 5% of " + fixedWidthSize, encodedSize * 20 < fixedWidthSize);
+
+        // the same histogram with its boundaries written out explicitly
+        DoubleRangeHistogram explicit = DoubleRangeHistogram.copyOf(logLinear);
+        encodedSize = HistogramCodec.encodedSize(explicit);
+        assertTrue("explicit layout encoded to " + encodedSize + " bytes, expected under 40% of " + fixedWidthSize,
+                encodedSize * 10 < fixedWidthSize * 4);
+        assertSameCounts(explicit, roundTrip(explicit));
+    }
+
+    private DoubleRangeHistogram latencies(DoubleBinLayout layout, int count) {
+        // log-normal latencies with a median around 20
+        DoubleRangeHistogram histogram = new DoubleRangeHistogram(layout);
+        Random random = new Random(31);
+        for (int i = 0; i < count; i++) {
+            histogram.record(Math.exp(3.0 + random.nextGaussian()));
+        }
+        return histogram;
+    }
+
+    private DoubleRangeHistogram roundTrip(DoubleRangeHistogram histogram) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(HistogramCodec.encodedSize(histogram));
+        HistogramCodec.encode(histogram, buffer);
+        assertFalse("encodedSize() should be exact", buffer.hasRemaining());
+        buffer.flip();
+        return HistogramCodec.decodeDouble(buffer);
+    }
+
+    private void assertSameCounts(DoubleRangeHistogram expected, DoubleRangeHistogram actual) {
+        assertEquals(expected.getBins(), actual.getBins());
+        assertEquals(expected.getUnderflowCount(), actual.getUnderflowCount());
+        assertEquals(expected.getGapCount(), actual.getGapCount());
+        assertEquals(expected.getOverflowCount(), actual.getOverflowCount());
+        assertSameSummary(expected.getSummaryStatistics(), actual.getSummaryStatistics());
+    }
+
+    private void assertSameSummary(SummaryStatistics expected, SummaryStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getMean(), actual.getMean(), 0.0);
+        assertEquals(expected.getVariance(), actual.getVariance(), 0.0);
+        assertEquals(expected.getSum(), actual.getSum(), 0.0);
+        assertEquals(expected.getMin(), actual.getMin(), 0.0);
+        assertEquals(expected.getMax(), actual.getMax(), 0.0);
+    }
+}
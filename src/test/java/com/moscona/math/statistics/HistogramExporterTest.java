@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * HistogramExporter Tester.
+ */
+public class HistogramExporterTest {
+    private DoubleRangeHistogram histogram;
+    private StringBuilder out;
+    private HistogramExporter exporter;
+
+    @Before
+    public void before() throws Exception {
+        histogram = new DoubleRangeHistogram(ExplicitDoubleBinLayout.contiguous(0.0, 1.0, 1000.0));
+        histogram.recordAll(new double[] {-1.0, 0.5, 0.5, 2.0, 5000.0});
+        out = new StringBuilder();
+        exporter = new HistogramExporter(out);
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        exporter.writeCsvHeader().writeCsv("latency", histogram);
+        assertEquals("histogram,bin,from,to,count\n" +
+                "latency,\"0.00 - 1.00\",0.0,1.0,2\n" +
+                "latency,\"1.00 - 1,000.00\",1.0,1000.0,1\n", out.toString());
+    }
+
+    @Test
+    public void testCsvQuotesLabels() throws Exception {
+        RangeHistogram<String> strings = new RangeHistogram<>();
+        strings.addBin("a\"", "b", 0);
+        strings.record("a\"x", 3);
+        exporter.writeCsv("s", strings);
+        assertEquals("s,\"a\"\" - b\",a\",b,3\n", out.toString());
+    }
+
+    @Test
+    public void testCsvOfOtherImplementations() throws Exception {
+        ImmutableRangeHistogram<Long> other = new ImmutableRangeHistogram<Long>() {
+            @Override
+            public List<Bin<Long>> getBins() {
+                return Arrays.asList(Bin.of(1L, 2L, 3), Bin.of(3L, 4L, 5));
+            }
+
+            @Override
+            public Bin<Long> findBin(Long value) {
+                return null;
+            }
+
+            @Override
+            public boolean contains(Long value) {
+                return false;
+            }
+        };
+        exporter.writeCsv("other", other);
+        assertEquals("other,\"1 - 2\",1,2,3\nother,\"3 - 4\",3,4,5\n", out.toString());
+    }
+
+    @Test
+    public void testCsvToWriter() throws Exception {
+        LongRangeHistogram longs = LongRangeHistogram.contiguous(-1000, 0, 1000);
+        longs.record(-5, Long.MAX_VALUE);
+        longs.record(10);
+        StringWriter writer = new StringWriter();
+        new HistogramExporter(writer).writeCsv("longs", longs);
+        assertEquals("longs,\"-1,000 - -1\",-1000,-1," + Long.MAX_VALUE + "\n" +
+                "longs,\"0 - 999\",0,999,1\n", writer.toString());
+
+        // bins without cached labels, with boundaries formatted like Long.toString()
+        FrozenRangeHistogram<Long> frozen = new FrozenRangeHistogram<>(Arrays.asList(Bin.of(Long.MIN_VALUE, -1L, 0),
+                Bin.of(0L, 0L, 12)));
+        writer = new StringWriter();
+        new HistogramExporter(writer).writeCsv("frozen", frozen);
+        assertTrue(writer.toString(), writer.toString().endsWith("," + Long.MIN_VALUE + ",-1,0\nfrozen,\"0 - 0\",0,0,12\n"));
+    }
+
+    @Test
+    public void testPrometheus() throws Exception {
+        exporter.writePrometheus("request_latency", histogram);
+        assertEquals("# TYPE request_latency histogram\n" +
+                "request_latency_bucket{le=\"1.0\"} 3\n" +
+                "request_latency_bucket{le=\"1000.0\"} 4\n" +
+                "request_latency_bucket{le=\"+Inf\"} 5\n" +
+                "request_latency_sum 5002.0\n" +
+                "request_latency_count 5\n", out.toString());
+    }
+
+    @Test
+    public void testPrometheusWithoutSummary() throws Exception {
+        MappedDoubleRangeHistogram mapped = MappedDoubleRangeHistogram.allocateDirect(histogram.getLayout());
+        mapped.record(0.5);
+        exporter.writePrometheus("mapped", mapped);
+        assertFalse(out.toString(), out.toString().contains("_sum"));
+        assertTrue(out.toString(), out.toString().endsWith("mapped_count 1\n"));
+    }
+
+    @Test
+    public void testPrometheusInfiniteBoundary() throws Exception {
+        DoubleRangeHistogram open = DoubleRangeHistogram.contiguous(0.0, 1.0, Double.POSITIVE_INFINITY);
+        open.record(0.5);
+        open.record(7.0);
+        open.record(8.0);
+        exporter.writePrometheus("open", open);
+        String text = out.toString();
+        assertTrue(text, text.contains("open_bucket{le=\"1.0\"} 1\nopen_bucket{le=\"+Inf\"} 3\nopen_sum "));
+        assertEquals(text, text.indexOf("le=\"+Inf\""), text.lastIndexOf("le=\"+Inf\""));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testPrometheusInvalidName() throws Exception {
+        exporter.writePrometheus("9lives", histogram);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testPrometheusNonNumericBins() throws Exception {
+        RangeHistogram<String> strings = new RangeHistogram<>();
+        strings.addBin("a", "b", 0);
+        exporter.writePrometheus("strings", strings);
+    }
+
+    @Test
+    public void testLabelsAreSharedByLayout() throws Exception {
+        DoubleRangeHistogram other = new DoubleRangeHistogram(histogram.getLayout());
+        assertSame(histogram.getBinLabel(1, " to "), other.getBinLabel(1, " to "));
+        assertEquals("1.00 to 1,000.00", other.getBinLabel(1, " to "));
+        assertEquals(histogram.getBins().get(1).getBinLabel("|"), histogram.getBinLabel(1, "|"));
+    }
+
+    @Test
+    public void testLabelsFollowAddedBins() throws Exception {
+        RangeHistogram<Long> longs = new RangeHistogram<>();
+        longs.addBin(1L, 2L, 0);
+        assertEquals("1-2", longs.getBinLabel(0, "-"));
+        longs.addBin(0L, 0L, 0);
+        assertEquals("0-0", longs.getBinLabel(0, "-"));
+        assertEquals("1-2", longs.getBinLabel(1, "-"));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * HistogramRegistry Tester.
+ */
+public class HistogramRegistryTest {
+    private BinLayout<Long> layout;
+
+    @Before
+    public void before() throws Exception {
+        RangeHistogram<Long> bins = new RangeHistogram<>();
+        bins.addBin(0L, 9L, 0).addBin(10L, 99L, 0).addBin(100L, 999L, 0);
+        layout = BinLayout.of(bins);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNoRoom() throws Exception {
+        new HistogramRegistry<String, Long>(layout, 0, HistogramRegistry.EvictionPolicy.EVICT_LEAST_RECENTLY_USED);
+    }
+
+    @Test
+    public void testCreatesOnFirstUse() throws Exception {
+        HistogramRegistry<String, Long> registry = new HistogramRegistry<>(layout, 10,
+                HistogramRegistry.EvictionPolicy.EVICT_LEAST_RECENTLY_USED);
+        assertNull(registry.get("a"));
+        registry.record("a", 5L);
+        registry.record("a", 50L, 2);
+        ConcurrentRangeHistogram<Long> histogram = registry.get("a");
+        assertSame(histogram, registry.histogram("a"));
+        assertEquals(3, histogram.getTotalCount());
+        assertEquals(1, registry.size());
+        assertEquals(0, registry.getEvictionCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        HistogramRegistry<Integer, Long> registry = new HistogramRegistry<>(layout, 16,
+                HistogramRegistry.EvictionPolicy.EVICT_LEAST_RECENTLY_USED);
+        for (int key = 0; key < 16; key++) {
+            registry.record(key, 1L);
+        }
+        registry.record(0, 1L); // key 0 is now the most recently used
+        registry.record(16, 1L);
+        assertEquals("evicted down to 7/8 of the cap", 14, registry.size());
+        assertEquals(3, registry.getEvictionCount());
+        assertNotNull(registry.get(0));
+        assertNotNull(registry.get(16));
+        assertNull(registry.get(1));
+        assertNull(registry.get(3));
+        assertNotNull(registry.get(4));
+        assertEquals("evicted histograms are dropped", 0, registry.getOther().getTotalCount());
+    }
+
+    @Test
+    public void testFoldLowestCount() throws Exception {
+        HistogramRegistry<Integer, Long> registry = new HistogramRegistry<>(layout, 8,
+                HistogramRegistry.EvictionPolicy.FOLD_LOWEST_COUNT);
+        long recorded = 0;
+        for (int key = 0; key < 8; key++) {
+            registry.record(key, 20L, key == 3 ? 1 : 100 + key);
+            recorded += key == 3 ? 1 : 100 + key;
+        }
+        registry.record(8, 500L);
+        recorded++;
+        assertEquals(7, registry.size());
+        assertNull("the lowest count goes first", registry.get(3));
+        assertNull(registry.get(0));
+        assertNotNull(registry.get(8));
+        assertEquals(101, registry.getOther().getCount(1));
+        assertEquals(101, registry.getOther().getSummaryStatistics().getCount());
+
+        long[] total = {registry.getOther().getTotalCount()};
+        registry.forEach((key, histogram) -> total[0] += histogram.getTotalCount());
+        assertEquals("folding keeps all counts", recorded, total[0]);
+    }
+
+    @Test
+    public void testForEach() throws Exception {
+        HistogramRegistry<String, Long> registry = new HistogramRegistry<>(layout, 10,
+                HistogramRegistry.EvictionPolicy.FOLD_LEAST_RECENTLY_USED);
+        registry.record("a", 5L);
+        registry.record("b", 500L, 3);
+        Map<String, Long> totals = new HashMap<>();
+        registry.forEach((key, histogram) -> totals.put(key, histogram.snapshot().getTotalCount()));
+        assertEquals(2, totals.size());
+        assertEquals(Long.valueOf(1), totals.get("a"));
+        assertEquals(Long.valueOf(3), totals.get("b"));
+    }
+
+    @Test
+    public void testStaysBoundedUnderConcurrentCreation() throws Exception {
+        HistogramRegistry<Integer, Long> registry = new HistogramRegistry<>(layout, 100,
+                HistogramRegistry.EvictionPolicy.FOLD_LEAST_RECENTLY_USED);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    registry.record(thread * 1000000 + i, (long) (i % 1000));
+                    registry.record(-1, 1L); // a hot key
+                    assertTrue(registry.size() <= 125 + 4); // the hard limit, plus a histogram per creating thread
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future: futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertTrue(registry.size() <= 100);
+        assertTrue(registry.getEvictionCount() >= 80000 - 100);
+        assertNotNull("the hot key is never the least recently used", registry.get(-1));
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import com.moscona.exceptions.InvalidStateException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * LongRangeHistogram Tester.
+ */
+public class LongRangeHistogramTest {
+    private LongRangeHistogram histogram;
+
+    @Before
+    public void before() throws Exception {
+        histogram = new LongRangeHistogram(new long[] {21, 1, 11}, new long[] {30, 10, 15});
+    }
+
+    @Test(expected = InvalidStateException.class)
+    public void testTouchingBinsOverlap() throws Exception {
+        new LongRangeHistogram(new long[] {1, 10}, new long[] {10, 20});
+    }
+
+    @Test
+    public void testFindBinIndex() throws Exception {
+        assertEquals(0, histogram.findBinIndex(1));
+        assertEquals(0, histogram.findBinIndex(10));
+        assertEquals(1, histogram.findBinIndex(11));
+        assertEquals(2, histogram.findBinIndex(30));
+        assertEquals(-1, histogram.findBinIndex(Long.MIN_VALUE));
+        assertEquals(-3, histogram.findBinIndex(16));
+        assertEquals(-4, histogram.findBinIndex(31));
+    }
+
+    @Test
+    public void testRecordAndView() throws Exception {
+        histogram.record(5);
+        histogram.record(12, 4);
+        histogram.record(0);
+        histogram.record(20);
+        histogram.record(100, 2);
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(4, histogram.getCount(1));
+        assertEquals(5, histogram.getTotalCount());
+        assertEquals(1, histogram.getUnderflowCount());
+        assertEquals(1, histogram.getGapCount());
+        assertEquals(2, histogram.getOverflowCount());
+        assertEquals(new Bin<>(11L, 15L, 4), histogram.findBin(13L));
+        assertFalse(histogram.getBins().get(0).isReal());
+    }
+
+    @Test
+    public void testContiguousAndCopy() throws Exception {
+        LongRangeHistogram contiguous = LongRangeHistogram.contiguous(0, 10, 100);
+        assertEquals(9, contiguous.getUpperBound(0));
+        assertEquals(1, contiguous.findBinIndex(10));
+
+        RangeHistogram<Long> reference = new RangeHistogram<>();
+        reference.addBin(0L, 9L, 3).addBin(10L, 99L, 4);
+        assertEquals(reference.getBins(), LongRangeHistogram.copyOf(reference).getBins());
+    }
+    @Test
+    public void testParallelRecordingMatchesSequential() throws Exception {
+        Random random = new Random(11);
+        long[] values = new long[1000000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (random.nextGaussian() * 15.0 + 15.0); // spills into underflow, the gap and overflow
+        }
+        LongRangeHistogram sequential = new LongRangeHistogram(new long[] {21, 1, 11}, new long[] {30, 10, 15});
+        for (long value: values) {
+            sequential.record(value);
+        }
+
+        LongRangeHistogram bulk = new LongRangeHistogram(new long[] {21, 1, 11}, new long[] {30, 10, 15});
+        bulk.recordAll(values);
+        assertSameCounts(sequential, bulk);
+
+        LongRangeHistogram stream = new LongRangeHistogram(new long[] {21, 1, 11}, new long[] {30, 10, 15});
+        stream.recordAll(LongStream.of(values).parallel());
+        assertSameCounts(sequential, stream);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            LongRangeHistogram pooled = new LongRangeHistogram(new long[] {21, 1, 11}, new long[] {30, 10, 15});
+            pooled.recordAll(values, pool);
+            assertSameCounts(sequential, pooled);
+
+            LongRangeHistogram split = new LongRangeHistogram(new long[] {21, 1, 11}, new long[] {30, 10, 15});
+            split.recordAll(Arrays.spliterator(values, 1000, values.length), pool);
+            split.recordAll(Arrays.copyOfRange(values, 0, 1000));
+            assertSameCounts(sequential, split);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        LongRangeHistogram other = new LongRangeHistogram(new long[] {1, 11, 21}, new long[] {10, 15, 30});
+        other.record(3, 2);
+        other.record(0);
+        histogram.record(3);
+        histogram.add(other);
+        assertEquals(3, histogram.getCount(0));
+        assertEquals(1, histogram.getUnderflowCount());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testAddDifferentBins() throws Exception {
+        histogram.add(LongRangeHistogram.contiguous(0, 10));
+    }
+
+    @Test
+    public void testAddRedistributed() throws Exception {
+        LongRangeHistogram source = LongRangeHistogram.contiguous(0, 10, 20);
+        source.record(5, 10);
+        source.record(15, 4);
+        LongRangeHistogram target = LongRangeHistogram.contiguous(0, 5, 10, 12);
+        target.addRedistributed(source);
+        assertEquals(5, target.getCount(0));
+        assertEquals(5, target.getCount(1));
+        assertEquals("two of the ten values of 10-19 are in 10-11", 1, target.getCount(2));
+        assertEquals(3, target.getOverflowCount());
+    }
+
+    @Test
+    public void testMergingCollector() throws Exception {
+        LongRangeHistogram layout = LongRangeHistogram.contiguous(0, 10, 20, 30);
+        LongRangeHistogram expected = LongRangeHistogram.contiguous(0, 10, 20, 30);
+        List<LongRangeHistogram> histograms = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            LongRangeHistogram histogram = LongRangeHistogram.contiguous(0, 10, 20, 30);
+            histogram.record(i % 35);
+            expected.record(i % 35);
+            histograms.add(histogram);
+        }
+        assertSameCounts(expected, histograms.parallelStream().collect(LongRangeHistogram.merging(layout)));
+        assertEquals("the layout's counts should not be included", 0, layout.getTotalCount());
+    }
+
+    private void assertSameCounts(LongRangeHistogram expected, LongRangeHistogram actual) {
+        assertEquals(expected.getBins(), actual.getBins());
+        assertEquals(expected.getUnderflowCount(), actual.getUnderflowCount());
+        assertEquals(expected.getGapCount(), actual.getGapCount());
+        assertEquals(expected.getOverflowCount(), actual.getOverflowCount());
+    }
+
+    @Test
+    public void testQuantiles() throws Exception {
+        for (long value = 1; value <= 30; value++) {
+            histogram.record(value);
+        }
+        assertEquals(1L, (long) histogram.valueAtQuantile(0.0));
+        assertEquals(13L, (long) histogram.valueAtQuantile(0.5));
+        assertEquals(30L, (long) histogram.valueAtQuantile(1.0));
+        assertEquals(12, histogram.countBelow(13L));
+        assertEquals("the values in bins from 5 to 24", 15, histogram.countBetween(5L, 25L));
+        assertEquals(0.6, histogram.quantileOf(18L), 1e-9);
+    }
+
+    @Test
+    public void testIntervalDelta() throws Exception {
+        histogram.record(5);
+        LongRangeHistogram earlier = histogram.snapshot();
+        histogram.record(5, 2);
+        histogram.record(25);
+        histogram.record(100);
+        LongRangeHistogram delta = histogram.minus(earlier);
+        assertEquals(2, delta.getCount(0));
+        assertEquals(1, delta.getCount(2));
+        assertEquals(1, delta.getOverflowCount());
+        assertEquals(4, delta.getSummaryStatistics().getCount());
+        assertEquals(135.0, delta.getSummaryStatistics().getSum(), 0.0);
+
+        LongRangeHistogram interval = histogram.snapshotAndReset();
+        assertEquals(3, interval.getCount(0));
+        assertEquals(0, histogram.getCount(0));
+        assertEquals(0, histogram.getOverflowCount());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMinusDifferentBins() throws Exception {
+        histogram.minus(LongRangeHistogram.contiguous(0, 10));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * MappedDoubleRangeHistogram Tester.
+ */
+public class MappedDoubleRangeHistogramTest {
+    private Path file;
+    private DoubleBinLayout layout;
+
+    @Before
+    public void before() throws Exception {
+        file = Files.createTempFile("histogram", ".bin");
+        layout = new ExplicitDoubleBinLayout(new double[] {0.0, 1.0, 5.0}, new double[] {1.0, 2.0, 10.0});
+    }
+
+    @After
+    public void after() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void testCountsSurviveReopening() throws Exception {
+        MappedDoubleRangeHistogram histogram = MappedDoubleRangeHistogram.create(file, layout);
+        histogram.record(0.5);
+        histogram.record(1.0, 2);
+        histogram.record(7.0, 5);
+        histogram.record(-1.0);
+        histogram.record(3.0);
+        histogram.record(Double.NaN);
+        histogram.force();
+
+        MappedDoubleRangeHistogram reopened = MappedDoubleRangeHistogram.open(file);
+        assertEquals(3, reopened.getNumberOfBins());
+        assertEquals(3, reopened.getCount(0));
+        assertEquals(0, reopened.getCount(1));
+        assertEquals(5, reopened.getCount(2));
+        assertEquals(1, reopened.getUnderflowCount());
+        assertEquals(1, reopened.getGapCount());
+        assertEquals(1, reopened.getOverflowCount());
+        assertEquals(new Bin<>(5.0, 10.0, 5), reopened.findBin(6.0));
+
+        reopened.record(9.0);
+        assertEquals("both mappings should see the same counts", 6, histogram.getCount(2));
+    }
+
+    @Test
+    public void testMatchesHeapHistogram() throws Exception {
+        DoubleBinLayout logLinear = new LogLinearDoubleBinLayout(1.0, 1000.0, 1);
+        MappedDoubleRangeHistogram mapped = MappedDoubleRangeHistogram.allocateDirect(logLinear);
+        DoubleRangeHistogram heap = new DoubleRangeHistogram(logLinear);
+        for (int i = 0; i < 10000; i++) {
+            double value = i * 0.137 - 5.0;
+            mapped.record(value);
+            heap.record(value);
+            assertEquals("wrong bin for " + value, heap.findBinIndex(value), mapped.findBinIndex(value));
+        }
+        assertEquals(heap.getBins(), mapped.getBins());
+        DoubleRangeHistogram copy = mapped.toHeapHistogram();
+        assertEquals(heap.getBins(), copy.getBins());
+        assertEquals(heap.getOverflowCount(), copy.getOverflowCount());
+        assertEquals(heap.getUnderflowCount(), copy.getUnderflowCount());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        MappedDoubleRangeHistogram histogram = MappedDoubleRangeHistogram.create(file, layout);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    histogram.record((i % 12) - 0.5);
+                }
+            }));
+        }
+        for (Future<?> future: futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        DoubleRangeHistogram expected = new DoubleRangeHistogram(layout);
+        for (int i = 0; i < 50000; i++) {
+            expected.record((i % 12) - 0.5, 4);
+        }
+        assertEquals(expected.getBins(), histogram.getBins());
+        assertEquals(expected.getUnderflowCount(), histogram.getUnderflowCount());
+        assertEquals(expected.getGapCount(), histogram.getGapCount());
+        assertEquals(expected.getOverflowCount(), histogram.getOverflowCount());
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testOpenNonHistogramFile() throws Exception {
+        Files.write(file, new byte[100]);
+        MappedDoubleRangeHistogram.open(file);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testTooManyBinsForDirectBuffer() throws Exception {
+        MappedDoubleRangeHistogram.allocateDirect(new LinearDoubleBinLayout(0.0, 1.0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testTooManyBinsForFile() throws Exception {
+        Files.write(file, new byte[] {1, 2, 3});
+        try {
+            MappedDoubleRangeHistogram.create(file, new LinearDoubleBinLayout(0.0, 1.0, 100_000_000));
+            fail("a buffer cannot hold 100M bins");
+        }
+        catch (InvalidArgumentException expected) {
+            assertEquals("the file is left as it was", 3, Files.size(file));
+        }
+    }
+}
@@ -17,12 +17,15 @@
 
 package com.moscona.math.statistics;
 
+import com.moscona.exceptions.InvalidArgumentException;
 import com.moscona.exceptions.InvalidStateException;
 
 import org.junit.Test;
 import org.junit.Before;
 import org.junit.After;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -51,7 +54,7 @@ public class RangeHistogramTest {
     }
 
     /**
-     * Method: addBin(T from, T to, int count)
+     * Method: addBin(T from, T to, long count)
      */
     @Test
     public void testAddBin() throws Exception {
@@ -60,13 +63,49 @@ public class RangeHistogramTest {
     }
 
     /**
-     * Method: addBin(T from, T to, int count)
+     * Method: addBin(T from, T to, long count)
      */
     @Test(expected = InvalidStateException.class)
     public void testExceptionAddBin() throws Exception {
         intHistogram.addBin(1, 10, 1).addBin(2, 20, 0); // exception
     }
 
+    /**
+     * Method: addBin(T from, T to, long count)
+     */
+    @Test
+    public void testAddBinInPlace() throws Exception {
+        intHistogram.addBin(21, 30, 3).addBin(1, 10, 1).addBin(11, 20, 2);
+        assertEquals("bins should be sorted", 1, (int) intHistogram.getBins().get(0).getFrom());
+        assertEquals(2, intHistogram.findBin(15).getCount());
+        assertEquals(3, intHistogram.getCount(2));
+        try {
+            intHistogram.addBin(25, 40, 0);
+            fail("a bin overlapping the bin before it should be rejected");
+        }
+        catch (InvalidStateException e) {
+            assertEquals("The bin '25-40' overlaps with the bin '21-30'", e.getMessage());
+        }
+        try {
+            intHistogram.addBin(-5, 1, 0);
+            fail("a bin overlapping the bin after it should be rejected");
+        }
+        catch (InvalidStateException e) {
+            assertEquals("The bin '1-10' overlaps with the bin '-5-1'", e.getMessage());
+        }
+        assertEquals("a rejected bin should leave the histogram unchanged", 3, intHistogram.getNumberOfBins());
+        assertEquals(6, intHistogram.getTotalCount());
+
+        RangeHistogram<Integer> batch = new RangeHistogram<>();
+        batch.addBins(Arrays.asList(new Bin<>(1, 10, 0), new Bin<>(11, 20, 0), new Bin<>(21, 30, 0)));
+        assertSame("the bins should be interned once added", batch.getLayout(), intHistogram.getLayout());
+
+        RangeHistogram<Double> real = new RangeHistogram<>();
+        real.addBin(1.0, 2.0, 0).addBin(0.0, 1.0, 0).addBin(2.0, 2.0, 0); // touching is allowed
+        real.record(1.0);
+        assertEquals(1, real.getCount(0));
+    }
+
     /**
      * Method: getBins()
      */
@@ -98,4 +137,360 @@ public class RangeHistogramTest {
         assertFalse("should not contain 0", intHistogram.contains(0));
     }
 
-} 
+    /**
+     * Method: addBins(Collection<Bin<T>> bins)
+     */
+    @Test
+    public void testAddBins() throws Exception {
+        List<Bin<Integer>> bins = new ArrayList<>();
+        for (int i = 999; i >= 0; i--) {
+            bins.add(new Bin<>(i * 10, i * 10 + 9, i));
+        }
+        intHistogram.addBin(-10, -1, 7).addBins(bins);
+        assertEquals("wrong number of bins", 1001, intHistogram.getBins().size());
+        assertEquals("bins should be sorted", -10, (int) intHistogram.getBins().get(0).getFrom());
+        assertEquals("found incorrect bin", new Bin<>(120, 129, 12), intHistogram.findBin(125));
+    }
+
+    /**
+     * Method: addBins(Collection<Bin<T>> bins)
+     */
+    @Test
+    public void testExceptionAddBins() throws Exception {
+        intHistogram.addBin(1, 10, 1);
+        try {
+            intHistogram.addBins(Arrays.asList(new Bin<>(20, 30, 0), new Bin<>(30, 40, 0)));
+            fail("overlapping bins should be rejected");
+        }
+        catch (InvalidStateException e) {
+            assertEquals("The bin '30-40' overlaps with the bin '20-30'", e.getMessage());
+        }
+        assertEquals("a rejected batch should leave the histogram unchanged", 1, intHistogram.getBins().size());
+        assertFalse(intHistogram.contains(25));
+    }
+
+    /**
+     * Method: addBins(Collection<Bin<T>> bins)
+     */
+    @Test
+    public void testAddBinsRealBoundaries() throws Exception {
+        RangeHistogram<Double> histogram = new RangeHistogram<>();
+        histogram.addBins(Arrays.asList(new Bin<>(1.0, 2.0, 0), new Bin<>(0.0, 1.0, 0))); // touching is allowed
+        assertEquals(2, histogram.getBins().size());
+    }
+
+    /**
+     * Method: record(T value), record(T value, long weight)
+     */
+    @Test
+    public void testGranularity() throws Exception {
+        RangeHistogram<Double> histogram = new RangeHistogram<>(Granularity.absolute(1e-9));
+        histogram.addBin(0.0, 0.3, 0);
+        histogram.addBin(0.1 + 0.2, 1.0, 0); // overlaps the first bin by less than a grain, so it touches it
+        histogram.record(0.30000000001);
+        histogram.record(-1e-12);
+        histogram.record(1.0 + 1e-12);
+        assertEquals("the shared boundary belongs to the lower bin", 2, histogram.getBins().get(0).getCount());
+        assertEquals(1, histogram.getBins().get(1).getCount());
+        assertEquals(0, histogram.getOverflowCount() + histogram.getUnderflowCount());
+        assertEquals(Granularity.absolute(1e-9), histogram.getBins().get(1).getGranularity());
+
+        RangeHistogram<Double> copy = new RangeHistogram<>(histogram.getBins(), 0, 0, 0);
+        assertSame(histogram.getLayout(), copy.getLayout());
+        assertEquals(histogram, copy);
+        assertEquals(histogram.getBins().hashCode(), copy.hashCode());
+    }
+
+    @Test
+    public void testRealBoundaryEdges() throws Exception {
+        RangeHistogram<Double> histogram = new RangeHistogram<>();
+        histogram.addBin(Double.NEGATIVE_INFINITY, -0.0, 0);
+        histogram.addBin(0.0, Double.POSITIVE_INFINITY, 0);
+        histogram.record(0.0);
+        histogram.record(-0.0);
+        histogram.record(Double.NEGATIVE_INFINITY);
+        histogram.record(Double.POSITIVE_INFINITY);
+        histogram.record(Double.NaN);
+        assertEquals("zeros of both signs are on the shared boundary", 3, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals("NaN is above all bins", 1, histogram.getOverflowCount());
+    }
+
+    @Test(expected = InvalidStateException.class)
+    public void testOverlapBeyondGranularity() throws Exception {
+        RangeHistogram<Double> histogram = new RangeHistogram<>(Granularity.absolute(1e-9));
+        histogram.addBin(0.0, 0.3, 0);
+        histogram.addBin(0.2999, 1.0, 0);
+    }
+
+    @Test
+    public void testRecord() throws Exception {
+        intHistogram.addBin(1, 10, 1).addBin(21, 30, 0);
+        intHistogram.record(5);
+        intHistogram.record(25, 3);
+        intHistogram.record(0);
+        intHistogram.record(15, 2);
+        intHistogram.record(31, 4);
+        assertEquals(new Bin<>(1, 10, 2), intHistogram.findBin(1));
+        assertEquals(new Bin<>(21, 30, 3), intHistogram.findBin(21));
+        assertEquals(5, intHistogram.getTotalCount());
+        assertEquals(1, intHistogram.getUnderflowCount());
+        assertEquals(2, intHistogram.getGapCount());
+        assertEquals(4, intHistogram.getOverflowCount());
+        SummaryStatistics summary = intHistogram.getSummaryStatistics();
+        assertEquals("counts given to addBin() are not summarized", 11, summary.getCount());
+        assertEquals(234.0, summary.getSum(), 0.0);
+        assertEquals(0.0, summary.getMin(), 0.0);
+        assertEquals(31.0, summary.getMax(), 0.0);
+    }
+
+    /**
+     * Method: record(T value, long weight)
+     */
+    @Test
+    public void testRecordLargeWeights() throws Exception {
+        intHistogram.addBin(1, 10, 0);
+        intHistogram.record(5, Integer.MAX_VALUE);
+        intHistogram.record(5, Integer.MAX_VALUE);
+        assertEquals(2L * Integer.MAX_VALUE, intHistogram.getBins().get(0).getCount());
+    }
+
+    /**
+     * Method: record(T value, long weight)
+     */
+    @Test(expected = InvalidArgumentException.class)
+    public void testRecordNegativeWeight() throws Exception {
+        intHistogram.addBin(1, 10, 0);
+        intHistogram.record(5, -1);
+    }
+
+    /**
+     * Method: recordAll(Iterable<? extends T> values), recordAll(T[] values)
+     */
+    @Test
+    public void testRecordAll() throws Exception {
+        stringHistogram.addBin("a", "c", 0).addBin("m", "p", 0);
+        stringHistogram.recordAll(Arrays.asList("apple", "banana", "nut", "kiwi", "zebra"));
+        stringHistogram.recordAll(new String[] {"orange", "0"});
+        assertEquals(2, stringHistogram.getBins().get(0).getCount());
+        assertEquals(2, stringHistogram.getBins().get(1).getCount());
+        assertEquals(1, stringHistogram.getUnderflowCount());
+        assertEquals(1, stringHistogram.getGapCount());
+        assertEquals(1, stringHistogram.getOverflowCount());
+        assertEquals("values that are not numbers are not summarized", 0,
+                stringHistogram.getSummaryStatistics().getCount());
+    }
+
+    /**
+     * Method: add(ImmutableRangeHistogram<T> other)
+     */
+    @Test
+    public void testAdd() throws Exception {
+        intHistogram.addBin(1, 10, 1).addBin(11, 20, 2);
+        RangeHistogram<Integer> other = new RangeHistogram<>();
+        other.addBin(1, 10, 3).addBin(11, 20, 4);
+        other.record(0);
+        intHistogram.add(other);
+        assertEquals(new Bin<>(1, 10, 4), intHistogram.findBin(1));
+        assertEquals(new Bin<>(11, 20, 6), intHistogram.findBin(11));
+        assertEquals(1, intHistogram.getUnderflowCount());
+        assertEquals(1, intHistogram.getSummaryStatistics().getCount());
+        assertEquals("the other histogram should not change", new Bin<>(1, 10, 3), other.findBin(1));
+    }
+
+    /**
+     * Method: add(ImmutableRangeHistogram<T> other)
+     */
+    @Test
+    public void testAddFinerBins() throws Exception {
+        intHistogram.addBin(1, 10, 0).addBin(11, 20, 0);
+        RangeHistogram<Integer> finer = new RangeHistogram<>();
+        finer.addBin(1, 5, 1).addBin(6, 10, 2).addBin(11, 15, 3).addBin(30, 40, 0);
+        intHistogram.add(finer);
+        assertEquals(3, intHistogram.findBin(1).getCount());
+        assertEquals(3, intHistogram.findBin(11).getCount());
+    }
+
+    /**
+     * Method: add(ImmutableRangeHistogram<T> other)
+     */
+    @Test
+    public void testAddFinerRealBins() throws Exception {
+        RangeHistogram<Double> coarse = new RangeHistogram<>();
+        coarse.addBin(0.0, 2.0, 0).addBin(2.0, 4.0, 0);
+        RangeHistogram<Double> finer = new RangeHistogram<>();
+        finer.addBin(0.0, 1.0, 1).addBin(1.0, 2.0, 2).addBin(2.0, 3.0, 3).addBin(3.0, 4.0, 4);
+        coarse.add(finer);
+        assertEquals(3, coarse.getBins().get(0).getCount());
+        assertEquals(7, coarse.getBins().get(1).getCount());
+
+        RangeHistogram<Double> spanning = new RangeHistogram<>();
+        spanning.addBin(1.0, 3.0, 1);
+        try {
+            coarse.add(spanning);
+            fail("a bin spanning two bins cannot be added");
+        }
+        catch (InvalidStateException e) {
+            assertEquals("the histogram should be unchanged", 10, coarse.getTotalCount());
+        }
+    }
+
+    /**
+     * Method: add(ImmutableRangeHistogram<T> other)
+     */
+    @Test
+    public void testAddIncompatibleBins() throws Exception {
+        intHistogram.addBin(1, 10, 0).addBin(11, 20, 0);
+        RangeHistogram<Integer> other = new RangeHistogram<>();
+        other.addBin(1, 5, 1).addBin(6, 15, 2);
+        try {
+            intHistogram.add(other);
+            fail("a bin spanning two bins cannot be added");
+        }
+        catch (InvalidStateException e) {
+            assertEquals("the histogram should be unchanged", 0, intHistogram.getTotalCount());
+        }
+    }
+
+    /**
+     * Method: merging(ImmutableRangeHistogram<T> layout)
+     */
+    @Test
+    public void testMergingCollector() throws Exception {
+        stringHistogram.addBin("a", "f", 100).addBin("g", "m", 100);
+        List<ImmutableRangeHistogram<String>> histograms = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            RangeHistogram<String> histogram = new RangeHistogram<>();
+            histogram.addBin("a", "f", i).addBin("g", "m", 1);
+            histograms.add(histogram);
+        }
+        RangeHistogram<String> merged = histograms.parallelStream().collect(RangeHistogram.merging(stringHistogram));
+        assertEquals(new Bin<>("a", "f", 49 * 50 / 2), merged.findBin("b"));
+        assertEquals(new Bin<>("g", "m", 50), merged.findBin("h"));
+    }
+
+    /**
+     * Method: valueAtQuantile(double quantile)
+     */
+    @Test
+    public void testValueAtQuantile() throws Exception {
+        intHistogram.addBin(1, 10, 10).addBin(11, 20, 10);
+        assertEquals(1, (int) intHistogram.valueAtQuantile(0.0));
+        assertEquals(5, (int) intHistogram.valueAtQuantile(0.25));
+        assertEquals(10, (int) intHistogram.valueAtQuantile(0.5));
+        assertEquals(15, (int) intHistogram.valueAtQuantile(0.75));
+        assertEquals(20, (int) intHistogram.valueAtQuantile(1.0));
+    }
+
+    @Test
+    public void testValueAtQuantileOfNonNumericBins() throws Exception {
+        stringHistogram.addBin("a", "f", 3).addBin("g", "m", 1);
+        assertEquals("f", stringHistogram.valueAtQuantile(0.5));
+        assertEquals("m", stringHistogram.valueAtQuantile(0.9));
+        assertEquals(3, stringHistogram.countBelow("h"));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testValueAtInvalidQuantile() throws Exception {
+        intHistogram.addBin(1, 10, 10).valueAtQuantile(1.5);
+    }
+
+    @Test
+    public void testQuantilesOfEmptyHistogram() throws Exception {
+        intHistogram.addBin(1, 10, 0);
+        assertNull(intHistogram.valueAtQuantile(0.5));
+        assertTrue(Double.isNaN(intHistogram.quantileOf(5)));
+        assertEquals(0, intHistogram.countBelow(5));
+    }
+
+    /**
+     * Method: the default query methods of ImmutableRangeHistogram, and snapshotOf()
+     */
+    @Test
+    public void testQueriesOfOtherImplementations() throws Exception {
+        intHistogram.addBin(1, 10, 10).addBin(11, 20, 10);
+        List<Bin<Integer>> bins = intHistogram.getBins();
+        ImmutableRangeHistogram<Integer> other = new ImmutableRangeHistogram<Integer>() {
+            @Override
+            public List<Bin<Integer>> getBins() {
+                return bins;
+            }
+
+            @Override
+            public Bin<Integer> findBin(Integer value) {
+                return intHistogram.findBin(value);
+            }
+
+            @Override
+            public boolean contains(Integer value) {
+                return intHistogram.contains(value);
+            }
+        };
+        ImmutableRangeHistogram<Integer> snapshot = ImmutableRangeHistogram.snapshotOf(other);
+        for (ImmutableRangeHistogram<Integer> histogram: Arrays.asList(other, snapshot)) {
+            assertEquals(15, (int) histogram.valueAtQuantile(0.75));
+            assertEquals(10, histogram.countBelow(11));
+            assertEquals(5, histogram.countBetween(6, 11));
+            assertEquals(0.5, histogram.quantileOf(11), 0.0);
+        }
+        assertEquals(intHistogram, snapshot);
+        assertEquals(bins, snapshot.getBins());
+    }
+
+    /**
+     * Method: countBelow(T value), countBetween(T low, T high), quantileOf(T value)
+     */
+    @Test
+    public void testCumulativeCounts() throws Exception {
+        intHistogram.addBin(1, 10, 10).addBin(11, 20, 10);
+        assertEquals(0, intHistogram.countBelow(0));
+        assertEquals(0, intHistogram.countBelow(1));
+        assertEquals(5, intHistogram.countBelow(6));
+        assertEquals(10, intHistogram.countBelow(11));
+        assertEquals(20, intHistogram.countBelow(25));
+        assertEquals(10, intHistogram.countBetween(6, 16));
+        assertEquals(0, intHistogram.countBetween(16, 6));
+        assertEquals(0.5, intHistogram.quantileOf(11), 1e-9);
+    }
+
+    @Test
+    public void testCumulativeCountsFollowChanges() throws Exception {
+        intHistogram.addBin(1, 10, 10);
+        assertEquals(1.0, intHistogram.quantileOf(11), 1e-9);
+        intHistogram.addBin(11, 20, 10);
+        assertEquals(0.5, intHistogram.quantileOf(11), 1e-9);
+        intHistogram.record(15, 20);
+        assertEquals(0.25, intHistogram.quantileOf(11), 1e-9);
+    }
+
+    @Test
+    public void testIntervalDelta() throws Exception {
+        intHistogram.addBin(1, 10, 0).addBin(11, 20, 0);
+        intHistogram.record(5);
+        RangeHistogram<Integer> earlier = intHistogram.snapshot();
+        intHistogram.record(15, 2);
+        intHistogram.record(30);
+        RangeHistogram<Integer> delta = intHistogram.minus(earlier);
+        assertEquals(new Bin<>(1, 10, 0), delta.findBin(1));
+        assertEquals(new Bin<>(11, 20, 2), delta.findBin(11));
+        assertEquals(1, delta.getOverflowCount());
+        assertEquals(3, delta.getSummaryStatistics().getCount());
+        assertEquals(1, earlier.getTotalCount());
+
+        RangeHistogram<Integer> interval = intHistogram.snapshotAndReset();
+        assertEquals(3, interval.getTotalCount());
+        assertEquals(0, intHistogram.getTotalCount());
+        assertEquals(0, intHistogram.getOverflowCount());
+        intHistogram.record(5);
+        assertEquals(new Bin<>(1, 10, 1), intHistogram.findBin(1));
+        assertEquals(new Bin<>(1, 10, 1), interval.findBin(1));
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMinusAfterAddingBins() throws Exception {
+        intHistogram.addBin(1, 10, 0);
+        RangeHistogram<Integer> earlier = intHistogram.snapshot();
+        intHistogram.addBin(11, 20, 0);
+        intHistogram.minus(earlier);
+    }
+}
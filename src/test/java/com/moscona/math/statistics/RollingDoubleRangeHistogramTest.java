@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * RollingDoubleRangeHistogram Tester. Uses a fake clock.
+ */
+public class RollingDoubleRangeHistogramTest {
+    private AtomicLong time;
+    private RollingDoubleRangeHistogram histogram;
+
+    @Before
+    public void before() throws Exception {
+        time = new AtomicLong(1000000);
+        // a 60 second window of 6 intervals of 10 seconds
+        histogram = new RollingDoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 100.0, 10), 6, 10000, time::get);
+    }
+
+    @Test
+    public void testValuesExpireWithTheirInterval() throws Exception {
+        histogram.record(5.0);
+        time.addAndGet(10000);
+        histogram.record(15.0, 2);
+        histogram.record(-1.0);
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(2, histogram.getCount(1));
+        assertEquals(1, histogram.getUnderflowCount());
+
+        time.addAndGet(50000); // the first interval leaves the window
+        assertEquals(0, histogram.getCount(0));
+        assertEquals(2, histogram.getCount(1));
+        assertEquals(2, histogram.getTotalCount());
+
+        time.addAndGet(10000); // and now the second
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getUnderflowCount());
+    }
+
+    @Test
+    public void testLongIdlePeriodClearsEverything() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            histogram.record(55.0);
+            time.addAndGet(10000);
+        }
+        assertEquals(5, histogram.getCount(5));
+        time.addAndGet(1000L * 10000);
+        assertEquals(0, histogram.getCount(5));
+        histogram.record(55.0);
+        assertEquals(1, histogram.getCount(5));
+    }
+
+    @Test
+    public void testClockGoingBackwards() throws Exception {
+        histogram.record(5.0);
+        time.addAndGet(-100000);
+        histogram.record(5.0);
+        assertEquals(2, histogram.getCount(0));
+    }
+
+    @Test
+    public void testWindowShorterThanIntervals() throws Exception {
+        try {
+            new RollingDoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 100.0, 10), 10, 5);
+            fail("a 5 ms window cannot have 10 intervals");
+        }
+        catch (InvalidArgumentException e) {
+            assertEquals("a window of 5 ms cannot be divided into 10 intervals of at least 1 ms", e.getMessage());
+        }
+        new RollingDoubleRangeHistogram(new LinearDoubleBinLayout(0.0, 100.0, 10), 10, 10); // 1 ms intervals are fine
+    }
+
+    @Test
+    public void testViewAndSnapshot() throws Exception {
+        histogram.record(55.0, 3);
+        histogram.record(500.0);
+        assertEquals(new Bin<>(50.0, 60.0, 3), histogram.findBin(51.0));
+        assertEquals(10, histogram.getBins().size());
+        DoubleRangeHistogram snapshot = histogram.snapshot();
+        time.addAndGet(60000);
+        assertEquals(3, snapshot.getCount(5));
+        assertEquals(1, snapshot.getOverflowCount());
+        assertEquals(0, histogram.getCount(5));
+        assertEquals(4, snapshot.getSummaryStatistics().getCount());
+        assertEquals(665.0, snapshot.getSummaryStatistics().getSum(), 0.0);
+        assertEquals("the summary expires with the window", 0, histogram.getSummaryStatistics().getCount());
+    }
+
+    @Test
+    public void testConcurrentRecordingWhileRotating() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 100000; i++) {
+                    histogram.record(i % 100);
+                    if (i % 1000 == 0) {
+                        time.addAndGet(100); // one interval every 100 records per thread
+                    }
+                }
+            }));
+        }
+        for (Future<?> future: futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        // whatever happened during rotation, the window must always equal the sum of what is left in the intervals
+        long window = histogram.getTotalCount();
+        assertTrue("the window cannot hold more than was recorded", window >= 0 && window <= 400000);
+        time.addAndGet(60000);
+        assertEquals("once all intervals expire nothing should be left", 0, histogram.getTotalCount());
+        assertEquals(0, histogram.getOverflowCount());
+    }
+}
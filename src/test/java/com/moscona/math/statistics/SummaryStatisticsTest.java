@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015. Arnon Moscona
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU Lesser General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.moscona.math.statistics;
+
+import com.moscona.exceptions.InvalidArgumentException;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * SummaryStatistics Tester.
+ */
+public class SummaryStatisticsTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void testEmpty() throws Exception {
+        SummaryStatistics summary = new SummaryStatistics();
+        assertEquals(0, summary.getCount());
+        assertEquals(0.0, summary.getSum(), 0.0);
+        assertTrue(Double.isNaN(summary.getMean()));
+        assertTrue(Double.isNaN(summary.getVariance()));
+        assertTrue(Double.isNaN(summary.getMin()));
+        assertTrue(Double.isNaN(summary.getMax()));
+    }
+
+    @Test
+    public void testMatchesTwoPassComputation() throws Exception {
+        Random random = new Random(17);
+        double[] values = new double[10000];
+        SummaryStatistics summary = new SummaryStatistics();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1e6 + random.nextGaussian(); // a large offset defeats the sum of squares formula
+            summary.record(values[i]);
+        }
+        double sum = 0.0;
+        for (double value: values) {
+            sum += value;
+        }
+        double mean = sum / values.length;
+        double squares = 0.0;
+        for (double value: values) {
+            squares += (value - mean) * (value - mean);
+        }
+        assertEquals(values.length, summary.getCount());
+        assertEquals(mean, summary.getMean(), 1e-6);
+        assertEquals(squares / values.length, summary.getVariance(), 1e-6);
+        assertEquals(squares / (values.length - 1), summary.getSampleVariance(), 1e-6);
+        assertEquals(sum, summary.getSum(), 1e-3);
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        SummaryStatistics weighted = new SummaryStatistics();
+        weighted.record(1.0, 3);
+        weighted.record(5.0, 1);
+        weighted.record(100.0, 0);
+        SummaryStatistics repeated = new SummaryStatistics();
+        for (double value: new double[] {1.0, 1.0, 1.0, 5.0}) {
+            repeated.record(value);
+        }
+        assertEquals(4, weighted.getCount());
+        assertEquals(repeated.getMean(), weighted.getMean(), DELTA);
+        assertEquals(repeated.getVariance(), weighted.getVariance(), DELTA);
+        assertEquals(8.0, weighted.getSum(), 0.0);
+        assertEquals(5.0, weighted.getMax(), 0.0);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testNegativeWeight() throws Exception {
+        new SummaryStatistics().record(1.0, -1);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        Random random = new Random(3);
+        SummaryStatistics all = new SummaryStatistics();
+        SummaryStatistics first = new SummaryStatistics();
+        SummaryStatistics second = new SummaryStatistics();
+        for (int i = 0; i < 1000; i++) {
+            double value = random.nextDouble() * 100.0;
+            all.record(value);
+            (i % 3 == 0 ? first : second).record(value);
+        }
+        assertSame(first, first.merge(second));
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), DELTA);
+        assertEquals(all.getVariance(), first.getVariance(), 1e-6);
+        assertEquals(all.getSum(), first.getSum(), 1e-9);
+        assertEquals(all.getMin(), first.getMin(), 0.0);
+        assertEquals(all.getMax(), first.getMax(), 0.0);
+    }
+
+    @Test
+    public void testMergeEmptyAndSelf() throws Exception {
+        SummaryStatistics summary = new SummaryStatistics();
+        summary.merge(new SummaryStatistics());
+        assertEquals(0, summary.getCount());
+        summary.record(2.0);
+        summary.record(4.0);
+        new SummaryStatistics().merge(summary);
+        summary.merge(summary);
+        assertEquals(4, summary.getCount());
+        assertEquals(3.0, summary.getMean(), 0.0);
+        assertEquals(1.0, summary.getVariance(), DELTA);
+        assertEquals(12.0, summary.getSum(), 0.0);
+        SummaryStatistics copy = new SummaryStatistics(summary);
+        summary.record(10.0);
+        assertEquals(4, copy.getCount());
+    }
+
+    @Test
+    public void testMinus() throws Exception {
+        Random random = new Random(8);
+        SummaryStatistics summary = new SummaryStatistics();
+        for (int i = 0; i < 1000; i++) {
+            summary.record(random.nextDouble());
+        }
+        SummaryStatistics earlier = new SummaryStatistics(summary);
+        SummaryStatistics later = new SummaryStatistics();
+        for (int i = 0; i < 500; i++) {
+            double value = 10.0 + random.nextDouble() * 0.5;
+            summary.record(value);
+            later.record(value);
+        }
+        SummaryStatistics delta = summary.minus(earlier);
+        assertEquals(later.getCount(), delta.getCount());
+        assertEquals(later.getMean(), delta.getMean(), 1e-9);
+        assertEquals(later.getVariance(), delta.getVariance(), 1e-9);
+        assertEquals(later.getSum(), delta.getSum(), 1e-9);
+        assertEquals("the maximum moved up, so it is known", later.getMax(), delta.getMax(), 0.0);
+        assertTrue("the minimum did not move, so it is not known", Double.isNaN(delta.getMin()));
+        delta.record(-1.0);
+        assertTrue(Double.isNaN(delta.getMin()));
+
+        assertEquals(0, summary.minus(summary).getCount());
+        assertEquals(summary.getMean(), summary.minus(new SummaryStatistics()).getMean(), 0.0);
+    }
+
+    @Test(expected = InvalidArgumentException.class)
+    public void testMinusLargerSummary() throws Exception {
+        SummaryStatistics summary = new SummaryStatistics();
+        summary.record(1.0);
+        new SummaryStatistics().minus(summary);
+    }
+
+    @Test
+    public void testNaNIsIgnored() throws Exception {
+        SummaryStatistics summary = new SummaryStatistics();
+        summary.record(Double.NaN);
+        summary.record(1.0);
+        summary.record(Double.NaN, 5);
+        assertEquals(1, summary.getCount());
+        assertEquals(1.0, summary.getMean(), 0.0);
+        assertEquals(0.0, summary.getVariance(), 0.0);
+    }
+
+    @Test
+    public void testInfinity() throws Exception {
+        SummaryStatistics summary = new SummaryStatistics();
+        summary.record(1.0);
+        summary.record(Double.POSITIVE_INFINITY);
+        assertEquals(Double.POSITIVE_INFINITY, summary.getSum(), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, summary.getMax(), 0.0);
+        assertEquals(1.0, summary.getMin(), 0.0);
+    }
+
+    @Test
+    public void testCompensatedSum() throws Exception {
+        SummaryStatistics summary = new SummaryStatistics();
+        summary.record(1.0);
+        for (int i = 0; i < 1000; i++) {
+            summary.record(1e-16);
+        }
+        assertEquals(1.0 + 1e-13, summary.getSum(), 1e-16);
+    }
+}